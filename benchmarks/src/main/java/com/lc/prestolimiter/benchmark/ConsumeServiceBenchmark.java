@@ -0,0 +1,112 @@
+package com.lc.prestolimiter.benchmark;
+
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.consumer.ConsumeService;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 消费者调度热路径的压测，zk操作由{@link StubCoordinationBackend}替代.
+ * 注册队列预先填充backlog个节点，每次操作后队列长度保持不变，执行队列始终处于满额.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ConsumeServiceBenchmark {
+
+    private static final long REGISTER_EXPIRE_MILLS = TimeUnit.DAYS.toMillis(1);
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int backlog;
+
+    @Param({"NORMAL_ONLY", "CIRCLE_PEOPLE_10", "CIRCLE_PEOPLE_50"})
+    private TypeMix typeMix;
+
+    private StubCoordinationBackend backend;
+    private ConsumeService consumeService;
+    private Random random;
+    private long nodeSeq;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        backend = new StubCoordinationBackend();
+        consumeService = new ConsumeService(backend);
+        consumeService.setCanConsume(true);
+        random = new Random(backlog);
+        for (int i = 0; i < backlog; i++) {
+            consumeService.addRegisterNodeToQueue(nextRegisterObject());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        consumeService.stop();
+    }
+
+    /**
+     * 新请求入队，执行队列已满，调度只检查队首后立即返回，随后请求放弃排队.
+     */
+    @Benchmark
+    public void addAndDeleteRegisterNode() {
+        RegisterObject registerObject = nextRegisterObject();
+        consumeService.addRegisterNodeToQueue(registerObject);
+        consumeService.deleteRegisterNodeFromQueue(registerObject.getNode());
+    }
+
+    /**
+     * 一个执行中的请求结束，释放的资源立即调度给注册队列的队首，同时有一个新请求入队.
+     */
+    @Benchmark
+    public void deleteConsumeNodeAndMove() {
+        consumeService.addRegisterNodeToQueue(nextRegisterObject());
+        String node = backend.pollMovedNode();
+        if (node != null) {
+            consumeService.deleteConsumeNodeFromQueue(node);
+        }
+    }
+
+    /**
+     * 没有资源变化时的一次调度，衡量执行队列满额时检查队首的固定开销.
+     */
+    @Benchmark
+    public void moveNodesToConsumePathWhenFull() {
+        consumeService.moveNodesToConsumePath();
+    }
+
+    private RegisterObject nextRegisterObject() {
+        QueryType queryType = random.nextInt(100) < typeMix.circlePeoplePercent
+            ? QueryType.CIRCLE_PEOPLE : QueryType.NORMAL;
+        return new RegisterObject(1 + random.nextInt(100),
+            System.currentTimeMillis() + REGISTER_EXPIRE_MILLS + random.nextInt(60000), queryType,
+            String.format("%010d", nodeSeq++));
+    }
+
+    public enum TypeMix {
+        NORMAL_ONLY(0),
+        CIRCLE_PEOPLE_10(10),
+        CIRCLE_PEOPLE_50(50);
+
+        private final int circlePeoplePercent;
+
+        TypeMix(int circlePeoplePercent) {
+            this.circlePeoplePercent = circlePeoplePercent;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.lc.prestolimiter.benchmark;
+
+import com.lc.prestolimiter.coordination.ChildrenWatch;
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeData;
+import com.lc.prestolimiter.coordination.NodeMove;
+import com.lc.prestolimiter.coordination.NodeWatch;
+import com.lc.prestolimiter.zookeeper.common.NodeChangeListener;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计每类协调请求次数的包装，一次事务移动或事务修改计为一次请求.
+ * 监听内部的读取(如缓存子节点数据)不经过这里，由服务端的收包数统计.
+ */
+public class CountingCoordinationBackend implements CoordinationBackend {
+
+    private final CoordinationBackend delegate;
+    private final LongAdder createCount = new LongAdder();
+    private final LongAdder lockCount = new LongAdder();
+    private final LongAdder readCount = new LongAdder();
+    private final LongAdder setDataCount = new LongAdder();
+    private final LongAdder deleteCount = new LongAdder();
+    private final LongAdder moveCount = new LongAdder();
+    private final LongAdder movedNodeCount = new LongAdder();
+
+    public CountingCoordinationBackend(CoordinationBackend delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 各类请求的累计次数，按固定顺序输出.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("create", createCount.sum());
+        counts.put("lock", lockCount.sum());
+        counts.put("read", readCount.sum());
+        counts.put("setData", setDataCount.sum());
+        counts.put("delete", deleteCount.sum());
+        counts.put("move", moveCount.sum());
+        counts.put("movedNodes", movedNodeCount.sum());
+        return counts;
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public String createSequential(String parentPath, String prefix, byte[] data,
+        boolean ephemeral) throws Exception {
+        createCount.increment();
+        return delegate.createSequential(parentPath, prefix, data, ephemeral);
+    }
+
+    @Override
+    public List<String> createSequential(String parentPath, List<String> prefixes, byte[] data,
+        boolean ephemeral) throws Exception {
+        createCount.increment();
+        return delegate.createSequential(parentPath, prefixes, data, ephemeral);
+    }
+
+    @Override
+    public boolean tryLock(String path, byte[] data) throws Exception {
+        lockCount.increment();
+        return delegate.tryLock(path, data);
+    }
+
+    @Override
+    public boolean exists(String path) throws Exception {
+        readCount.increment();
+        return delegate.exists(path);
+    }
+
+    @Override
+    public List<String> getChildren(String path) throws Exception {
+        readCount.increment();
+        return delegate.getChildren(path);
+    }
+
+    @Override
+    public byte[] getData(String path) throws Exception {
+        readCount.increment();
+        return delegate.getData(path);
+    }
+
+    @Override
+    public void setData(String path, byte[] data) throws Exception {
+        setDataCount.increment();
+        delegate.setData(path, data);
+    }
+
+    @Override
+    public void setData(List<NodeData> updates) throws Exception {
+        setDataCount.increment();
+        delegate.setData(updates);
+    }
+
+    @Override
+    public void delete(String path) throws Exception {
+        deleteCount.increment();
+        delegate.delete(path);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String path) {
+        deleteCount.increment();
+        return delegate.deleteAsync(path);
+    }
+
+    @Override
+    public void move(List<NodeMove> moves) throws Exception {
+        moveCount.increment();
+        movedNodeCount.add(moves.size());
+        delegate.move(moves);
+    }
+
+    @Override
+    public String deleteAndCreateSequential(List<String> deletePaths, String parentPath,
+        String prefix, byte[] data) throws Exception {
+        moveCount.increment();
+        return delegate.deleteAndCreateSequential(deletePaths, parentPath, prefix, data);
+    }
+
+    @Override
+    public ChildrenWatch watchChildren(String path, PathChangeListener listener,
+        boolean cacheData) {
+        return delegate.watchChildren(path, listener, cacheData);
+    }
+
+    @Override
+    public NodeWatch watchNode(String path, NodeChangeListener listener) {
+        return delegate.watchNode(path, listener);
+    }
+}
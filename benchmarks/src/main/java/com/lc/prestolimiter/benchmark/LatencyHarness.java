@@ -0,0 +1,354 @@
+package com.lc.prestolimiter.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.WaiterThreadFactory;
+import com.lc.prestolimiter.service.PrestoLimiterService;
+import com.lc.prestolimiter.zookeeper.common.CuratorCoordinationBackend;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.test.TestingServer;
+
+/**
+ * 端到端的获取许可延迟压测，在进程内启动zookeeper，运行多个{@link PrestoLimiterService}实例(第一个可作为消费者).
+ * 请求按轮询分配给各实例，通过{@code acquireAsync}等待，等待中的请求不占用线程，可以模拟十万级的并发等待.
+ * 未指定到达速率时为闭环模式，始终保持waiters个等待中的请求；指定到达速率时按泊松过程到达，等待数达到waiters时丢弃.
+ * 指定{@code --blocking true}时每个请求占用一个等待线程，通过阻塞的{@code getExecutePermission}获取许可，
+ * 在Java 21及以上运行时等待线程为虚拟线程.
+ * 结果以一行json输出到标准输出，集群的并发上限等配置通过-Dlimiter.properties指定.
+ *
+ * <p>java -cp target/benchmarks.jar com.lc.prestolimiter.benchmark.LatencyHarness --waiters 10000
+ */
+public class LatencyHarness {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Map<String, String> DEFAULT_OPTIONS = new HashMap<>();
+
+    static {
+        DEFAULT_OPTIONS.put("instances", "3"); //服务实例个数.
+        DEFAULT_OPTIONS.put("waiters", "1000"); //并发等待数上限.
+        DEFAULT_OPTIONS.put("arrivalRate", "0"); //每秒到达的请求数，0表示闭环.
+        DEFAULT_OPTIONS.put("holdMills", "20"); //获得许可后的平均执行时间，指数分布.
+        DEFAULT_OPTIONS.put("priorities", "10:70,50:20,90:10"); //优先级:权重.
+        DEFAULT_OPTIONS.put("circlePeoplePercent", "0"); //圈人查询的占比.
+        DEFAULT_OPTIONS.put("waitTimeoutMills", "600000");
+        DEFAULT_OPTIONS.put("warmupSeconds", "5");
+        DEFAULT_OPTIONS.put("durationSeconds", "30");
+        DEFAULT_OPTIONS.put("blocking", "false"); //每个请求占用一个线程阻塞等待许可.
+    }
+
+    private final Map<String, String> options;
+    private final int waiters;
+    private final double arrivalRate;
+    private final long holdMills;
+    private final int[] priorities;
+    private final int[] priorityWeights;
+    private final int circlePeoplePercent;
+    private final long waitTimeoutMills;
+    private final boolean blocking;
+    private final List<PrestoLimiterService> services = new ArrayList<>();
+    private final List<CountingCoordinationBackend> backends = new ArrayList<>();
+    private final ExecutorService workerExecutor;
+    private final WaiterThreadFactory waiterThreadFactory = new WaiterThreadFactory("waiter-");
+    private final ScheduledExecutorService scheduledExecutor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger held = new AtomicInteger();
+    private final AtomicLong requestSeq = new AtomicLong();
+    private final LongAdder grants = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder();
+    private volatile boolean running;
+    private volatile long measureStartNanos = Long.MAX_VALUE;
+    private volatile long measureEndNanos = Long.MAX_VALUE;
+
+    private LatencyHarness(Map<String, String> options) {
+        this.options = options;
+        this.waiters = Integer.parseInt(options.get("waiters"));
+        this.arrivalRate = Double.parseDouble(options.get("arrivalRate"));
+        this.holdMills = Long.parseLong(options.get("holdMills"));
+        this.circlePeoplePercent = Integer.parseInt(options.get("circlePeoplePercent"));
+        this.waitTimeoutMills = Long.parseLong(options.get("waitTimeoutMills"));
+        this.blocking = Boolean.parseBoolean(options.get("blocking"));
+        String[] priorityMix = options.get("priorities").split(",");
+        this.priorities = new int[priorityMix.length];
+        this.priorityWeights = new int[priorityMix.length];
+        for (int i = 0; i < priorityMix.length; i++) {
+            String[] pair = priorityMix[i].split(":");
+            priorities[i] = Integer.parseInt(pair[0].trim());
+            priorityWeights[i] = (i == 0 ? 0 : priorityWeights[i - 1])
+                + Integer.parseInt(pair[1].trim());
+        }
+        this.workerExecutor = Executors.newFixedThreadPool(16);
+        this.scheduledExecutor = Executors.newScheduledThreadPool(2);
+    }
+
+    public static void main(String[] args) throws Exception {
+        //十万级的注册节点时子节点列表会超过zk默认1M的包大小限制，服务端与客户端在同一进程内共用该配置.
+        System.setProperty("jute.maxbuffer", String.valueOf(64 * 1024 * 1024));
+        Map<String, String> options = new HashMap<>(DEFAULT_OPTIONS);
+        for (int i = 0; i < args.length; i += 2) {
+            String key = args[i].replaceFirst("^--", "");
+            if (!DEFAULT_OPTIONS.containsKey(key) || i + 1 >= args.length) {
+                throw new IllegalArgumentException(String.format(
+                    "unknown option [%s], the options are %s", args[i], DEFAULT_OPTIONS.keySet()));
+            }
+            options.put(key, args[i + 1]);
+        }
+        try (TestingServer server = new TestingServer(true)) {
+            LatencyHarness harness = new LatencyHarness(options);
+            try {
+                System.out.println(JSON.toJSONString(harness.run(server)));
+            } finally {
+                harness.stop();
+            }
+        }
+    }
+
+    private JSONObject run(TestingServer server) throws Exception {
+        int instances = Integer.parseInt(options.get("instances"));
+        for (int i = 0; i < instances; i++) {
+            CountingCoordinationBackend backend = new CountingCoordinationBackend(
+                new CuratorCoordinationBackend(CuratorFrameworkFactory.newClient(
+                    server.getConnectString(), NativeProperties.getZkSessionTimeoutMs(),
+                    NativeProperties.getZkCnxnTimeoutMs(), new RetryNTimes(
+                        NativeProperties.getZkRetryTimes(),
+                        NativeProperties.getZkSleepMsBetweenRetries()))));
+            PrestoLimiterService service = new PrestoLimiterService(i == 0, backend);
+            if (!service.start()) {
+                throw new IllegalStateException("presto limiter service start fail");
+            }
+            backends.add(backend);
+            services.add(service);
+        }
+        //消费者就绪后才开始计时.
+        Permit probe = services.get(0).acquireAsync(100, QueryType.NORMAL, 60000).get();
+        services.get(0).deleteExecutePermition(probe.getPath());
+
+        running = true;
+        if (arrivalRate > 0) {
+            scheduledExecutor.execute(this::arrive);
+        } else {
+            for (int i = 0; i < waiters; i++) {
+                workerExecutor.execute(this::acquire);
+            }
+        }
+        TimeUnit.SECONDS.sleep(Long.parseLong(options.get("warmupSeconds")));
+
+        long zkPacketsStart = readServerPacketsReceived(server.getConnectString());
+        List<Map<String, Long>> zkOpsStart = snapshotBackends();
+        long grantsStart = grants.sum();
+        measureStartNanos = System.nanoTime();
+        long samples = 0;
+        long heldSum = 0;
+        long measureNanos = TimeUnit.SECONDS
+            .toNanos(Long.parseLong(options.get("durationSeconds")));
+        while (System.nanoTime() - measureStartNanos < measureNanos) {
+            TimeUnit.MILLISECONDS.sleep(10);
+            heldSum += held.get();
+            samples++;
+        }
+        measureEndNanos = System.nanoTime();
+        long measuredGrants = grants.sum() - grantsStart;
+        long zkPackets = readServerPacketsReceived(server.getConnectString()) - zkPacketsStart;
+        Map<String, Long> zkOps = diff(zkOpsStart, snapshotBackends());
+        running = false;
+
+        double seconds = (measureEndNanos - measureStartNanos) / 1e9;
+        long[] latencies = latencyRecorder.sortedCopy();
+        JSONObject result = new JSONObject(true);
+        result.put("options", new JSONObject(new HashMap<>(options)));
+        result.put("limit", NativeProperties.getPrestoLimitCnt());
+        result.put("virtualWaiters", blocking && WaiterThreadFactory.isVirtual());
+        result.put("seconds", seconds);
+        result.put("grants", measuredGrants);
+        result.put("grantThroughput", measuredGrants / seconds);
+        result.put("failures", failures.sum());
+        result.put("dropped", dropped.sum());
+        JSONObject latency = new JSONObject(true);
+        latency.put("count", latencies.length);
+        latency.put("p50", percentileMills(latencies, 0.5));
+        latency.put("p99", percentileMills(latencies, 0.99));
+        latency.put("p999", percentileMills(latencies, 0.999));
+        latency.put("max", percentileMills(latencies, 1));
+        result.put("grantLatencyMills", latency);
+        result.put("slotUtilization",
+            samples == 0 ? 0 : (double) heldSum / samples / NativeProperties.getPrestoLimitCnt());
+        result.put("zkPacketsPerGrant",
+            measuredGrants == 0 ? 0 : (double) zkPackets / measuredGrants);
+        result.put("zkOps", zkOps);
+        return result;
+    }
+
+    private void stop() {
+        running = false;
+        scheduledExecutor.shutdownNow();
+        workerExecutor.shutdownNow();
+        for (PrestoLimiterService service : services) {
+            service.stop();
+        }
+    }
+
+    //泊松到达，等待数达到上限时丢弃本次到达.
+    private void arrive() {
+        if (!running) {
+            return;
+        }
+        if (pending.get() < waiters) {
+            workerExecutor.execute(this::acquire);
+        } else {
+            dropped.increment();
+        }
+        long delayNanos = (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble())
+            / arrivalRate * 1e9);
+        scheduledExecutor.schedule(this::arrive, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void acquire() {
+        if (!running) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        PrestoLimiterService service = services
+            .get((int) (requestSeq.getAndIncrement() % services.size()));
+        QueryType queryType = random.nextInt(100) < circlePeoplePercent
+            ? QueryType.CIRCLE_PEOPLE : QueryType.NORMAL;
+        int priority = nextPriority(random);
+        pending.incrementAndGet();
+        long startNanos = System.nanoTime();
+        if (blocking) {
+            waiterThreadFactory.newThread(() -> complete(service, startNanos, service
+                .getExecutePermissionWithTimeoutMills(priority, queryType, waitTimeoutMills)))
+                .start();
+            return;
+        }
+        service.acquireAsync(priority, queryType, waitTimeoutMills).whenCompleteAsync(
+            (permit, throwable) -> complete(service, startNanos,
+                permit == null ? null : permit.getPath()), workerExecutor);
+    }
+
+    private void complete(PrestoLimiterService service, long startNanos, String path) {
+        long endNanos = System.nanoTime();
+        pending.decrementAndGet();
+        if (path != null) {
+            held.incrementAndGet();
+            grants.increment();
+            //统计窗口内完成的所有许可，包括预热期间开始排队的请求.
+            if (endNanos >= measureStartNanos && endNanos <= measureEndNanos) {
+                latencyRecorder.record(endNanos - startNanos);
+            }
+            scheduledExecutor.schedule(() -> release(service, path),
+                (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * holdMills),
+                TimeUnit.MILLISECONDS);
+        } else {
+            failures.increment();
+        }
+        if (arrivalRate <= 0) {
+            acquire();
+        }
+    }
+
+    private void release(PrestoLimiterService service, String path) {
+        held.decrementAndGet();
+        workerExecutor.execute(() -> service.deleteExecutePermition(path));
+    }
+
+    private int nextPriority(ThreadLocalRandom random) {
+        int value = random.nextInt(priorityWeights[priorityWeights.length - 1]);
+        for (int i = 0; i < priorityWeights.length; i++) {
+            if (value < priorityWeights[i]) {
+                return priorities[i];
+            }
+        }
+        return priorities[priorities.length - 1];
+    }
+
+    private List<Map<String, Long>> snapshotBackends() {
+        List<Map<String, Long>> snapshots = new ArrayList<>();
+        for (CountingCoordinationBackend backend : backends) {
+            snapshots.add(backend.snapshot());
+        }
+        return snapshots;
+    }
+
+    private static Map<String, Long> diff(List<Map<String, Long>> before,
+        List<Map<String, Long>> after) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < after.size(); i++) {
+            for (Map.Entry<String, Long> entry : after.get(i).entrySet()) {
+                counts.merge(entry.getKey(),
+                    entry.getValue() - before.get(i).get(entry.getKey()), Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    private static double percentileMills(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    //服务端统计的累计收包数，包括监听内部的读取与会话心跳.
+    private static long readServerPacketsReceived(String connectString) throws Exception {
+        String[] hostAndPort = connectString.split(",")[0].split(":");
+        try (Socket socket = new Socket(hostAndPort[0], Integer.parseInt(hostAndPort[1]))) {
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write("srvr".getBytes(UTF_8));
+            outputStream.flush();
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Received:")) {
+                    return Long.parseLong(line.substring("Received:".length()).trim());
+                }
+            }
+        }
+        return 0;
+    }
+
+    //记录纳秒延迟，结束后排序计算分位数.
+    private static class LatencyRecorder {
+
+        private long[] values = new long[1 << 16];
+        private int size;
+
+        private synchronized void record(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        private synchronized long[] sortedCopy() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.lc.prestolimiter.benchmark;
+
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RegisterObject}比较与哈希的压测，对象预先生成，循环取用.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegisterObjectBenchmark {
+
+    private static final int SIZE = 1024; //2的幂，下标取模用位运算.
+
+    private RegisterObject[] registerObjects;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(SIZE);
+        long now = System.currentTimeMillis();
+        registerObjects = new RegisterObject[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            registerObjects[i] = new RegisterObject(1 + random.nextInt(100),
+                now + random.nextInt(60000),
+                random.nextInt(10) == 0 ? QueryType.CIRCLE_PEOPLE : QueryType.NORMAL,
+                String.format("%010d", i));
+        }
+    }
+
+    @Benchmark
+    public int compareTo() {
+        int i = index++ & (SIZE - 1);
+        return registerObjects[i].compareTo(registerObjects[(i + 1) & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return registerObjects[index++ & (SIZE - 1)].hashCode();
+    }
+}
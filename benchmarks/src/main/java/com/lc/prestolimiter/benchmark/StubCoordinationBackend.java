@@ -0,0 +1,139 @@
+package com.lc.prestolimiter.benchmark;
+
+import com.lc.prestolimiter.coordination.ChildrenWatch;
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeData;
+import com.lc.prestolimiter.coordination.NodeMove;
+import com.lc.prestolimiter.coordination.NodeWatch;
+import com.lc.prestolimiter.zookeeper.common.NodeChangeListener;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
+import org.apache.curator.utils.ZKPaths;
+
+/**
+ * 不保存任何节点的协调实现，所有写操作直接成功，只用于压测调度本身的开销.
+ * 被移动到执行目录的节点名称按顺序记录下来，压测据此模拟执行结束.
+ */
+public class StubCoordinationBackend implements CoordinationBackend {
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final ArrayDeque<String> movedNodes = new ArrayDeque<>();
+
+    /**
+     * 最早被移动到执行目录且尚未取走的节点，没有返回null.
+     */
+    public String pollMovedNode() {
+        return movedNodes.poll();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String createSequential(String parentPath, String prefix, byte[] data,
+        boolean ephemeral) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<String> createSequential(String parentPath, List<String> prefixes, byte[] data,
+        boolean ephemeral) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean tryLock(String path, byte[] data) {
+        return true;
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return false;
+    }
+
+    @Override
+    public List<String> getChildren(String path) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public byte[] getData(String path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setData(String path, byte[] data) {
+    }
+
+    @Override
+    public void setData(List<NodeData> updates) {
+    }
+
+    @Override
+    public void delete(String path) {
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String path) {
+        return DONE;
+    }
+
+    @Override
+    public void move(List<NodeMove> moves) {
+        for (NodeMove move : moves) {
+            movedNodes.add(ZKPaths.getNodeFromPath(move.getToPath()));
+        }
+    }
+
+    @Override
+    public String deleteAndCreateSequential(List<String> deletePaths, String parentPath,
+        String prefix, byte[] data) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ChildrenWatch watchChildren(String path, PathChangeListener listener,
+        boolean cacheData) {
+        return new ChildrenWatch() {
+            @Override
+            public void start(StartMode startMode) {
+            }
+
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public boolean containsNode(String node) {
+                return false;
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+    }
+
+    @Override
+    public NodeWatch watchNode(String path, NodeChangeListener listener) {
+        return new NodeWatch() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+    }
+}
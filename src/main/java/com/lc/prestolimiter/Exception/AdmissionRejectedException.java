@@ -0,0 +1,21 @@
+package com.lc.prestolimiter.Exception;
+
+/**
+ * 预估的排队时间超过了等待超时，请求在注册之前被拒绝.
+ */
+public class AdmissionRejectedException extends PrestoLimiterException {
+
+    private final long retryAfterMills;
+
+    public AdmissionRejectedException(String message, long retryAfterMills) {
+        super(message);
+        this.retryAfterMills = retryAfterMills;
+    }
+
+    /**
+     * 建议的重试间隔，即排在前面的请求预计还需要多久才能减少到在等待超时内可以完成.
+     */
+    public long getRetryAfterMills() {
+        return retryAfterMills;
+    }
+}
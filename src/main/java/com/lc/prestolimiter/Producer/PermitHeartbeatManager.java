@@ -0,0 +1,180 @@
+package com.lc.prestolimiter.Producer;
+
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeData;
+import com.lc.prestolimiter.metrics.Counter;
+import com.lc.prestolimiter.metrics.MetricsRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 执行许可的心跳续约.
+ * 开启心跳后消费者给执行节点的有效期只有一个心跳超时，持有者至少每半个超时调用一次心跳，
+ * 本机每三分之一个超时把有新心跳的许可的过期时间延长到最近一次心跳加一个超时，合并在一个zk事务里提交，
+ * 持有者消失的许可在最后一次心跳的一个超时后被消费者回收.
+ * 主机租约的执行节点在租约有效期内固定续约，不依赖心跳.
+ */
+public class PermitHeartbeatManager {
+
+    private static final Logger LOGGER = LoggerFactory
+        .getLogger(PermitHeartbeatManager.class.getName());
+    private static final int RENEW_BATCH_SIZE = 256; //一个事务中续约的最大节点数，受zk单个请求大小的限制.
+
+    private final CoordinationBackend backend;
+    private final ConcurrentMap<String, HeldPermit> heldPermitMap; //执行节点路径 -> 持有中的许可.
+    private final ScheduledFuture<?> renewTask;
+    private final Counter renewCount;
+    private final Counter abandonCount;
+
+    public PermitHeartbeatManager(CoordinationBackend backend,
+        ScheduledExecutorService scheduledExecutor, MetricsRegistry metricsRegistry) {
+        this.backend = backend;
+        this.heldPermitMap = new ConcurrentHashMap<>();
+        this.renewCount = metricsRegistry.counter("producer.heartbeat.renew");
+        this.abandonCount = metricsRegistry.counter("producer.heartbeat.abandon");
+        metricsRegistry.gauge("producer.heartbeat.held", heldPermitMap::size);
+        long renewIntervalMills =
+            Math.max(1, NativeProperties.getProducerConsumeHeartbeatMills() / 3);
+        this.renewTask = scheduledExecutor.scheduleWithFixedDelay(this::renew, renewIntervalMills,
+            renewIntervalMills, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开始续约获得的许可，获得许可时视为一次心跳.
+     *
+     * @param consumeObject 执行节点的数据，续约时只修改过期时间.
+     * @param pinned 是否不依赖心跳一直续约，直到{@link #setPinned}取消或释放.
+     */
+    public void track(String path, RegisterObject consumeObject, boolean pinned) {
+        consumeObject.setExpireTime(
+            System.currentTimeMillis() + NativeProperties.getProducerConsumeHeartbeatMills());
+        heldPermitMap.put(path, new HeldPermit(consumeObject, pinned));
+    }
+
+    /**
+     * 持有者的心跳，下一次续约时延长许可的有效期.
+     *
+     * @return 许可已释放或者已经因为没有心跳被回收返回false.
+     */
+    public boolean heartbeat(String path) {
+        HeldPermit heldPermit = heldPermitMap.get(path);
+        long now = System.currentTimeMillis();
+        if (heldPermit == null || now >= heldPermit.consumeObject.getExpireTime()) {
+            return false;
+        }
+        heldPermit.lastHeartbeat = now;
+        return true;
+    }
+
+    public void setPinned(String path, boolean pinned) {
+        HeldPermit heldPermit = heldPermitMap.get(path);
+        if (heldPermit != null) {
+            heldPermit.lastHeartbeat = System.currentTimeMillis();
+            heldPermit.pinned = pinned;
+        }
+    }
+
+    public void untrack(String path) {
+        heldPermitMap.remove(path);
+    }
+
+    public void stop() {
+        renewTask.cancel(false);
+        heldPermitMap.clear();
+    }
+
+    //没有新心跳的许可不续约，过期后等待消费者回收.
+    private void renew() {
+        long now = System.currentTimeMillis();
+        long heartbeatMills = NativeProperties.getProducerConsumeHeartbeatMills();
+        List<NodeData> updates = new ArrayList<>();
+        List<HeldPermit> renewing = new ArrayList<>();
+        for (Map.Entry<String, HeldPermit> entry : heldPermitMap.entrySet()) {
+            HeldPermit heldPermit = entry.getValue();
+            RegisterObject consumeObject = heldPermit.consumeObject;
+            long expireTime = (heldPermit.pinned ? now : heldPermit.lastHeartbeat) + heartbeatMills;
+            if (expireTime > consumeObject.getExpireTime()) {
+                //写在副本上，写入成功后才延长本地的过期时间，失败时下一次仍然续约.
+                RegisterObject renewed = new RegisterObject(consumeObject);
+                renewed.setExpireTime(expireTime);
+                heldPermit.renewingExpireTime = expireTime;
+                updates.add(new NodeData(entry.getKey(), RegisterObjectCodec.encode(renewed)));
+                renewing.add(heldPermit);
+                if (updates.size() >= RENEW_BATCH_SIZE) {
+                    renewBatch(updates, renewing);
+                    updates.clear();
+                    renewing.clear();
+                }
+            } else if (now >= consumeObject.getExpireTime()
+                && heldPermitMap.remove(entry.getKey(), heldPermit)) {
+                abandonCount.increment();
+                LOGGER.error(String.format(
+                    "presto limiter permit [%s] expired without heartbeat", entry.getKey()));
+            }
+        }
+        if (!updates.isEmpty()) {
+            renewBatch(updates, renewing);
+        }
+    }
+
+    //事务失败时逐个续约，已经不存在的执行节点(已释放或已被回收)不再续约.
+    private void renewBatch(List<NodeData> updates, List<HeldPermit> renewing) {
+        try {
+            backend.setData(updates);
+            renewCount.add(updates.size());
+            for (HeldPermit heldPermit : renewing) {
+                heldPermit.renewed();
+            }
+            return;
+        } catch (Exception e) {
+            LOGGER.error(String.format(
+                "presto limiter batch renew [%d] permits fail, fall back to renew one by one! "
+                    + "the error is [%s]", updates.size(), e.getMessage()));
+        }
+        for (int i = 0; i < updates.size(); i++) {
+            NodeData update = updates.get(i);
+            try {
+                backend.setData(update.getPath(), update.getData());
+                renewCount.increment();
+                renewing.get(i).renewed();
+            } catch (KeeperException.NoNodeException e) {
+                heldPermitMap.remove(update.getPath());
+            } catch (Exception e) {
+                LOGGER.error(String.format(
+                    "presto limiter renew permit [%s] fail! the error is [%s]", update.getPath(),
+                    e.getMessage()));
+            }
+        }
+    }
+
+    private static class HeldPermit {
+
+        private final RegisterObject consumeObject;
+        private volatile boolean pinned;
+        private volatile long lastHeartbeat;
+        private long renewingExpireTime; //只在续约线程上访问.
+
+        private HeldPermit(RegisterObject consumeObject, boolean pinned) {
+            this.consumeObject = consumeObject;
+            this.pinned = pinned;
+            this.lastHeartbeat = System.currentTimeMillis();
+        }
+
+        //zk中的过期时间已经写入.
+        private void renewed() {
+            consumeObject.setExpireTime(renewingExpireTime);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.lc.prestolimiter.Producer;
+
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 生产者主机的许可租约.
+ * 本机向消费者申请一个占用多个资源的执行节点作为租约，租约有效期内优先级不低于租约优先级且不限类型的查询
+ * 直接在内存中获取许可，不再经过zk注册、移动与删除.
+ * 租约到期后不再分配新的许可，未使用的资源通过修改执行节点的数据立即归还，已分配的许可全部释放后删除执行节点.
+ * 全局并发仍由消费者按执行节点占用的资源个数控制.
+ */
+public class PermitLeaseManager {
+
+    private static final Logger LOGGER = LoggerFactory
+        .getLogger(PermitLeaseManager.class.getName());
+    private static final String LOCAL_PERMIT_SEPARATOR = "#";
+
+    private final CoordinationBackend backend;
+    private final ProducerService producerService;
+    private final ScheduledExecutorService scheduledExecutor;
+    private final PermitHeartbeatManager permitHeartbeatManager; //未开启心跳时为null.
+    private final ConcurrentMap<String, Lease> leaseMap; //执行节点路径 -> 租约，包括到期后仍有许可未释放的租约.
+    private final AtomicBoolean requesting;
+    private final AtomicLong localPermitSeq;
+    private volatile Lease currentLease;
+
+    public PermitLeaseManager(CoordinationBackend backend, ProducerService producerService,
+        ScheduledExecutorService scheduledExecutor, PermitHeartbeatManager permitHeartbeatManager) {
+        this.backend = backend;
+        this.producerService = producerService;
+        this.scheduledExecutor = scheduledExecutor;
+        this.permitHeartbeatManager = permitHeartbeatManager;
+        this.leaseMap = new ConcurrentHashMap<>();
+        this.requesting = new AtomicBoolean(false);
+        this.localPermitSeq = new AtomicLong();
+    }
+
+    /**
+     * 从当前租约中获取许可，不满足条件或者租约已用完返回null，并在后台申请新的租约.
+     * 多集群时租约属于消费者分配的集群，租约内的许可都在该集群执行.
+     */
+    public Permit tryAcquire(int priority, QueryType queryType) {
+        if (priority < NativeProperties.getProducerLeasePriority() || queryType.getLimit() >= 0) {
+            return null;
+        }
+        Lease lease = currentLease;
+        if (lease != null && lease.tryTake()) {
+            String path = lease.path + LOCAL_PERMIT_SEPARATOR + localPermitSeq.incrementAndGet();
+            lease.issued.add(path);
+            return new Permit(lease.node, path, priority, queryType,
+                NativeProperties.getPrestoCluster(lease.consumeObject.getCluster()));
+        }
+        requestLease();
+        return null;
+    }
+
+    /**
+     * 释放租约内的许可，同一个许可只归还一次.
+     *
+     * @return 不是租约内的许可返回false.
+     */
+    public boolean release(String path) {
+        String leasePath = leasePathOf(path);
+        if (leasePath == null) {
+            return false;
+        }
+        Lease lease = leaseMap.get(leasePath);
+        //重复释放或者不是租约分配的许可不归还资源，否则本机分配的许可会超过租约的资源个数.
+        if (lease != null && lease.issued.remove(path)) {
+            lease.giveBack();
+        }
+        return true;
+    }
+
+    /**
+     * 租约内许可所属的执行节点路径，不是租约内的许可返回null.
+     */
+    public String leasePathOf(String path) {
+        int index = path.lastIndexOf(LOCAL_PERMIT_SEPARATOR);
+        return index < 0 ? null : path.substring(0, index);
+    }
+
+    public void stop() {
+        currentLease = null;
+        leaseMap.values().forEach(this::closeLease);
+    }
+
+    private void requestLease() {
+        if (!requesting.compareAndSet(false, true)) {
+            return;
+        }
+        producerService.acquireLeaseAsync(NativeProperties.getProducerLeasePriority(),
+            NativeProperties.getProducerLeaseSize(), NativeProperties.getProducerLeaseMills())
+            .whenCompleteAsync((permit, throwable) -> {
+                try {
+                    if (permit != null) {
+                        startLease(permit);
+                    }
+                } finally {
+                    requesting.set(false);
+                }
+            }, scheduledExecutor);
+    }
+
+    private void startLease(Permit permit) {
+        RegisterObject consumeObject;
+        try {
+            consumeObject = RegisterObjectCodec
+                .decode(backend.getData(permit.getPath()), new RegisterObject());
+        } catch (Exception e) {
+            LOGGER.error(String.format("presto limiter read lease node fail! the error is [%s]",
+                e.getMessage()));
+            producerService.deleteExecutePermission(permit.getPath());
+            return;
+        }
+        Lease lease = new Lease(permit.getNode(), permit.getPath(), consumeObject);
+        leaseMap.put(lease.path, lease);
+        if (permitHeartbeatManager != null) {
+            permitHeartbeatManager.track(lease.path, consumeObject, true);
+        }
+        currentLease = lease;
+        scheduledExecutor.schedule(() -> endLease(lease),
+            NativeProperties.getProducerLeaseMills(), TimeUnit.MILLISECONDS);
+    }
+
+    private void endLease(Lease lease) {
+        if (currentLease == lease) {
+            currentLease = null;
+        }
+        //租约到期后只在租约内的许可仍有心跳时续约.
+        if (permitHeartbeatManager != null) {
+            permitHeartbeatManager.setPinned(lease.path, false);
+        }
+        int inFlight = lease.end();
+        if (inFlight > 0 && inFlight < lease.consumeObject.getPermits()) {
+            //归还未使用的资源，消费者据此立即调整占用个数.
+            lease.consumeObject.setPermits(inFlight);
+            try {
+                backend.setData(lease.path, RegisterObjectCodec.encode(lease.consumeObject));
+            } catch (Exception e) {
+                LOGGER.error(String.format(
+                    "presto limiter return unused lease permits fail! the error is [%s]",
+                    e.getMessage()));
+            }
+        }
+    }
+
+    private void closeLease(Lease lease) {
+        if (lease.closed.compareAndSet(false, true)) {
+            leaseMap.remove(lease.path);
+            producerService.deleteExecutePermission(lease.path);
+        }
+    }
+
+    private class Lease {
+
+        private final String node;
+        private final String path;
+        private final RegisterObject consumeObject;
+        private final Set<String> issued; //已分配且未释放的本机许可路径.
+        private final AtomicInteger available;
+        private final AtomicInteger inFlight;
+        private final AtomicBoolean closed;
+        private volatile boolean ended;
+
+        private Lease(String node, String path, RegisterObject consumeObject) {
+            this.node = node;
+            this.path = path;
+            this.consumeObject = consumeObject;
+            this.issued = ConcurrentHashMap.newKeySet();
+            this.available = new AtomicInteger(consumeObject.getPermits());
+            this.inFlight = new AtomicInteger();
+            this.closed = new AtomicBoolean(false);
+        }
+
+        //先计入已分配再扣减可用数，保证租约结束时看到的已分配数不会少于实际值.
+        private boolean tryTake() {
+            inFlight.incrementAndGet();
+            while (!ended) {
+                int count = available.get();
+                if (count <= 0) {
+                    break;
+                }
+                if (available.compareAndSet(count, count - 1)) {
+                    return true;
+                }
+            }
+            leave();
+            return false;
+        }
+
+        private void giveBack() {
+            if (!ended) {
+                available.incrementAndGet();
+            }
+            leave();
+        }
+
+        private void leave() {
+            if (inFlight.decrementAndGet() == 0 && ended) {
+                closeLease(this);
+            }
+        }
+
+        /**
+         * 结束租约，不再分配新的许可.
+         *
+         * @return 仍未释放的许可个数.
+         */
+        private int end() {
+            ended = true;
+            available.set(0);
+            int count = inFlight.get();
+            if (count == 0) {
+                closeLease(this);
+            }
+            return count;
+        }
+    }
+}
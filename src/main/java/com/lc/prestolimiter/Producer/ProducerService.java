@@ -1,92 +1,507 @@
 package com.lc.prestolimiter.Producer;
 
-import com.alibaba.fastjson.JSON;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.lc.prestolimiter.Exception.AdmissionRejectedException;
+import com.lc.prestolimiter.Exception.PrestoLimiterException;
+import com.lc.prestolimiter.common.FastPathSlots;
+import com.lc.prestolimiter.common.LimiterStats;
 import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
 import com.lc.prestolimiter.common.QueryType;
 import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
 import com.lc.prestolimiter.common.Switchable;
-import com.lc.prestolimiter.zookeeper.common.PathChangeWatcher;
+import com.lc.prestolimiter.coordination.ChildrenWatch;
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeWatch;
+import com.lc.prestolimiter.metrics.Counter;
+import com.lc.prestolimiter.metrics.Histogram;
+import com.lc.prestolimiter.metrics.MetricsRegistry;
+import com.lc.prestolimiter.zookeeper.impl.ConsumerStatsNodeListener;
+import com.lc.prestolimiter.zookeeper.impl.ProducerFastPathListener;
 import com.lc.prestolimiter.zookeeper.impl.ProducerConsumePathListener;
-import java.util.Collection;
+import com.lc.prestolimiter.zookeeper.impl.ProducerSessionPathListener;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ProducerService implements Switchable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProducerService.class.getName());
+    private static final int STATS_STALE_PUBLISH_COUNT = 3; //超过该次数的发布间隔没有更新的统计不再使用.
 
-    private CuratorFramework client;
-    private Cache<String, RegisterObject> waitExecuteQueryCache;
-    private PathChangeWatcher pathChangeWatcher;
+    private final CoordinationBackend backend;
+    private final ConcurrentMap<String, WaitingPermit> waitingPermitMap; //注册节点名称 -> 等待中的请求.
+    private final ScheduledThreadPoolExecutor timeoutExecutor;
+    private ChildrenWatch consumePathWatch;
+    private ChildrenWatch sessionPathWatch;
+    private NodeWatch statsWatch;
+    private ChildrenWatch fastPathWatch;
+    private final Set<String> fastPathFreeSlots; //消费者发布的空闲资源，本地缓存可能落后于zk.
+    private final Set<String> fastPathReservedSlots;
+    private volatile LimiterStats consumerStats; //消费者发布的排队统计，未开启准入控制或节点不存在时为null.
+    private volatile long consumerStatsReceiveTime;
+    private volatile String owner; //本机的会话节点名称，会话模式关闭时为null.
+    private final ReentrantLock sessionLock;
+    private final PermitLeaseManager permitLeaseManager;
+    private final PermitHeartbeatManager permitHeartbeatManager;
+    private final Counter grantCount;
+    private final Counter leaseGrantCount;
+    private final Counter timeoutCount;
+    private final Counter cancelCount;
+    private final Counter releaseCount;
+    private final Counter admissionRejectCount;
+    private final Counter fastPathGrantCount;
+    private final Counter fastPathMissCount;
+    private final Histogram waitMills;
 
-    public ProducerService(CuratorFramework client) {
-        this.client = client;
-        waitExecuteQueryCache = CacheBuilder.newBuilder().concurrencyLevel(4)
-            .expireAfterWrite(NativeProperties.getProducerRegisterMaxExpireMills(),
-                TimeUnit.MILLISECONDS)
-            .maximumSize(200000).build();
+    public ProducerService(CoordinationBackend backend, MetricsRegistry metricsRegistry) {
+        this.backend = backend;
+        this.waitingPermitMap = new ConcurrentHashMap<>();
+        this.fastPathFreeSlots = ConcurrentHashMap.newKeySet();
+        this.fastPathReservedSlots = ConcurrentHashMap.newKeySet();
+        this.sessionLock = new ReentrantLock();
+        this.timeoutExecutor = new ScheduledThreadPoolExecutor(1);
+        this.timeoutExecutor.setRemoveOnCancelPolicy(true); //获得许可后取消的超时任务立即出队，避免长时间堆积.
+        this.permitHeartbeatManager = NativeProperties.getProducerConsumeHeartbeatMills() > 0
+            ? new PermitHeartbeatManager(backend, timeoutExecutor, metricsRegistry) : null;
+        this.permitLeaseManager = NativeProperties.isProducerLeaseEnabled()
+            ? new PermitLeaseManager(backend, this, timeoutExecutor, permitHeartbeatManager)
+            : null;
+        this.grantCount = metricsRegistry.counter("producer.grant");
+        this.leaseGrantCount = metricsRegistry.counter("producer.lease.grant");
+        this.timeoutCount = metricsRegistry.counter("producer.timeout");
+        this.cancelCount = metricsRegistry.counter("producer.cancel");
+        this.releaseCount = metricsRegistry.counter("producer.release");
+        this.admissionRejectCount = metricsRegistry.counter("producer.admission.reject");
+        this.fastPathGrantCount = metricsRegistry.counter("producer.fastPath.grant");
+        this.fastPathMissCount = metricsRegistry.counter("producer.fastPath.miss");
+        this.waitMills = metricsRegistry.histogram("producer.wait.mills");
+        metricsRegistry.gauge("producer.waiting", waitingPermitMap::size);
     }
 
     /**
-     * ss
-     * 等待当前的注册节点被消费者移动到执行目录.
+     * 等待当前的注册节点被消费者移动到执行目录, 线程会被挂起直到获得许可或者超时.
+     * 等待与唤醒都不持有监视器，在虚拟线程中调用时只挂起虚拟线程.
+     *
+     * @return zk上可执行节点的路径，超时或发生异常返回null.
      */
-    public String getExecutePermission(int priority, QueryType queryType, long waitTimeoutMills) {
-        long startTime = System.currentTimeMillis();
+    public String getExecutePermission(int priority, QueryType queryType, long waitTimeoutMills,
+        int weight) {
+        CompletableFuture<Permit> future =
+            acquireAsync(priority, queryType, waitTimeoutMills, weight);
+        try {
+            return future.get().getPath();
+        } catch (InterruptedException e) {
+            LOGGER.error("get execute permission wait error!", e);
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            //等待超时与准入控制的拒绝都是正常的限流结果，已经计数，不打印日志.
+            if (!(e.getCause() instanceof TimeoutException)
+                && !(e.getCause() instanceof AdmissionRejectedException)) {
+                LOGGER.error("get execute permission fail!", e.getCause());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 注册节点后立即返回，不占用调用线程.
+     * 节点被消费者移动到执行目录时future完成，超时则以{@link TimeoutException}异常完成，并清理注册节点.
+     * 调用者取消future等同于放弃排队.
+     *
+     * @param weight 占用的执行资源个数，租约内的许可只有一个资源.
+     */
+    public CompletableFuture<Permit> acquireAsync(int priority, QueryType queryType,
+        long waitTimeoutMills, int weight) {
+        return acquireAsync(priority, queryType, waitTimeoutMills, weight, 0, null);
+    }
+
+    /**
+     * 只在指定的集群中排队，消费者在其中选择负载最低的集群.
+     *
+     * @param clusterMask 按集群下标置位，0表示任意集群.
+     * @param tenant 提交查询的租户，消费者开启公平调度时按租户分配资源，可以为null.
+     *     指定了集群或租户的请求不使用租约.
+     * @return 开启准入控制且预计的排队时间超过等待超时时，不注册节点，以{@link AdmissionRejectedException}异常完成.
+     */
+    public CompletableFuture<Permit> acquireAsync(int priority, QueryType queryType,
+        long waitTimeoutMills, int weight, int clusterMask, String tenant) {
+        if (permitLeaseManager != null && weight == 1 && clusterMask == 0 && tenant == null) {
+            Permit permit = permitLeaseManager.tryAcquire(priority, queryType);
+            if (permit != null) {
+                leaseGrantCount.increment();
+                return CompletableFuture.completedFuture(permit);
+            }
+        }
+        long predictedWaitMills = predictWaitMills(priority);
+        if (predictedWaitMills > waitTimeoutMills) {
+            admissionRejectCount.increment();
+            CompletableFuture<Permit> future = new CompletableFuture<>();
+            future.completeExceptionally(new AdmissionRejectedException(String.format(
+                "predicted wait [%d] mills exceeds the wait timeout [%d] mills, priority [%d]",
+                predictedWaitMills, waitTimeoutMills, priority),
+                predictedWaitMills - waitTimeoutMills));
+            return future;
+        }
         RegisterObject registerObject = new RegisterObject(priority, queryType,
-            startTime + waitTimeoutMills);
+            System.currentTimeMillis() + waitTimeoutMills);
+        registerObject.setPermits(weight);
+        registerObject.setClusterMask(clusterMask);
+        registerObject.setTenant(tenant);
+        return register(registerObject, waitTimeoutMills);
+    }
+
+    /**
+     * 不排队的快速获取：在一个zk事务中取走消费者发布的空闲资源并创建执行节点，不创建注册节点.
+     * 低优先级的请求只能取走非预留的空闲资源，高优先级的请求先取预留的空闲资源.
+     * 空闲资源不足或者被其他生产者抢先取走时事务失败，立即返回null，调用者可以改为排队或者放弃.
+     * 多集群以及有并发限制的类型不使用快速获取.
+     *
+     * @return 获得的许可，不能立即获得时返回null.
+     */
+    public Permit tryAcquire(int priority, QueryType queryType, int weight) {
+        if (fastPathWatch == null || queryType.getLimit() >= 0) {
+            fastPathMissCount.increment();
+            return null;
+        }
+        List<String> slotPaths = new ArrayList<>(weight);
+        if (priority >= NativeProperties.getPrestoLimitHighPriorityMinScore()) {
+            pickFastPathSlots(fastPathReservedSlots, weight, slotPaths);
+        }
+        pickFastPathSlots(fastPathFreeSlots, weight, slotPaths);
+        if (slotPaths.size() < weight) {
+            fastPathMissCount.increment();
+            return null;
+        }
+        RegisterObject registerObject = new RegisterObject(priority, queryType,
+            System.currentTimeMillis() + NativeProperties.getProducerConsumeGrantMills());
+        registerObject.setPermits(weight);
+        registerObject.setOwner(owner);
+        registerObject.setFastPath(true);
         String node;
         try {
-            node = this.client.create()
-                .forPath(NativeProperties.getProducerRegisterPath(),
-                    JSON.toJSONBytes(registerObject));
+            node = backend.deleteAndCreateSequential(slotPaths,
+                NativeProperties.getProducerConsumePath(),
+                RegisterObjectCodec.encodeNodeName(registerObject),
+                RegisterObjectCodec.encode(registerObject));
+        } catch (KeeperException.NoNodeException e) {
+            //本地缓存中的空闲资源已被其他生产者取走或者被消费者收回，删除事件到达之前不再挑选它们.
+            for (String slotPath : slotPaths) {
+                removeFastPathSlot(ZKPaths.getNodeFromPath(slotPath));
+            }
+            fastPathMissCount.increment();
+            return null;
         } catch (Exception e) {
-            LOGGER.error("get execute permission register node error!", e);
+            LOGGER.error(String.format(
+                "presto limiter fast path acquire fail! the error is [%s]", e.getMessage()));
+            fastPathMissCount.increment();
             return null;
         }
-        waitExecuteQueryCache
-            .put(node, registerObject); //此处原则上有可能发生还没有开始wait, 就被唤醒，但是与zk交互的网络延时导致这种情况基本不会发生.
-        synchronized (registerObject) {
-            try {
-                registerObject.wait(waitTimeoutMills);
-                return node;
-            } catch (InterruptedException e) {
-                LOGGER.error("get execute permission wait error!", e);
-                return null;
+        //删除事件到达之前本地缓存中仍有取走的空闲资源，不再挑选它们.
+        for (String slotPath : slotPaths) {
+            removeFastPathSlot(ZKPaths.getNodeFromPath(slotPath));
+        }
+        fastPathGrantCount.increment();
+        String path = NativeProperties.getProducerConsumePath() + "/" + node;
+        if (permitHeartbeatManager != null) {
+            permitHeartbeatManager.track(path, registerObject, false);
+        }
+        return new Permit(node, path, priority, queryType);
+    }
+
+    //从随机位置开始挑选，减少多个生产者同时抢同一个空闲资源.
+    private void pickFastPathSlots(Set<String> slots, int count, List<String> slotPaths) {
+        int size = slots.size();
+        if (size == 0 || slotPaths.size() >= count) {
+            return;
+        }
+        int skip = ThreadLocalRandom.current().nextInt(size);
+        List<String> skipped = new ArrayList<>(skip);
+        for (String slot : slots) {
+            if (slotPaths.size() >= count) {
+                return;
             }
+            if (skipped.size() < skip) {
+                skipped.add(slot);
+            } else {
+                slotPaths.add(NativeProperties.getConsumerFastPathPath() + "/" + slot);
+            }
+        }
+        for (int i = 0; i < skipped.size() && slotPaths.size() < count; i++) {
+            slotPaths.add(NativeProperties.getConsumerFastPathPath() + "/" + skipped.get(i));
+        }
+    }
+
+    public void addFastPathSlot(String node) {
+        (FastPathSlots.isReserved(node) ? fastPathReservedSlots : fastPathFreeSlots).add(node);
+    }
+
+    public void removeFastPathSlot(String node) {
+        (FastPathSlots.isReserved(node) ? fastPathReservedSlots : fastPathFreeSlots).remove(node);
+    }
+
+    /**
+     * 为本机申请一个包含多个许可的租约，消费者可以部分满足，实际个数以执行节点上的数据为准.
+     */
+    CompletableFuture<Permit> acquireLeaseAsync(int priority, int permits,
+        long waitTimeoutMills) {
+        RegisterObject registerObject = new RegisterObject(priority, QueryType.NORMAL,
+            System.currentTimeMillis() + waitTimeoutMills);
+        registerObject.setPermits(permits);
+        registerObject.setLease(true);
+        return register(registerObject, waitTimeoutMills);
+    }
+
+    private CompletableFuture<Permit> register(RegisterObject registerObject,
+        long waitTimeoutMills) {
+        CompletableFuture<Permit> future = new CompletableFuture<>();
+        String node;
+        registerObject.setOwner(owner);
+        try {
+            node = this.backend.createSequential(NativeProperties.getProducerRegisterPath(),
+                RegisterObjectCodec.encodeNodeName(registerObject),
+                RegisterObjectCodec.encode(registerObject), registerObject.getOwner() != null);
+        } catch (Exception e) {
+            LOGGER.error("get execute permission register node error!", e);
+            future.completeExceptionally(
+                new PrestoLimiterException("get execute permission register node error!", e));
+            return future;
+        }
+        registerObject.setNode(node);
+        waitingPermitMap.put(node, new WaitingPermit(registerObject, future));
+        ScheduledFuture<?> timeout = timeoutExecutor
+            .schedule(() -> expirePermission(node), waitTimeoutMills, TimeUnit.MILLISECONDS);
+        future.whenComplete((permit, throwable) -> {
+            timeout.cancel(false);
+            if (throwable instanceof CancellationException
+                && waitingPermitMap.remove(node) != null) {
+                cancelCount.increment();
+                releaseNode(node);
+            }
+        });
+        //节点可能在放入等待表之前就已被移动到执行目录，此时监听事件已经错过，直接查本地缓存.
+        if (consumePathWatch != null && consumePathWatch.containsNode(node)) {
+            grantPermission(node, null);
+        }
+        return future;
+    }
+
+    /**
+     * 注册节点出现在执行目录，完成对应的等待请求.
+     *
+     * @param data 执行节点的数据，多集群时从中读取分配的集群，为null时从zk读取.
+     */
+    public void grantPermission(String node, byte[] data) {
+        WaitingPermit waitingPermit = waitingPermitMap.remove(node);
+        if (waitingPermit != null) {
+            grantCount.increment();
+            waitMills.record(System.currentTimeMillis() - waitingPermit.registerTime);
+            RegisterObject registerObject = waitingPermit.registerObject;
+            String path = NativeProperties.getProducerConsumePath() + "/" + node;
+            if (NativeProperties.getPrestoClusterCount() > 0) {
+                //心跳续约时重新写入执行节点的数据，需要保留分配的集群.
+                registerObject.setCluster(clusterOf(path, data));
+            }
+            //租约可能被部分满足，由租约管理读取执行节点的数据后再续约.
+            if (permitHeartbeatManager != null && !registerObject.isLease()) {
+                permitHeartbeatManager.track(path, registerObject, false);
+            }
+            waitingPermit.future.complete(new Permit(node, path, registerObject.getPriority(),
+                registerObject.getQueryType(),
+                NativeProperties.getPrestoCluster(registerObject.getCluster())));
+        }
+    }
+
+    /**
+     * 消费者发布新的排队统计.
+     *
+     * @param data 统计节点的数据，节点被删除时为null.
+     */
+    public void updateConsumerStats(String data) {
+        consumerStats = LimiterStats.decode(data);
+        consumerStatsReceiveTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 按消费者发布的排队统计预估该优先级的请求的排队时间.
+     * 统计不存在或者长时间没有更新(消费者切换)时返回0，不拒绝请求.
+     */
+    private long predictWaitMills(int priority) {
+        LimiterStats stats = consumerStats;
+        if (stats == null || System.currentTimeMillis() - consumerStatsReceiveTime
+            > STATS_STALE_PUBLISH_COUNT * NativeProperties.getConsumerStatsPublishMills()) {
+            return 0;
+        }
+        return stats.predictWaitMills(priority);
+    }
+
+    //读取失败时返回-1，许可仍然有效，只是不知道所属的集群.
+    private int clusterOf(String path, byte[] data) {
+        try {
+            return RegisterObjectCodec.decode(data != null ? data : backend.getData(path),
+                new RegisterObject()).getCluster();
+        } catch (Exception e) {
+            LOGGER.error(String.format(
+                "presto limiter read cluster of permit [%s] fail! the error is [%s]", path,
+                e.getMessage()));
+            return -1;
         }
     }
 
+    /**
+     * 持有者的心跳，开启心跳时需要至少每半个心跳超时调用一次，否则许可被回收.
+     *
+     * @return 许可已释放或已被回收返回false，未开启心跳时总是返回true.
+     */
+    public boolean heartbeat(String path) {
+        if (permitHeartbeatManager == null) {
+            return true;
+        }
+        String leasePath =
+            permitLeaseManager != null ? permitLeaseManager.leasePathOf(path) : null;
+        return permitHeartbeatManager.heartbeat(leasePath != null ? leasePath : path);
+    }
+
     /**
      * 从执行目录删除节点.
      */
     public void deleteExecutePermission(String path) {
+        releaseCount.increment();
+        if (permitHeartbeatManager != null) {
+            permitHeartbeatManager.untrack(path);
+        }
+        if (permitLeaseManager != null && permitLeaseManager.release(path)) {
+            return;
+        }
         try {
-            Collection<CuratorTransactionResult> result = this.client.inTransaction().check()
-                .forPath(path).and().delete().forPath(path).and().commit();
-            LOGGER.info("delete execute permition result:", result);
+            this.backend.delete(path);
         } catch (Exception e) {
             //如果因为其他原因导致失败，等待节点超时.
-            LOGGER.error(String.format("delete execute permition error! the info is [%s]"),
-                e.getMessage());
+            LOGGER.error(String.format("delete execute permition error! the info is [%s]",
+                e.getMessage()));
+        }
+    }
+
+    private void expirePermission(String node) {
+        WaitingPermit waitingPermit = waitingPermitMap.remove(node);
+        if (waitingPermit != null) {
+            timeoutCount.increment();
+            releaseNode(node);
+            waitingPermit.future.completeExceptionally(new TimeoutException(
+                String.format("wait execute permission timeout, the node is [%s]", node)));
+        }
+    }
+
+    //放弃等待的节点，如果已经被移动到执行目录，则释放执行资源.
+    private void releaseNode(String node) {
+        try {
+            backend.delete(NativeProperties.getProducerRegisterPath() + "/" + node);
+        } catch (KeeperException.NoNodeException e) {
+            try {
+                backend.delete(NativeProperties.getProducerConsumePath() + "/" + node);
+            } catch (Exception e1) {
+                LOGGER.error(String.format(
+                    "presto limiter release abandoned consume node fail! the error is [%s]",
+                    e1.getMessage()));
+            }
+        } catch (Exception e) {
+            LOGGER.error(String.format(
+                "presto limiter release abandoned register node fail! the error is [%s]",
+                e.getMessage()));
         }
     }
 
     /**
-     * 生产者开始监听执行目录.
+     * 会话节点被删除，如果是本机的会话节点，说明zk会话已经过期，消费者已回收本机的全部注册节点与执行节点.
+     * 创建新的会话节点，使仍在等待的请求立即失败，而不是等到超时.
+     */
+    public void renewSession(String node) {
+        String expiredOwner;
+        //创建会话节点需要访问zk，用锁而不是监视器，虚拟线程在锁内阻塞时不会占住承载线程.
+        sessionLock.lock();
+        try {
+            expiredOwner = owner;
+            if (expiredOwner == null || !expiredOwner.equals(node)) {
+                return;
+            }
+            LOGGER.error(String.format("presto limiter producer session [%s] expired", node));
+            try {
+                createSessionNode();
+            } catch (Exception e) {
+                LOGGER.error("presto limiter producer create session node error!", e);
+            }
+        } finally {
+            sessionLock.unlock();
+        }
+        waitingPermitMap.forEach((registerNode, waitingPermit) -> {
+            if (expiredOwner.equals(waitingPermit.registerObject.getOwner())
+                && waitingPermitMap.remove(registerNode, waitingPermit)) {
+                waitingPermit.future.completeExceptionally(new PrestoLimiterException(
+                    String.format("producer session expired, the node is [%s]", registerNode)));
+            }
+        });
+    }
+
+    //会话节点名称随机生成，与其他生产者冲突时重新生成.
+    private void createSessionNode() throws Exception {
+        byte[] data = InetAddress.getLocalHost().getHostAddress()
+            .getBytes(StandardCharsets.UTF_8);
+        String node;
+        do {
+            node = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        } while (!backend.tryLock(NativeProperties.getProducerSessionPath() + "/" + node, data));
+        owner = node;
+    }
+
+    /**
+     * 生产者开始监听执行目录，会话模式下先创建本机的会话节点.
      */
     @Override
     public boolean start() {
-        pathChangeWatcher = new PathChangeWatcher(client, NativeProperties.getProducerConsumePath(),
-            new ProducerConsumePathListener(waitExecuteQueryCache));
+        //多集群时需要从执行节点的数据中读取分配的集群，只有这时缓存数据.
+        consumePathWatch = backend.watchChildren(NativeProperties.getProducerConsumePath(),
+            new ProducerConsumePathListener(this), NativeProperties.getPrestoClusterCount() > 0);
         try {
-            pathChangeWatcher.start();
+            if (NativeProperties.isProducerSessionEnabled()) {
+                createSessionNode();
+                sessionPathWatch = backend.watchChildren(
+                    NativeProperties.getProducerSessionPath(),
+                    new ProducerSessionPathListener(this), false);
+                sessionPathWatch.start();
+            }
+            consumePathWatch.start();
+            if (NativeProperties.isProducerAdmissionEnabled()
+                && NativeProperties.getConsumerStatsPublishMills() > 0) {
+                statsWatch = backend.watchNode(NativeProperties.getConsumerStatsPath(),
+                    new ConsumerStatsNodeListener(this));
+                statsWatch.start();
+            }
+            if (NativeProperties.isConsumerFastPathEnabled()
+                && NativeProperties.getPrestoClusterCount() == 0) {
+                fastPathWatch = backend.watchChildren(NativeProperties.getConsumerFastPathPath(),
+                    new ProducerFastPathListener(this), false);
+                fastPathWatch.start();
+            }
             return true;
         } catch (Exception e) {
             LOGGER.error("presto limiter producer listen consume path error!", e);
@@ -96,22 +511,58 @@ public class ProducerService implements Switchable {
 
     @Override
     public boolean stop() {
-        if (pathChangeWatcher != null) {
-            pathChangeWatcher.stop();
-        }
-        waitExecuteQueryCache.asMap().values()
-            .forEach(registerObject -> {
-                try {
-                    client.delete().forPath(NativeProperties.getProducerRegisterPath()
-                        + "/" + registerObject.getNode());
-                } catch (Exception e) {
-                    try {
-                        client.delete().forPath(NativeProperties.getProducerConsumePath()
-                            + "/" + registerObject.getNode());
-                    } catch (Exception e1) {
-                    }
-                }
-            });
+        if (consumePathWatch != null) {
+            consumePathWatch.stop();
+        }
+        if (sessionPathWatch != null) {
+            sessionPathWatch.stop();
+        }
+        if (statsWatch != null) {
+            statsWatch.stop();
+        }
+        if (fastPathWatch != null) {
+            fastPathWatch.stop();
+        }
+        timeoutExecutor.shutdownNow();
+        if (permitLeaseManager != null) {
+            permitLeaseManager.stop();
+        }
+        if (permitHeartbeatManager != null) {
+            permitHeartbeatManager.stop();
+        }
+        waitingPermitMap.keySet().forEach(node -> {
+            WaitingPermit waitingPermit = waitingPermitMap.remove(node);
+            if (waitingPermit != null) {
+                releaseNode(node);
+                waitingPermit.future
+                    .completeExceptionally(new PrestoLimiterException("presto limiter stopped"));
+            }
+        });
+        //删除会话节点后消费者立即回收本机仍占用的执行节点.
+        String sessionNode = owner;
+        owner = null;
+        if (sessionNode != null) {
+            try {
+                backend.delete(NativeProperties.getProducerSessionPath() + "/" + sessionNode);
+            } catch (Exception e) {
+                LOGGER.error(String.format(
+                    "presto limiter delete producer session node fail! the error is [%s]",
+                    e.getMessage()));
+            }
+        }
         return true;
     }
+
+    private static class WaitingPermit {
+
+        private final RegisterObject registerObject;
+        private final CompletableFuture<Permit> future;
+        private final long registerTime;
+
+        private WaitingPermit(RegisterObject registerObject, CompletableFuture<Permit> future) {
+            this.registerObject = registerObject;
+            this.future = future;
+            this.registerTime = System.currentTimeMillis();
+        }
+    }
 }
@@ -0,0 +1,18 @@
+package com.lc.prestolimiter.common;
+
+/**
+ * 消费者在{@code consumer.fastPath.path}下发布的空闲资源节点的命名，每个子节点代表一个执行资源.
+ * 预留节点来自高优先级预留，只能由高优先级的请求取走.
+ */
+public class FastPathSlots {
+
+    public static final String FREE_PREFIX = "free_";
+    public static final String RESERVED_PREFIX = "reserved_";
+
+    private FastPathSlots() {
+    }
+
+    public static boolean isReserved(String node) {
+        return node.startsWith(RESERVED_PREFIX);
+    }
+}
@@ -0,0 +1,95 @@
+package com.lc.prestolimiter.common;
+
+import java.util.Arrays;
+
+/**
+ * 消费者定时发布到{@code consumer.stats.path}的排队统计，生产者据此预估排队时间，在注册前拒绝等不到许可的请求.
+ * 节点数据为逗号分隔的文本：发布时间,每秒下发数,各优先级段的排队数(从低到高共10段).
+ * 下发速度只在有请求排队的窗口内统计，队列空闲时下发少不代表处理能力低；0表示还没有统计到.
+ */
+public class LimiterStats {
+
+    public static final int PRIORITY_BAND_COUNT = 10; //与消费者的优先级分段一致，[1, 10]为第0段.
+
+    private final long publishTime;
+    private final double grantRate;
+    private final int[] bandDepths;
+
+    public LimiterStats(long publishTime, double grantRate, int[] bandDepths) {
+        this.publishTime = publishTime;
+        this.grantRate = grantRate;
+        this.bandDepths = Arrays.copyOf(bandDepths, PRIORITY_BAND_COUNT);
+    }
+
+    public long getPublishTime() {
+        return publishTime;
+    }
+
+    public double getGrantRate() {
+        return grantRate;
+    }
+
+    public int getBandDepth(int band) {
+        return bandDepths[band];
+    }
+
+    public static int bandOf(int priority) {
+        return Math.min(PRIORITY_BAND_COUNT - 1, Math.max(0, (priority - 1) / 10));
+    }
+
+    /**
+     * 该优先级的新请求预计的排队时间，同一段及更高段的请求都按排在它前面计算.
+     *
+     * @return 前面没有排队或者还没有统计到下发速度时返回0.
+     */
+    public long predictWaitMills(int priority) {
+        long ahead = 0;
+        for (int band = bandOf(priority); band < PRIORITY_BAND_COUNT; band++) {
+            ahead += bandDepths[band];
+        }
+        if (ahead == 0 || grantRate <= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(ahead * 1000 / grantRate);
+    }
+
+    public String encode() {
+        StringBuilder builder = new StringBuilder().append(publishTime).append(',')
+            .append(grantRate);
+        for (int depth : bandDepths) {
+            builder.append(',').append(depth);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 解析节点数据，格式不对时返回null.
+     */
+    public static LimiterStats decode(String data) {
+        if (data == null) {
+            return null;
+        }
+        String[] fields = data.trim().split(",");
+        if (fields.length != PRIORITY_BAND_COUNT + 2) {
+            return null;
+        }
+        try {
+            int[] bandDepths = new int[PRIORITY_BAND_COUNT];
+            for (int band = 0; band < PRIORITY_BAND_COUNT; band++) {
+                bandDepths[band] = Integer.parseInt(fields[band + 2]);
+            }
+            return new LimiterStats(Long.parseLong(fields[0]), Double.parseDouble(fields[1]),
+                bandDepths);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LimiterStats{"
+            + "publishTime=" + publishTime
+            + ", grantRate=" + grantRate
+            + ", bandDepths=" + Arrays.toString(bandDepths) + '}';
+    }
+}
@@ -1,17 +1,25 @@
 package com.lc.prestolimiter.common;
 
 import com.lc.prestolimiter.Exception.PrestoLimiterException;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import org.apache.curator.utils.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import sun.net.util.IPAddressUtil;
 
 public class NativeProperties {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NativeProperties.class.getName());
+    private static final String PROPERTIES_PATH_KEY = "limiter.properties";
+    private static final String DEFAULT_PROPERTIES_PATH = "./limiter.properties";
     private static final String zkAddr;
     private static final int zkCnxnTimeoutMs;
     private static final int zkRetryTimes;
@@ -19,19 +27,50 @@ public class NativeProperties {
     private static final int zkSleepMsBetweenRetries;
     private static final String consumerLockPath;
     private static final String consumerLockNode;
+    private static final int consumerMoveBatchSize;
+    private static final long consumerExpireTickMills;
+    private static final long consumerBypassMaxMills;
+    private static final long consumerAgingMills;
+    private static final boolean consumerEdfEnabled;
+    private static final boolean consumerFairEnabled;
+    private static final int consumerFairDefaultWeight;
+    private static final Map<String, Integer> consumerFairTenantWeights;
+    private static final String consumerStatsPath;
+    private static final long consumerStatsPublishMills;
+    private static final boolean consumerFastPathEnabled;
+    private static final String consumerFastPathPath;
+    private static final boolean coordinationPayloadBinary;
     private static final String producerRegisterPath;
     private static final String producerConsumePath;
     private static final long producerRegisterDefaultExpireMills;
     private static final long producerRegisterMaxExpireMills;
     private static final long producerConsumeExpireMills;
-    private static final int prestoLimitCnt;
-    private static final int prestoLimitHighPriorityReserved;
-    private static final int prestoLimitHighPriorityMinScore;
+    private static final long producerConsumeHeartbeatMills;
+    private static final boolean producerAdmissionEnabled;
+    private static final boolean producerLeaseEnabled;
+    private static final int producerLeasePriority;
+    private static final int producerLeaseSize;
+    private static final long producerLeaseMills;
+    private static final boolean producerSessionEnabled;
+    private static final String producerSessionPath;
+    //可以通过zk配置节点在运行时修改.
+    private static volatile int prestoLimitCnt;
+    private static volatile int prestoLimitHighPriorityReserved;
+    private static volatile int prestoLimitHighPriorityMinScore;
+    private static final boolean prestoLimitAdaptiveEnabled;
+    private static final int prestoLimitAdaptiveMin;
+    private static final int prestoLimitAdaptiveMax;
+    private static final long prestoLimitAdaptiveTargetMills;
+    private static final long prestoLimitAdaptiveWindowMills;
+    private static final String[] prestoClusters;
+    private static volatile int[] prestoClusterLimits; //按集群下标索引，整体替换.
+    private static volatile int[] prestoClusterReserved;
+    private static final String limiterConfigPath;
+    private static final Properties queryTypeProperties;
 
     static {
         try {
-            Properties limiterProperties = new Properties();
-            limiterProperties.load(new FileInputStream("./limiter.properties"));
+            Properties limiterProperties = loadProperties();
             zkAddr = limiterProperties.getProperty("zookeeper.addr");
             assert checkZkAddr(zkAddr) : "presto limiter zkAddr unValid";
             zkCnxnTimeoutMs = Integer
@@ -49,6 +88,50 @@ public class NativeProperties {
             PathUtils.validatePath(consumerLockPath);
             consumerLockNode = limiterProperties.getProperty("consumer.lock.node");
             assert consumerLockNode != null && consumerLockNode.length() != 0;
+            consumerMoveBatchSize = Integer
+                .parseInt(limiterProperties.getProperty("consumer.move.batchSize", "64"));
+            assert consumerMoveBatchSize > 0 : "presto limiter consumerMoveBatchSize <= 0";
+            consumerExpireTickMills = Long
+                .parseLong(limiterProperties.getProperty("consumer.expire.tickMills", "10"));
+            assert consumerExpireTickMills > 0 : "presto limiter consumerExpireTickMills <= 0";
+            consumerBypassMaxMills = Long
+                .parseLong(limiterProperties.getProperty("consumer.bypass.maxMills", "2000"));
+            assert consumerBypassMaxMills >= 0 : "presto limiter consumerBypassMaxMills < 0";
+            consumerAgingMills = Long
+                .parseLong(limiterProperties.getProperty("consumer.aging.mills", "0"));
+            assert consumerAgingMills >= 0 : "presto limiter consumerAgingMills < 0";
+            consumerEdfEnabled = Boolean
+                .parseBoolean(limiterProperties.getProperty("consumer.edf.enabled", "false"));
+            consumerFairEnabled = Boolean
+                .parseBoolean(limiterProperties.getProperty("consumer.fair.enabled", "false"));
+            consumerFairDefaultWeight = Integer
+                .parseInt(limiterProperties.getProperty("consumer.fair.defaultWeight", "1"));
+            assert consumerFairDefaultWeight
+                > 0 : "presto limiter consumerFairDefaultWeight <= 0";
+            Map<String, Integer> tenantWeights = new HashMap<>();
+            for (String key : limiterProperties.stringPropertyNames()) {
+                if (key.startsWith("consumer.fair.tenant.") && key.endsWith(".weight")) {
+                    int weight = Integer.parseInt(limiterProperties.getProperty(key).trim());
+                    assert weight > 0 : "presto limiter consumerFairTenantWeight <= 0";
+                    tenantWeights.put(key.substring("consumer.fair.tenant.".length(),
+                        key.length() - ".weight".length()), weight);
+                }
+            }
+            consumerFairTenantWeights = Collections.unmodifiableMap(tenantWeights);
+            consumerStatsPath = limiterProperties
+                .getProperty("consumer.stats.path", "/server/prestolimiter/consumer/stats");
+            PathUtils.validatePath(consumerStatsPath);
+            consumerStatsPublishMills = Long
+                .parseLong(limiterProperties.getProperty("consumer.stats.publishMills", "1000"));
+            assert consumerStatsPublishMills
+                >= 0 : "presto limiter consumerStatsPublishMills < 0";
+            consumerFastPathEnabled = Boolean.parseBoolean(
+                limiterProperties.getProperty("consumer.fastPath.enabled", "false"));
+            consumerFastPathPath = limiterProperties
+                .getProperty("consumer.fastPath.path", "/server/prestolimiter/consumer/free");
+            PathUtils.validatePath(consumerFastPathPath);
+            coordinationPayloadBinary = Boolean.parseBoolean(
+                limiterProperties.getProperty("coordination.payload.binary", "false"));
             producerRegisterPath = limiterProperties.getProperty("producer.register.path");
             PathUtils.validatePath(producerRegisterPath);
             producerConsumePath = limiterProperties.getProperty("producer.consume.path");
@@ -70,6 +153,28 @@ public class NativeProperties {
                 .toMillis();
             assert
                 producerConsumeExpireMills > 0 : "presto limiter producerConsumeExpireMills <= 0";
+            producerConsumeHeartbeatMills = Long.parseLong(
+                limiterProperties.getProperty("producer.consume.heartbeatMills", "0"));
+            assert producerConsumeHeartbeatMills
+                >= 0 : "presto limiter producerConsumeHeartbeatMills < 0";
+            producerAdmissionEnabled = Boolean.parseBoolean(
+                limiterProperties.getProperty("producer.admission.enabled", "false"));
+            producerLeaseEnabled = Boolean
+                .parseBoolean(limiterProperties.getProperty("producer.lease.enabled", "false"));
+            producerLeasePriority = Integer
+                .parseInt(limiterProperties.getProperty("producer.lease.priority", "1"));
+            assert producerLeasePriority > 0 : "presto limiter producerLeasePriority <= 0";
+            producerLeaseSize = Integer
+                .parseInt(limiterProperties.getProperty("producer.lease.size", "4"));
+            assert producerLeaseSize > 0 : "presto limiter producerLeaseSize <= 0";
+            producerLeaseMills = Long
+                .parseLong(limiterProperties.getProperty("producer.lease.mills", "30000"));
+            assert producerLeaseMills > 0 : "presto limiter producerLeaseMills <= 0";
+            producerSessionEnabled = Boolean
+                .parseBoolean(limiterProperties.getProperty("producer.session.enabled", "false"));
+            producerSessionPath = limiterProperties
+                .getProperty("producer.session.path", "/server/prestolimiter/producer/session");
+            PathUtils.validatePath(producerSessionPath);
             prestoLimitCnt = Integer.parseInt(limiterProperties.getProperty("presto.limit.count"));
             assert prestoLimitCnt > 0 : "presto limiter prestoLimitCnt <= 0";
             prestoLimitHighPriorityReserved = Integer
@@ -80,6 +185,45 @@ public class NativeProperties {
                 .parseInt(limiterProperties.getProperty("presto.limit.highPriority.minScore"));
             assert prestoLimitHighPriorityMinScore
                 > 0 : "presto limiter prestoLimitHighPriorityMinScore <= 0";
+            prestoLimitAdaptiveEnabled = Boolean.parseBoolean(
+                limiterProperties.getProperty("presto.limit.adaptive.enabled", "false"));
+            prestoLimitAdaptiveMin = Integer
+                .parseInt(limiterProperties.getProperty("presto.limit.adaptive.min", "1"));
+            assert prestoLimitAdaptiveMin > 0 : "presto limiter prestoLimitAdaptiveMin <= 0";
+            prestoLimitAdaptiveMax = Integer.parseInt(limiterProperties
+                .getProperty("presto.limit.adaptive.max", String.valueOf(prestoLimitCnt)));
+            assert prestoLimitAdaptiveMax
+                >= prestoLimitAdaptiveMin : "presto limiter prestoLimitAdaptiveMax < min";
+            prestoLimitAdaptiveTargetMills = Long.parseLong(
+                limiterProperties.getProperty("presto.limit.adaptive.targetMills", "60000"));
+            assert prestoLimitAdaptiveTargetMills
+                > 0 : "presto limiter prestoLimitAdaptiveTargetMills <= 0";
+            prestoLimitAdaptiveWindowMills = Long.parseLong(
+                limiterProperties.getProperty("presto.limit.adaptive.windowMills", "10000"));
+            assert prestoLimitAdaptiveWindowMills
+                > 0 : "presto limiter prestoLimitAdaptiveWindowMills <= 0";
+            prestoClusters = parseClusters(limiterProperties.getProperty("presto.clusters", ""));
+            prestoClusterLimits = new int[prestoClusters.length];
+            prestoClusterReserved = new int[prestoClusters.length];
+            for (int i = 0; i < prestoClusters.length; i++) {
+                prestoClusterLimits[i] = Integer.parseInt(limiterProperties
+                    .getProperty("presto.cluster." + prestoClusters[i] + ".limit"));
+                prestoClusterReserved[i] = Integer.parseInt(limiterProperties.getProperty(
+                    "presto.cluster." + prestoClusters[i] + ".reserved", "0"));
+                assert prestoClusterLimits[i] > 0 : "presto limiter prestoClusterLimit <= 0";
+                assert prestoClusterReserved[i]
+                    >= 0 : "presto limiter prestoClusterReserved < 0";
+            }
+            limiterConfigPath = limiterProperties.getProperty("limiter.config.path", "");
+            if (!limiterConfigPath.isEmpty()) {
+                PathUtils.validatePath(limiterConfigPath);
+            }
+            queryTypeProperties = new Properties();
+            for (String key : limiterProperties.stringPropertyNames()) {
+                if (key.startsWith("query.type.")) {
+                    queryTypeProperties.setProperty(key, limiterProperties.getProperty(key));
+                }
+            }
         } catch (Exception e) {
             LOGGER.error("load presto limiter properties fail!", e);
             throw new PrestoLimiterException("load presto limiter properties fail!", e);
@@ -114,6 +258,79 @@ public class NativeProperties {
         return consumerLockNode;
     }
 
+    public static int getConsumerMoveBatchSize() {
+        return consumerMoveBatchSize;
+    }
+
+    public static long getConsumerExpireTickMills() {
+        return consumerExpireTickMills;
+    }
+
+    public static long getConsumerBypassMaxMills() {
+        return consumerBypassMaxMills;
+    }
+
+    /**
+     * 请求每等待该时间，排序时的优先级加一，0表示不按等待时间提升优先级.
+     */
+    public static long getConsumerAgingMills() {
+        return consumerAgingMills;
+    }
+
+    /**
+     * 优先级段内是否按过期时间调度(最早截止优先)，过期时间是开始执行的截止时间.
+     */
+    public static boolean isConsumerEdfEnabled() {
+        return consumerEdfEnabled;
+    }
+
+    public static boolean isConsumerFairEnabled() {
+        return consumerFairEnabled;
+    }
+
+    public static int getConsumerFairDefaultWeight() {
+        return consumerFairDefaultWeight;
+    }
+
+    /**
+     * 配置了权重的租户，未配置的租户使用默认权重.
+     */
+    public static Map<String, Integer> getConsumerFairTenantWeights() {
+        return consumerFairTenantWeights;
+    }
+
+    /**
+     * 消费者发布排队统计的临时节点.
+     */
+    public static String getConsumerStatsPath() {
+        return consumerStatsPath;
+    }
+
+    /**
+     * 发布排队统计的间隔，0表示不发布.
+     */
+    public static long getConsumerStatsPublishMills() {
+        return consumerStatsPublishMills;
+    }
+
+    /**
+     * 是否开启不排队的快速获取，消费者与所有生产者需要使用相同的配置.
+     */
+    public static boolean isConsumerFastPathEnabled() {
+        return consumerFastPathEnabled;
+    }
+
+    /**
+     * 消费者发布空闲资源的目录，每个子节点代表一个资源.
+     */
+    public static String getConsumerFastPathPath() {
+        return consumerFastPathPath;
+    }
+
+    public static boolean isCoordinationPayloadBinary() {
+        return coordinationPayloadBinary;
+    }
+
     public static String getProducerRegisterPath() {
         return producerRegisterPath;
     }
@@ -134,6 +351,49 @@ public class NativeProperties {
         return producerConsumeExpireMills;
     }
 
+    public static long getProducerConsumeHeartbeatMills() {
+        return producerConsumeHeartbeatMills;
+    }
+
+    /**
+     * 执行节点从移动或最近一次续约起的有效期，开启心跳时为心跳超时，否则为固定的执行超时.
+     */
+    public static long getProducerConsumeGrantMills() {
+        return producerConsumeHeartbeatMills > 0 ? producerConsumeHeartbeatMills
+            : producerConsumeExpireMills;
+    }
+
+    /**
+     * 是否按消费者发布的排队统计在注册前拒绝预计等不到许可的请求.
+     */
+    public static boolean isProducerAdmissionEnabled() {
+        return producerAdmissionEnabled;
+    }
+
+    public static boolean isProducerLeaseEnabled() {
+        return producerLeaseEnabled;
+    }
+
+    public static int getProducerLeasePriority() {
+        return producerLeasePriority;
+    }
+
+    public static int getProducerLeaseSize() {
+        return producerLeaseSize;
+    }
+
+    public static long getProducerLeaseMills() {
+        return producerLeaseMills;
+    }
+
+    public static boolean isProducerSessionEnabled() {
+        return producerSessionEnabled;
+    }
+
+    public static String getProducerSessionPath() {
+        return producerSessionPath;
+    }
+
     public static int getPrestoLimitCnt() {
         return prestoLimitCnt;
     }
@@ -146,11 +406,154 @@ public class NativeProperties {
         return prestoLimitHighPriorityMinScore;
     }
 
+    public static boolean isPrestoLimitAdaptiveEnabled() {
+        return prestoLimitAdaptiveEnabled;
+    }
+
+    public static int getPrestoLimitAdaptiveMin() {
+        return prestoLimitAdaptiveMin;
+    }
+
+    public static int getPrestoLimitAdaptiveMax() {
+        return prestoLimitAdaptiveMax;
+    }
+
+    public static long getPrestoLimitAdaptiveTargetMills() {
+        return prestoLimitAdaptiveTargetMills;
+    }
+
+    public static long getPrestoLimitAdaptiveWindowMills() {
+        return prestoLimitAdaptiveWindowMills;
+    }
+
+    /**
+     * 多集群模式下的集群名称，按下标排列，未配置时为空数组，全部资源属于一个默认集群.
+     */
+    public static String[] getPrestoClusters() {
+        return prestoClusters.clone();
+    }
+
+    public static int getPrestoClusterCount() {
+        return prestoClusters.length;
+    }
+
+    /**
+     * 集群名称对应的下标，不存在返回-1.
+     */
+    public static int getPrestoClusterIndex(String cluster) {
+        for (int i = 0; i < prestoClusters.length; i++) {
+            if (prestoClusters[i].equals(cluster)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 下标对应的集群名称，下标不合法时返回null.
+     */
+    public static String getPrestoCluster(int index) {
+        return index >= 0 && index < prestoClusters.length ? prestoClusters[index] : null;
+    }
+
+    public static int getPrestoClusterLimit(int index) {
+        return prestoClusterLimits[index];
+    }
+
+    public static int getPrestoClusterReserved(int index) {
+        return prestoClusterReserved[index];
+    }
+
+    /**
+     * 修改全局的资源限制与各集群的限制，只由zk配置节点的监听调用.
+     *
+     * @param clusterLimits 按集群下标排列，个数与集群个数相同.
+     * @throws PrestoLimiterException 限制非法时不做任何修改.
+     */
+    public static synchronized void updatePrestoLimits(int limitCnt, int highPriorityReserved,
+        int highPriorityMinScore, int[] clusterLimits, int[] clusterReserved) {
+        if (limitCnt <= 0 || highPriorityReserved < 0 || highPriorityMinScore <= 0) {
+            throw new PrestoLimiterException(String.format(
+                "illegal presto limits, count [%d], reserved [%d], minScore [%d]", limitCnt,
+                highPriorityReserved, highPriorityMinScore));
+        }
+        for (int i = 0; i < prestoClusters.length; i++) {
+            if (clusterLimits[i] <= 0 || clusterReserved[i] < 0) {
+                throw new PrestoLimiterException(String.format(
+                    "illegal presto cluster [%s] limits, count [%d], reserved [%d]",
+                    prestoClusters[i], clusterLimits[i], clusterReserved[i]));
+            }
+        }
+        prestoLimitCnt = limitCnt;
+        prestoLimitHighPriorityReserved = highPriorityReserved;
+        prestoLimitHighPriorityMinScore = highPriorityMinScore;
+        prestoClusterLimits = clusterLimits.clone();
+        prestoClusterReserved = clusterReserved.clone();
+    }
+
+    /**
+     * zk上的配置节点，为空表示不使用.
+     */
+    public static String getLimiterConfigPath() {
+        return limiterConfigPath;
+    }
+
+    /**
+     * 配置文件中{@code query.type.}开头的查询类型定义.
+     */
+    public static Properties getQueryTypeProperties() {
+        return queryTypeProperties;
+    }
+
+    //优先读取系统属性指定的文件，其次是工作目录下的文件，都没有时读取classpath中的默认配置.
+    private static Properties loadProperties() throws IOException {
+        Properties limiterProperties = new Properties();
+        String path = System.getProperty(PROPERTIES_PATH_KEY);
+        if (path == null && new File(DEFAULT_PROPERTIES_PATH).exists()) {
+            path = DEFAULT_PROPERTIES_PATH;
+        }
+        try (InputStream inputStream = path != null ? new FileInputStream(path)
+            : NativeProperties.class.getClassLoader().getResourceAsStream(PROPERTIES_PATH_KEY)) {
+            if (inputStream == null) {
+                throw new FileNotFoundException(DEFAULT_PROPERTIES_PATH);
+            }
+            limiterProperties.load(inputStream);
+        }
+        return limiterProperties;
+    }
+
+    //逗号分隔的集群名称，只允许[0-9a-zA-Z-]，个数不超过32，节点中按位记录可以使用的集群.
+    private static String[] parseClusters(String value) {
+        if (value.trim().isEmpty()) {
+            return new String[0];
+        }
+        String[] clusters = value.split(",");
+        for (int i = 0; i < clusters.length; i++) {
+            clusters[i] = clusters[i].trim();
+            if (!clusters[i].matches("[0-9a-zA-Z-]+")) {
+                throw new PrestoLimiterException(
+                    String.format("illegal presto cluster name [%s]", clusters[i]));
+            }
+            for (int j = 0; j < i; j++) {
+                if (clusters[j].equals(clusters[i])) {
+                    throw new PrestoLimiterException(
+                        String.format("duplicate presto cluster name [%s]", clusters[i]));
+                }
+            }
+        }
+        if (clusters.length > 32) {
+            throw new PrestoLimiterException(
+                String.format("too many presto clusters [%d], at most 32", clusters.length));
+        }
+        return clusters;
+    }
+
+    //zk地址为逗号分隔的ipv4地址，可带端口；只做格式校验，不解析域名.
     private static boolean checkZkAddr(String zkAddr) {
         if (zkAddr != null && zkAddr.length() != 0) {
             String[] ips = zkAddr.split(",");
             for (String ip : ips) {
-                if (!IPAddressUtil.isIPv4LiteralAddress(ip)) {
+                if (!isIPv4Address(ip.trim())) {
                     return false;
                 }
             }
@@ -158,4 +561,37 @@ public class NativeProperties {
         }
         return false;
     }
+
+    private static boolean isIPv4Address(String addr) {
+        int colon = addr.indexOf(':');
+        if (colon >= 0) {
+            String port = addr.substring(colon + 1);
+            if (!isNumber(port, 5) || Integer.parseInt(port) > 65535) {
+                return false;
+            }
+            addr = addr.substring(0, colon);
+        }
+        String[] parts = addr.split("\\.", -1);
+        if (parts.length != 4) {
+            return false;
+        }
+        for (String part : parts) {
+            if (!isNumber(part, 3) || Integer.parseInt(part) > 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumber(String value, int maxLength) {
+        if (value.isEmpty() || value.length() > maxLength) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,59 @@
+package com.lc.prestolimiter.common;
+
+//执行许可，生产者的注册节点被消费者移动到执行目录后获得.
+public class Permit {
+
+    private final String node;
+    private final String path;
+    private final int priority;
+    private final QueryType queryType;
+    private final String cluster;
+
+    public Permit(String node, String path, int priority, QueryType queryType) {
+        this(node, path, priority, queryType, null);
+    }
+
+    public Permit(String node, String path, int priority, QueryType queryType, String cluster) {
+        this.node = node;
+        this.path = path;
+        this.priority = priority;
+        this.queryType = queryType;
+        this.cluster = cluster;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * zk上可执行节点的完整路径，释放资源时使用.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public QueryType getQueryType() {
+        return queryType;
+    }
+
+    /**
+     * 许可所属的presto集群，查询需要提交到该集群，未配置多集群时为null.
+     */
+    public String getCluster() {
+        return cluster;
+    }
+
+    @Override
+    public String toString() {
+        return "Permit{"
+            + "node='" + node + '\''
+            + ", path='" + path + '\''
+            + ", priority=" + priority
+            + ", queryType=" + queryType
+            + ", cluster='" + cluster + '\'' + '}';
+    }
+}
@@ -1,17 +1,201 @@
 package com.lc.prestolimiter.common;
 
-//查询类型，用来控制某一类查询并发的量，当前只限制圈人.
-public enum QueryType {
-    NORMAL(-1),
-    CIRCLE_PEOPLE(1);
+import com.alibaba.fastjson.annotation.JSONType;
+import com.alibaba.fastjson.parser.DefaultJSONParser;
+import com.alibaba.fastjson.parser.JSONToken;
+import com.alibaba.fastjson.parser.deserializer.ObjectDeserializer;
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.ObjectSerializer;
+import com.lc.prestolimiter.Exception.PrestoLimiterException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-    private int limit;
+/**
+ * 查询类型，用来控制某一类查询并发的量；权重是默认占用的执行资源个数.
+ * 除内置的两个类型外，类型在配置文件或zk配置节点中以{@code query.type.<名称>=<编号>,<并发限制>,<权重>}定义，
+ * 创建{@code PrestoLimiterService}时注册配置文件中的类型，zk配置节点中的类型在启动及节点修改时注册，
+ * 注册后不会删除.
+ * 编号写入节点，一经使用不能修改；下标按注册顺序连续分配，只在本进程内使用，用于按类型索引数组.
+ */
+@JSONType(serializer = QueryType.JsonCodec.class, deserializer = QueryType.JsonCodec.class)
+public final class QueryType {
 
-    QueryType(int limit) {
+    private static final String PROPERTY_PREFIX = "query.type.";
+    private static final int MAX_ID = 0xFFFF; //二进制编码中编号占两个字节.
+    private static final Object REGISTER_LOCK = new Object();
+    private static final ConcurrentMap<String, QueryType> NAME_TYPES = new ConcurrentHashMap<>();
+    //写时复制，读取不加锁.
+    private static volatile QueryType[] indexTypes = new QueryType[0];
+    private static volatile QueryType[] idTypes = new QueryType[0];
+
+    public static final QueryType NORMAL = register("NORMAL", 0, -1, 1);
+    public static final QueryType CIRCLE_PEOPLE = register("CIRCLE_PEOPLE", 1, 1, 4);
+
+    private final String name;
+    private final int id; //写入节点数据的编号，一经使用不能修改.
+    private final int index;
+    private volatile int limit; //负数表示不限制.
+    private volatile int weight;
+
+    private QueryType(String name, int id, int index, int limit, int weight) {
+        this.name = name;
+        this.id = id;
+        this.index = index;
         this.limit = limit;
+        this.weight = weight;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * 进程内连续的下标，从0开始.
+     */
+    public int getIndex() {
+        return index;
     }
 
     public int getLimit() {
         return limit;
     }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * 注册查询类型，已经注册的类型只更新并发限制与权重.
+     *
+     * @throws PrestoLimiterException 参数非法，或者名称与编号和已注册的类型冲突.
+     */
+    public static QueryType register(String name, int id, int limit, int weight) {
+        if (name == null || name.isEmpty() || id < 0 || id > MAX_ID || weight <= 0) {
+            throw new PrestoLimiterException(String.format(
+                "illegal query type, name [%s], id [%d], limit [%d], weight [%d]", name, id,
+                limit, weight));
+        }
+        synchronized (REGISTER_LOCK) {
+            QueryType queryType = NAME_TYPES.get(name);
+            if (queryType == null ? fromId(id) != null : queryType.id != id) {
+                throw new PrestoLimiterException(String.format(
+                    "query type [%s] with id [%d] conflicts with the registered types", name, id));
+            }
+            if (queryType != null) {
+                queryType.limit = limit;
+                queryType.weight = weight;
+                return queryType;
+            }
+            queryType = new QueryType(name, id, indexTypes.length, limit, weight);
+            QueryType[] newIdTypes = Arrays.copyOf(idTypes, Math.max(idTypes.length, id + 1));
+            newIdTypes[id] = queryType;
+            idTypes = newIdTypes;
+            NAME_TYPES.put(name, queryType);
+            QueryType[] newIndexTypes = Arrays.copyOf(indexTypes, indexTypes.length + 1);
+            newIndexTypes[queryType.index] = queryType;
+            indexTypes = newIndexTypes; //最后发布下标，按下标遍历时类型已经可以按编号和名称查到.
+            return queryType;
+        }
+    }
+
+    /**
+     * 注册配置中{@code query.type.}开头的全部类型.
+     */
+    public static void load(Properties properties) {
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            if (!key.startsWith(PROPERTY_PREFIX)) {
+                continue;
+            }
+            String[] values = properties.getProperty(key).split(",");
+            if (values.length != 3) {
+                throw new PrestoLimiterException(String.format(
+                    "illegal query type config [%s=%s]", key, properties.getProperty(key)));
+            }
+            try {
+                register(key.substring(PROPERTY_PREFIX.length()),
+                    Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()),
+                    Integer.parseInt(values[2].trim()));
+            } catch (NumberFormatException e) {
+                throw new PrestoLimiterException(String.format(
+                    "illegal query type config [%s=%s]", key, properties.getProperty(key)), e);
+            }
+        }
+    }
+
+    /**
+     * 已注册的全部类型，按下标排列.
+     */
+    public static QueryType[] values() {
+        return indexTypes.clone();
+    }
+
+    /**
+     * 已注册的类型个数，下标都小于该值.
+     */
+    public static int count() {
+        return indexTypes.length;
+    }
+
+    public static QueryType fromIndex(int index) {
+        return indexTypes[index];
+    }
+
+    /**
+     * 按编号查找查询类型，不存在返回null.
+     */
+    public static QueryType fromId(int id) {
+        QueryType[] types = idTypes;
+        return id >= 0 && id < types.length ? types[id] : null;
+    }
+
+    /**
+     * 按名称查找查询类型，不存在返回null.
+     */
+    public static QueryType valueOf(String name) {
+        return name == null ? null : NAME_TYPES.get(name);
+    }
+
+    //json中按名称读写，与原来的枚举格式兼容.
+    public static class JsonCodec implements ObjectSerializer, ObjectDeserializer {
+
+        @Override
+        public void write(JSONSerializer serializer, Object object, Object fieldName,
+            Type fieldType, int features) {
+            serializer.write(((QueryType) object).name);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> T deserialze(DefaultJSONParser parser, Type type, Object fieldName) {
+            Object value = parser.parse();
+            if (value == null) {
+                return null;
+            }
+            QueryType queryType = value instanceof Number ? fromId(((Number) value).intValue())
+                : valueOf(value.toString());
+            if (queryType == null) {
+                throw new PrestoLimiterException(
+                    String.format("unknown query type [%s]", value));
+            }
+            return (T) queryType;
+        }
+
+        @Override
+        public int getFastMatchToken() {
+            return JSONToken.LITERAL_STRING;
+        }
+    }
 }
@@ -1,11 +1,22 @@
 package com.lc.prestolimiter.common;
 
+import com.alibaba.fastjson.annotation.JSONField;
+
 public class RegisterObject implements Comparable<RegisterObject> {
 
     private int priority;
     private long expireTime;
     private QueryType queryType;
     private String node;
+    private int permits = 1; //占用的执行资源个数.
+    private boolean lease; //是否是生产者主机的许可租约，租约可以部分满足.
+    private String tenant; //提交查询的租户，可选.
+    private long cost; //查询的预估代价，可选，0表示未知.
+    private String owner; //所属生产者的会话节点名称，会话模式下有效，只记录在节点名称中.
+    private int clusterMask; //可以使用的集群，按集群下标置位，0表示任意集群.
+    private int cluster = -1; //消费者分配的集群下标，只记录在执行节点的数据中，-1表示未分配.
+    private long registerTime; //消费者收到注册节点的时间，用于按等待时间提升优先级，不写入节点.
+    private boolean fastPath; //是否是快速获取直接创建的执行节点，只记录在节点名称中.
 
     public RegisterObject() {
     }
@@ -28,6 +39,15 @@ public class RegisterObject implements Comparable<RegisterObject> {
         this.expireTime = registerObject.expireTime;
         this.queryType = registerObject.queryType;
         this.node = registerObject.node;
+        this.permits = registerObject.permits;
+        this.lease = registerObject.lease;
+        this.tenant = registerObject.tenant;
+        this.cost = registerObject.cost;
+        this.owner = registerObject.owner;
+        this.clusterMask = registerObject.clusterMask;
+        this.cluster = registerObject.cluster;
+        this.registerTime = registerObject.registerTime;
+        this.fastPath = registerObject.fastPath;
     }
 
     public int getPriority() {
@@ -46,6 +66,44 @@ public class RegisterObject implements Comparable<RegisterObject> {
         return queryType;
     }
 
+    public int getPermits() {
+        return permits;
+    }
+
+    public boolean isLease() {
+        return lease;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public long getCost() {
+        return cost;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public int getClusterMask() {
+        return clusterMask;
+    }
+
+    public int getCluster() {
+        return cluster;
+    }
+
+    @JSONField(serialize = false)
+    public long getRegisterTime() {
+        return registerTime;
+    }
+
+    @JSONField(serialize = false)
+    public boolean isFastPath() {
+        return fastPath;
+    }
+
     public void setPriority(int priority) {
         this.priority = priority;
     }
@@ -62,6 +120,44 @@ public class RegisterObject implements Comparable<RegisterObject> {
         this.queryType = queryType;
     }
 
+    public void setPermits(int permits) {
+        this.permits = permits;
+    }
+
+    public void setLease(boolean lease) {
+        this.lease = lease;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public void setCost(long cost) {
+        this.cost = cost;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public void setClusterMask(int clusterMask) {
+        this.clusterMask = clusterMask;
+    }
+
+    public void setCluster(int cluster) {
+        this.cluster = cluster;
+    }
+
+    @JSONField(deserialize = false)
+    public void setRegisterTime(long registerTime) {
+        this.registerTime = registerTime;
+    }
+
+    @JSONField(deserialize = false)
+    public void setFastPath(boolean fastPath) {
+        this.fastPath = fastPath;
+    }
+
     @Override
     public int hashCode() {
         int hashCode = this.priority;
@@ -0,0 +1,432 @@
+package com.lc.prestolimiter.common;
+
+import com.alibaba.fastjson.JSON;
+import com.lc.prestolimiter.Exception.PrestoLimiterException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * 注册节点与执行节点数据的编解码.
+ * 二进制格式(大端)：
+ * <pre>
+ * 0      魔数 0xB7，json数据的第一个字节总是'{'，据此区分两种格式
+ * 1      版本号
+ * 2      标志位：1 租约，2 带租户，4 带代价，16 带可用集群，32 带分配的集群
+ * 3-4    查询类型编号
+ * 5-8    优先级
+ * 9-16   过期时间
+ * 17-20  资源个数
+ * 之后按标志位依次为：租户(2字节长度 + UTF-8)，代价(8字节)，可用集群(4字节位图)，分配的集群(1字节下标)
+ * </pre>
+ * 新版本只在末尾追加字段并用新的标志位表示，旧版本的解码器读取已知部分即可.
+ * 解码时两种格式都支持，编码格式由{@code coordination.payload.binary}决定，
+ * 所有消费者与生产者升级后再打开，升级期间仍写json.
+ * 注册节点的调度属性同时写在节点名称中：
+ * {@code v1_优先级_类型编号_过期时间_资源个数_标志位_[会话_][集群_][租户_]顺序号}，
+ * 消费者只根据子节点名称调度，不需要读取注册节点的数据，标志位8表示名称中带有所属生产者的会话节点，
+ * 标志位16表示带有可用集群的位图，标志位2表示带有租户，都放在会话之后，升级前的解码器按原格式读取会话并忽略它们.
+ * 标志位64表示执行节点由快速获取直接创建，没有经过注册目录.
+ * 名称中的租户只允许[0-9a-zA-Z-]，长度不超过{@value #MAX_TENANT_NAME_LENGTH}.
+ */
+public class RegisterObjectCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte MAGIC = (byte) 0xB7;
+    private static final byte VERSION = 1;
+    private static final int FLAG_LEASE = 1;
+    private static final int FLAG_TENANT = 2;
+    private static final int FLAG_COST = 4;
+    private static final int FLAG_OWNER = 8; //只用于节点名称.
+    private static final int FLAG_CLUSTERS = 16;
+    private static final int FLAG_CLUSTER = 32; //只用于执行节点的数据.
+    private static final int FLAG_FAST_PATH = 64; //只用于节点名称.
+    private static final int FIXED_LENGTH = 21;
+    private static final int TENANT_CACHE_SIZE = 256; //2的幂.
+    private static final int MAX_TENANT_NAME_LENGTH = 64;
+    private static final String NODE_NAME_VERSION = "v1_";
+    private static final char NODE_NAME_SEPARATOR = '_';
+
+    //解码时复用租户名称，命中时不创建字符串，条目不可变，并发读写不需要加锁.
+    private static final TenantEntry[] TENANT_CACHE = new TenantEntry[TENANT_CACHE_SIZE];
+    //生产者会话节点名称的缓存，生产者数量很少，解析节点名称时基本不创建字符串.
+    private static final String[] OWNER_CACHE = new String[TENANT_CACHE_SIZE];
+    private static final String[] TENANT_NAME_CACHE = new String[TENANT_CACHE_SIZE]; //节点名称中的租户.
+
+    private RegisterObjectCodec() {
+    }
+
+    /**
+     * 按配置的格式编码，不包含节点名称.
+     */
+    public static byte[] encode(RegisterObject registerObject) {
+        return NativeProperties.isCoordinationPayloadBinary() ? encodeBinary(registerObject)
+            : JSON.toJSONBytes(registerObject);
+    }
+
+    public static byte[] encodeBinary(RegisterObject registerObject) {
+        byte[] tenant = registerObject.getTenant() == null ? null
+            : registerObject.getTenant().getBytes(UTF_8);
+        if (tenant != null && tenant.length > 0xFFFF) {
+            throw new PrestoLimiterException(
+                String.format("tenant is too long, the length is [%d]", tenant.length));
+        }
+        int flags = (registerObject.isLease() ? FLAG_LEASE : 0)
+            | (tenant != null ? FLAG_TENANT : 0)
+            | (registerObject.getCost() != 0 ? FLAG_COST : 0)
+            | (registerObject.getClusterMask() != 0 ? FLAG_CLUSTERS : 0)
+            | (registerObject.getCluster() >= 0 ? FLAG_CLUSTER : 0);
+        byte[] data = new byte[FIXED_LENGTH + (tenant != null ? 2 + tenant.length : 0)
+            + ((flags & FLAG_COST) != 0 ? 8 : 0) + ((flags & FLAG_CLUSTERS) != 0 ? 4 : 0)
+            + ((flags & FLAG_CLUSTER) != 0 ? 1 : 0)];
+        data[0] = MAGIC;
+        data[1] = VERSION;
+        data[2] = (byte) flags;
+        putShort(data, 3, registerObject.getQueryType().getId());
+        putInt(data, 5, registerObject.getPriority());
+        putLong(data, 9, registerObject.getExpireTime());
+        putInt(data, 17, registerObject.getPermits());
+        int offset = FIXED_LENGTH;
+        if (tenant != null) {
+            putShort(data, offset, tenant.length);
+            System.arraycopy(tenant, 0, data, offset + 2, tenant.length);
+            offset += 2 + tenant.length;
+        }
+        if ((flags & FLAG_COST) != 0) {
+            putLong(data, offset, registerObject.getCost());
+            offset += 8;
+        }
+        if ((flags & FLAG_CLUSTERS) != 0) {
+            putInt(data, offset, registerObject.getClusterMask());
+            offset += 4;
+        }
+        if ((flags & FLAG_CLUSTER) != 0) {
+            data[offset] = (byte) registerObject.getCluster();
+        }
+        return data;
+    }
+
+    /**
+     * 解码到复用的对象中，节点名称保持不变.
+     * 二进制格式在租户名称已缓存时不创建任何对象，json格式用于兼容升级前写入的节点.
+     *
+     * @return holder本身.
+     */
+    public static RegisterObject decode(byte[] data, RegisterObject holder) {
+        if (data == null || data.length == 0) {
+            throw new PrestoLimiterException("register object data is empty");
+        }
+        if (data[0] != MAGIC) {
+            return decodeJson(data, holder);
+        }
+        checkLength(data, FIXED_LENGTH);
+        if (data[1] < 1) {
+            throw new PrestoLimiterException(
+                String.format("illegal register object data version [%d]", data[1]));
+        }
+        int flags = data[2] & 0xFF; //新版本可能使用最高位，不能按符号扩展.
+        QueryType queryType = QueryType.fromId(getShort(data, 3));
+        if (queryType == null) {
+            throw new PrestoLimiterException(
+                String.format("unknown query type id [%d]", getShort(data, 3)));
+        }
+        holder.setQueryType(queryType);
+        holder.setPriority(getInt(data, 5));
+        holder.setExpireTime(getLong(data, 9));
+        holder.setPermits(getInt(data, 17));
+        holder.setLease((flags & FLAG_LEASE) != 0);
+        holder.setOwner(null);
+        holder.setFastPath(false);
+        int offset = FIXED_LENGTH;
+        holder.setTenant(null);
+        if ((flags & FLAG_TENANT) != 0) {
+            checkLength(data, offset + 2);
+            int length = getShort(data, offset);
+            checkLength(data, offset + 2 + length);
+            holder.setTenant(tenantOf(data, offset + 2, length));
+            offset += 2 + length;
+        }
+        if ((flags & FLAG_COST) != 0) {
+            checkLength(data, offset + 8);
+        }
+        holder.setCost((flags & FLAG_COST) != 0 ? getLong(data, offset) : 0);
+        offset += (flags & FLAG_COST) != 0 ? 8 : 0;
+        if ((flags & FLAG_CLUSTERS) != 0) {
+            checkLength(data, offset + 4);
+        }
+        holder.setClusterMask((flags & FLAG_CLUSTERS) != 0 ? getInt(data, offset) : 0);
+        offset += (flags & FLAG_CLUSTERS) != 0 ? 4 : 0;
+        if ((flags & FLAG_CLUSTER) != 0) {
+            checkLength(data, offset + 1);
+        }
+        holder.setCluster((flags & FLAG_CLUSTER) != 0 ? data[offset] & 0xFF : -1);
+        return holder;
+    }
+
+    /**
+     * 注册节点名称的前缀，zk在其后追加顺序号.
+     */
+    public static String encodeNodeName(RegisterObject registerObject) {
+        String owner = registerObject.getOwner();
+        if (owner != null && !isOwnerName(owner, 0, owner.length())) {
+            throw new PrestoLimiterException(
+                String.format("illegal owner [%s], only [0-9a-z] is allowed", owner));
+        }
+        String tenant = registerObject.getTenant();
+        if (tenant != null && !isTenantName(tenant)) {
+            throw new PrestoLimiterException(String.format(
+                "illegal tenant [%s], only [0-9a-zA-Z-] is allowed in node name", tenant));
+        }
+        StringBuilder builder = new StringBuilder(64).append(NODE_NAME_VERSION)
+            .append(registerObject.getPriority()).append(NODE_NAME_SEPARATOR)
+            .append(registerObject.getQueryType().getId()).append(NODE_NAME_SEPARATOR)
+            .append(registerObject.getExpireTime()).append(NODE_NAME_SEPARATOR)
+            .append(registerObject.getPermits()).append(NODE_NAME_SEPARATOR)
+            .append((registerObject.isLease() ? FLAG_LEASE : 0) | (owner != null ? FLAG_OWNER : 0)
+                | (registerObject.getClusterMask() != 0 ? FLAG_CLUSTERS : 0)
+                | (tenant != null ? FLAG_TENANT : 0)
+                | (registerObject.isFastPath() ? FLAG_FAST_PATH : 0))
+            .append(NODE_NAME_SEPARATOR);
+        if (owner != null) {
+            builder.append(owner).append(NODE_NAME_SEPARATOR);
+        }
+        if (registerObject.getClusterMask() != 0) {
+            builder.append(registerObject.getClusterMask() & 0xFFFFFFFFL)
+                .append(NODE_NAME_SEPARATOR);
+        }
+        if (tenant != null) {
+            builder.append(tenant).append(NODE_NAME_SEPARATOR);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 从节点名称中解析调度属性到复用的对象中，代价只在节点数据中，被清空.
+     *
+     * @return 名称中不带属性(升级前创建的节点)或格式不合法时返回false，holder不变，
+     *     需要读取节点数据.
+     */
+    public static boolean decodeNodeName(String node, RegisterObject holder) {
+        if (node == null || !node.startsWith(NODE_NAME_VERSION)) {
+            return false;
+        }
+        int start = NODE_NAME_VERSION.length();
+        int priorityEnd = fieldEnd(node, start);
+        int typeEnd = fieldEnd(node, priorityEnd + 1);
+        int expireTimeEnd = fieldEnd(node, typeEnd + 1);
+        int permitsEnd = fieldEnd(node, expireTimeEnd + 1);
+        int flagsEnd = fieldEnd(node, permitsEnd + 1);
+        if (priorityEnd < 0 || typeEnd < 0 || expireTimeEnd < 0 || permitsEnd < 0
+            || flagsEnd < 0) {
+            return false;
+        }
+        QueryType queryType = QueryType.fromId((int) parseLong(node, priorityEnd + 1, typeEnd));
+        if (queryType == null) {
+            return false;
+        }
+        long flags = parseLong(node, permitsEnd + 1, flagsEnd);
+        String owner = null;
+        int ownerEnd = flagsEnd;
+        if ((flags & FLAG_OWNER) != 0) {
+            ownerEnd = node.indexOf(NODE_NAME_SEPARATOR, flagsEnd + 1);
+            if (ownerEnd < 0 || !isOwnerName(node, flagsEnd + 1, ownerEnd)) {
+                return false;
+            }
+            owner = cachedName(OWNER_CACHE, node, flagsEnd + 1, ownerEnd);
+        }
+        int clusterMask = 0;
+        int clustersEnd = ownerEnd;
+        if ((flags & FLAG_CLUSTERS) != 0) {
+            clustersEnd = fieldEnd(node, ownerEnd + 1);
+            if (clustersEnd < 0) {
+                return false;
+            }
+            clusterMask = (int) parseLong(node, ownerEnd + 1, clustersEnd);
+        }
+        String tenant = null;
+        if ((flags & FLAG_TENANT) != 0) {
+            int tenantEnd = node.indexOf(NODE_NAME_SEPARATOR, clustersEnd + 1);
+            if (tenantEnd < 0 || !isTenantName(node, clustersEnd + 1, tenantEnd)) {
+                return false;
+            }
+            tenant = cachedName(TENANT_NAME_CACHE, node, clustersEnd + 1, tenantEnd);
+        }
+        holder.setPriority((int) parseLong(node, start, priorityEnd));
+        holder.setQueryType(queryType);
+        holder.setExpireTime(parseLong(node, typeEnd + 1, expireTimeEnd));
+        holder.setPermits((int) parseLong(node, expireTimeEnd + 1, permitsEnd));
+        holder.setLease((flags & FLAG_LEASE) != 0);
+        holder.setOwner(owner);
+        holder.setClusterMask(clusterMask);
+        holder.setCluster(-1);
+        holder.setTenant(tenant);
+        holder.setCost(0);
+        holder.setFastPath((flags & FLAG_FAST_PATH) != 0);
+        return true;
+    }
+
+    /**
+     * 租户名称能否写入节点名称.
+     */
+    public static boolean isTenantName(String tenant) {
+        return tenant != null && isTenantName(tenant, 0, tenant.length());
+    }
+
+    //按哈希缓存名称中的字符串字段，命中时不创建字符串.
+    private static String cachedName(String[] cache, String node, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + node.charAt(i);
+        }
+        int index = (hash ^ (hash >>> 16)) & (TENANT_CACHE_SIZE - 1);
+        String name = cache[index];
+        if (name != null && name.length() == end - start
+            && name.regionMatches(0, node, start, end - start)) {
+            return name;
+        }
+        name = node.substring(start, end);
+        cache[index] = name;
+        return name;
+    }
+
+    private static boolean isTenantName(String name, int start, int end) {
+        if (start >= end || end - start > MAX_TENANT_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'z') && (c < 'A' || c > 'Z')
+                && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isOwnerName(String name, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //从start开始的数字字段的结束位置(分隔符的位置)，前一个字段不合法或本字段不是数字时返回-1.
+    private static int fieldEnd(String node, int start) {
+        if (start <= 0) {
+            return -1;
+        }
+        int end = node.indexOf(NODE_NAME_SEPARATOR, start);
+        int digitStart = start < end && node.charAt(start) == '-' ? start + 1 : start;
+        if (end < 0 || digitStart >= end || end - digitStart > 18) {
+            return -1;
+        }
+        for (int i = digitStart; i < end; i++) {
+            if (node.charAt(i) < '0' || node.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    private static long parseLong(String node, int start, int end) {
+        boolean negative = node.charAt(start) == '-';
+        long value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            value = value * 10 + (node.charAt(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static void checkLength(byte[] data, int length) {
+        if (data.length < length) {
+            throw new PrestoLimiterException(String.format(
+                "illegal register object data, the length is [%d]", data.length));
+        }
+    }
+
+    private static RegisterObject decodeJson(byte[] data, RegisterObject holder) {
+        RegisterObject registerObject = JSON.parseObject(data, RegisterObject.class);
+        holder.setQueryType(registerObject.getQueryType());
+        holder.setPriority(registerObject.getPriority());
+        holder.setExpireTime(registerObject.getExpireTime());
+        holder.setPermits(registerObject.getPermits());
+        holder.setLease(registerObject.isLease());
+        holder.setTenant(registerObject.getTenant());
+        holder.setCost(registerObject.getCost());
+        holder.setOwner(null);
+        holder.setFastPath(false);
+        holder.setClusterMask(registerObject.getClusterMask());
+        holder.setCluster(registerObject.getCluster());
+        return holder;
+    }
+
+    private static String tenantOf(byte[] data, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        int index = (hash ^ (hash >>> 16)) & (TENANT_CACHE_SIZE - 1);
+        TenantEntry entry = TENANT_CACHE[index];
+        if (entry != null && entry.matches(data, offset, length)) {
+            return entry.tenant;
+        }
+        entry = new TenantEntry(Arrays.copyOfRange(data, offset, offset + length));
+        TENANT_CACHE[index] = entry;
+        return entry.tenant;
+    }
+
+    private static void putShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        putShort(data, offset, value >>> 16);
+        putShort(data, offset + 2, value);
+    }
+
+    private static void putLong(byte[] data, int offset, long value) {
+        putInt(data, offset, (int) (value >>> 32));
+        putInt(data, offset + 4, (int) value);
+    }
+
+    private static int getShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int getInt(byte[] data, int offset) {
+        return (getShort(data, offset) << 16) | getShort(data, offset + 2);
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return ((long) getInt(data, offset) << 32) | (getInt(data, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static class TenantEntry {
+
+        private final byte[] bytes;
+        private final String tenant;
+
+        private TenantEntry(byte[] bytes) {
+            this.bytes = bytes;
+            this.tenant = new String(bytes, UTF_8);
+        }
+
+        private boolean matches(byte[] data, int offset, int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
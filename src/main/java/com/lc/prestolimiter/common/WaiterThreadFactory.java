@@ -0,0 +1,32 @@
+package com.lc.prestolimiter.common;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 调用方阻塞等待许可时使用的线程工厂，每个等待中的请求占用一个线程.
+ * 该实现创建守护平台线程；多版本jar在Java 21及以上运行时使用src/main/java21下的实现，创建虚拟线程.
+ */
+public class WaiterThreadFactory implements ThreadFactory {
+
+    private final String namePrefix;
+    private final AtomicLong threadCount = new AtomicLong();
+
+    public WaiterThreadFactory(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    /**
+     * 创建的线程是否为虚拟线程.
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + threadCount.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,94 @@
+package com.lc.prestolimiter.consumer;
+
+/**
+ * 按执行时间调整的全局并发限制(AIMD).
+ * 每个窗口结束时：窗口内有许可超时未释放，或者平均执行时间超过目标时，按比例减小限制；
+ * 否则只有窗口内资源曾经用满(限制确实约束了并发)且执行时间不超过目标时才加一，
+ * 集群空闲时限制不会无限增长.
+ * 非线程安全，由{@link ConsumeService}的锁保护.
+ */
+public class AdaptiveLimit {
+
+    private static final double BACKOFF_RATIO = 0.8;
+    private static final int MIN_SAMPLES = 3; //样本太少时不按执行时间减小限制.
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetMills;
+    private final long windowMills;
+    private int limit;
+    private long windowStart;
+    private int samples;
+    private long sumMills;
+    private int failures;
+    private boolean saturated;
+
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, long targetMills,
+        long windowMills, long now) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetMills = targetMills;
+        this.windowMills = windowMills;
+        this.windowStart = now;
+        reset(initialLimit);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * 重新设置限制，比如运维调整了配置，超出上下限时取边界值.
+     */
+    public void reset(int newLimit) {
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    /**
+     * 许可正常释放.
+     *
+     * @param runMills 从下发到释放的时间.
+     */
+    public void onRelease(long runMills) {
+        samples++;
+        sumMills += runMills;
+    }
+
+    /**
+     * 许可超时未释放，查询可能卡在了过载的集群上.
+     */
+    public void onFailure() {
+        failures++;
+    }
+
+    /**
+     * 调度因为资源不足而停止.
+     */
+    public void onSaturated() {
+        saturated = true;
+    }
+
+    /**
+     * 窗口结束时调整限制并开始新窗口.
+     *
+     * @return 限制是否变化.
+     */
+    public boolean update(long now) {
+        if (now - windowStart < windowMills) {
+            return false;
+        }
+        int oldLimit = limit;
+        boolean slow = samples > 0 && sumMills / samples > targetMills;
+        if (failures > 0 || (slow && samples >= MIN_SAMPLES)) {
+            reset((int) (limit * BACKOFF_RATIO));
+        } else if (saturated && !slow) {
+            reset(limit + 1);
+        }
+        windowStart = now;
+        samples = 0;
+        sumMills = 0;
+        failures = 0;
+        saturated = false;
+        return limit != oldLimit;
+    }
+}
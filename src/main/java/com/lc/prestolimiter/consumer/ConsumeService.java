@@ -1,27 +1,41 @@
 package com.lc.prestolimiter.consumer;
 
-import com.alibaba.fastjson.JSON;
+import com.lc.prestolimiter.common.FastPathSlots;
+import com.lc.prestolimiter.common.LimiterStats;
 import com.lc.prestolimiter.common.NativeProperties;
 import com.lc.prestolimiter.common.QueryType;
 import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
 import com.lc.prestolimiter.common.Switchable;
-import com.lc.prestolimiter.zookeeper.common.PathChangeWatcher;
+import com.lc.prestolimiter.coordination.ChildrenWatch;
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeMove;
+import com.lc.prestolimiter.metrics.Counter;
+import com.lc.prestolimiter.metrics.Histogram;
+import com.lc.prestolimiter.metrics.JmxMetricsRegistry;
+import com.lc.prestolimiter.metrics.MetricsRegistry;
 import com.lc.prestolimiter.zookeeper.impl.ConsumerConsumePathListener;
+import com.lc.prestolimiter.zookeeper.impl.ConsumerFastPathListener;
 import com.lc.prestolimiter.zookeeper.impl.ConsumerRegisterPathListener;
+import com.lc.prestolimiter.zookeeper.impl.ConsumerSessionPathListener;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
+import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,40 +43,172 @@ import org.slf4j.LoggerFactory;
 public class ConsumeService implements Switchable, Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ConsumeService.class.getName());
+    private static final int EXPIRY_WHEEL_SIZE = 4096;
+    private static final long MOVE_RETRY_INTERVAL_MILLS = 5000; //没有节点过期时，定时重试失败的移动.
+    private static final long RECLAIM_GRACE_MILLS = 200; //移动后超过该时间本地缓存中仍没有的执行节点需要核对.
+    private static final int MAX_BYPASS_SCAN = 64; //一次调度中跳过的资源不足的请求的最大个数.
+    private static final int RUN_MILLS_SMOOTHING = 8; //类型平均执行时间的指数平滑系数的倒数.
+    private static final int GRANT_RATE_SMOOTHING = 4; //下发速度的指数平滑系数的倒数.
+    private static final long FAST_PATH_INFLIGHT_MILLS = 2000; //被取走的空闲资源超过该时间仍没有执行节点到达时不再扣除.
+    private static final byte[] EMPTY_DATA = new byte[0];
 
-    private PathChangeWatcher registerPathWatcher;
-    private PathChangeWatcher consumePathWatcher;
+    private ChildrenWatch registerPathWatcher;
+    private ChildrenWatch consumePathWatcher;
+    private ChildrenWatch sessionPathWatcher;
     private AtomicInteger initialized;
     private boolean canConsume; //用于网络连接丢失的情况下暂停消费
-    private final CuratorFramework client;
-    private final PriorityQueue<RegisterObject> producerRegisterQueue;
-    private final PriorityQueue<RegisterObject> producerConsumeQueue;
-    private final Map<QueryType, Integer> queryTypeLimiterMap;
-    private final Lock lock; //同时lock两个队列以及限制map.
+    private final CoordinationBackend backend;
+    private final TenantFairQueues producerRegisterQueue;
+    private final RegisterObjectHeap producerConsumeQueue;
+    private final ExpiryTimerWheel registerExpiryWheel;
+    private final ExpiryTimerWheel consumeExpiryWheel;
+    private final List<String> expiredNodeList;
+    private final RegisterObject nodeNameHolder; //解析执行节点名称，锁内使用.
+    private long lastMoveTime;
+    private int limitCnt; //全局限制在锁内修改，一次调度中使用同一组值，开启自适应时为调整后的限制.
+    private int highPriorityReserved;
+    private int highPriorityMinScore;
+    private String blockedHeadNode; //排在最前但资源不足的请求.
+    private long blockedHeadSince;
+    private int usedPermits; //执行队列占用的资源总数，租约占用多个.
+    //以下按集群下标索引，未配置多集群时只有一个默认集群，使用全局限制与高优先级预留.
+    private final int clusterCount;
+    private final int allClusterMask;
+    private final int[] clusterLimits;
+    private final int[] clusterReserved;
+    private final int[] clusterPermits; //每个集群在执行队列中占用的资源数.
+    private final int[] clusterMovePermits; //本次调度已规划、尚未提交的资源数.
+    //以下按类型下标索引，新注册的类型在第一次使用时扩容.
+    private int[] typeLimits; //类型的并发限制，负数表示不限制.
+    private int[] typeRunning; //类型在执行队列中的请求数.
+    private int[] typePermits; //每个查询类型占用的资源数.
+    private long[] typeRunMills; //类型的平均执行时间，0表示还没有样本.
+    private final AdaptiveLimit adaptiveLimit; //未开启自适应时为null.
+    //以下为发布排队统计的状态，只在调度线程中使用.
+    private long statsPublishTime;
+    private long statsGrantCount;
+    private boolean statsBacklogged; //上次发布时是否有请求排队.
+    private double grantRate; //有请求排队时每秒下发的请求数，0表示还没有统计到.
+    private final boolean fastPathEnabled; //快速获取只用于单集群.
+    private final Set<String> fastPathFreeSlots; //已发布、尚未确认被取走的空闲资源节点.
+    private final Set<String> fastPathReservedSlots;
+    private final Set<String> fastPathReclaimingSlots; //正在删除的空闲资源节点，删除结果返回前仍然扣除.
+    private final Set<String> fastPathRemovedSlots; //创建结果返回之前已经收到删除事件的节点.
+    private int fastPathPublishing; //正在创建的空闲资源数.
+    private int fastPathInflight; //已被生产者取走、执行节点尚未到达的资源数.
+    private int fastPathGrantedAhead; //执行节点先于空闲资源的删除事件到达的资源数.
+    private long fastPathInflightSince;
+    private ChildrenWatch fastPathWatcher;
+    private final Lock lock; //同时lock两个队列、时间轮以及类型限制.
+    private final MetricsRegistry metricsRegistry;
     private final ScheduledExecutorService scheduledExecutor;
+    private final Counter grantCount;
+    private final Counter moveFailCount;
+    private final Counter registerExpireCount;
+    private final Counter consumeExpireCount;
+    private final Counter consumeReleaseCount;
+    private final Counter consumeReclaimCount;
+    private final Counter sessionReclaimCount;
+    private final Counter fastPathGrantCount;
+    private final Counter fastPathReclaimCount;
+    private final Histogram holdMills;
+    private final Histogram scheduleMicros;
 
-    public ConsumeService(CuratorFramework client) {
-        this.client = client;
-        this.producerRegisterQueue = new PriorityQueue<>();
-        this.producerConsumeQueue = new PriorityQueue<>();
+    public ConsumeService(CoordinationBackend backend) {
+        this(backend, JmxMetricsRegistry.getDefault());
+    }
+
+    public ConsumeService(CoordinationBackend backend, MetricsRegistry metricsRegistry) {
+        this.backend = backend;
+        this.producerRegisterQueue = new TenantFairQueues(NativeProperties.isConsumerFairEnabled(),
+            NativeProperties.getConsumerFairTenantWeights(),
+            NativeProperties.getConsumerFairDefaultWeight(),
+            NativeProperties.getConsumerAgingMills(), NativeProperties.isConsumerEdfEnabled());
+        this.producerConsumeQueue = new RegisterObjectHeap();
+        long now = System.currentTimeMillis();
+        this.registerExpiryWheel = new ExpiryTimerWheel(
+            NativeProperties.getConsumerExpireTickMills(), EXPIRY_WHEEL_SIZE, now);
+        this.consumeExpiryWheel = new ExpiryTimerWheel(
+            NativeProperties.getConsumerExpireTickMills(), EXPIRY_WHEEL_SIZE, now);
+        this.expiredNodeList = new ArrayList<>();
         this.lock = new ReentrantLock();
         scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
-        queryTypeLimiterMap = initQueryTypeLimitMap();
-        initialized = new AtomicInteger(2);
+        this.nodeNameHolder = new RegisterObject();
+        initialized = new AtomicInteger(3);
+        this.metricsRegistry = metricsRegistry;
+        this.typeLimits = new int[0];
+        this.typeRunning = new int[0];
+        this.limitCnt = NativeProperties.getPrestoLimitCnt();
+        this.highPriorityReserved = NativeProperties.getPrestoLimitHighPriorityReserved();
+        this.highPriorityMinScore = NativeProperties.getPrestoLimitHighPriorityMinScore();
+        //多集群时各集群的限制相互独立，不使用自适应的全局限制.
+        this.adaptiveLimit = NativeProperties.isPrestoLimitAdaptiveEnabled()
+            && NativeProperties.getPrestoClusterCount() == 0
+            ? new AdaptiveLimit(limitCnt, NativeProperties.getPrestoLimitAdaptiveMin(),
+            NativeProperties.getPrestoLimitAdaptiveMax(),
+            NativeProperties.getPrestoLimitAdaptiveTargetMills(),
+            NativeProperties.getPrestoLimitAdaptiveWindowMills(), now) : null;
+        if (adaptiveLimit != null) {
+            this.limitCnt = adaptiveLimit.getLimit();
+        }
+        this.clusterCount = Math.max(1, NativeProperties.getPrestoClusterCount());
+        this.allClusterMask = clusterCount == 32 ? -1 : (1 << clusterCount) - 1;
+        this.clusterLimits = new int[clusterCount];
+        this.clusterReserved = new int[clusterCount];
+        this.clusterPermits = new int[clusterCount];
+        this.clusterMovePermits = new int[clusterCount];
+        refreshClusterLimits();
+        this.typePermits = new int[0];
+        this.typeRunMills = new long[0];
+        this.fastPathEnabled = NativeProperties.isConsumerFastPathEnabled()
+            && NativeProperties.getPrestoClusterCount() == 0;
+        this.fastPathFreeSlots = new LinkedHashSet<>();
+        this.fastPathReservedSlots = new LinkedHashSet<>();
+        this.fastPathReclaimingSlots = new HashSet<>();
+        this.fastPathRemovedSlots = new HashSet<>();
+        this.grantCount = metricsRegistry.counter("consumer.grant");
+        this.moveFailCount = metricsRegistry.counter("consumer.move.fail");
+        this.registerExpireCount = metricsRegistry.counter("consumer.register.expire");
+        this.consumeExpireCount = metricsRegistry.counter("consumer.consume.expire");
+        this.consumeReleaseCount = metricsRegistry.counter("consumer.consume.release");
+        this.consumeReclaimCount = metricsRegistry.counter("consumer.consume.reclaim");
+        this.sessionReclaimCount = metricsRegistry.counter("consumer.session.reclaim");
+        this.fastPathGrantCount = metricsRegistry.counter("consumer.fastPath.grant");
+        this.fastPathReclaimCount = metricsRegistry.counter("consumer.fastPath.reclaim");
+        this.holdMills = metricsRegistry.histogram("consumer.hold.mills");
+        this.scheduleMicros = metricsRegistry.histogram("consumer.schedule.micros");
+        registerGauges();
+        growTypes(QueryType.count());
     }
 
     @Override
     public boolean start() {
-        registerPathWatcher = new PathChangeWatcher(client,
-            NativeProperties.getProducerRegisterPath(),
-            new ConsumerRegisterPathListener(this, initialized));
-        consumePathWatcher = new PathChangeWatcher(client,
-            NativeProperties.getProducerConsumePath(),
-            new ConsumerConsumePathListener(this, initialized));
+        //注册节点的调度属性在节点名称中，不缓存数据，避免每个注册节点一次getData.
+        registerPathWatcher = backend.watchChildren(NativeProperties.getProducerRegisterPath(),
+            new ConsumerRegisterPathListener(this, initialized), false);
+        consumePathWatcher = backend.watchChildren(NativeProperties.getProducerConsumePath(),
+            new ConsumerConsumePathListener(this, initialized), true);
+        //生产者是否开启会话模式都监听，执行节点名称中不带会话节点时不处理.
+        sessionPathWatcher = backend.watchChildren(NativeProperties.getProducerSessionPath(),
+            new ConsumerSessionPathListener(this, initialized), false);
+        if (fastPathEnabled) {
+            fastPathWatcher = backend.watchChildren(NativeProperties.getConsumerFastPathPath(),
+                new ConsumerFastPathListener(this), false);
+        }
         try {
+            if (fastPathWatcher != null) {
+                fastPathWatcher.start();
+            }
+            sessionPathWatcher.start(StartMode.POST_INITIALIZED_EVENT);
             registerPathWatcher.start(StartMode.POST_INITIALIZED_EVENT);
             consumePathWatcher.start(StartMode.POST_INITIALIZED_EVENT);
-            scheduledExecutor.scheduleAtFixedRate(this, 0, 5, TimeUnit.SECONDS);
+            scheduledExecutor.scheduleAtFixedRate(this, 0,
+                NativeProperties.getConsumerExpireTickMills(), TimeUnit.MILLISECONDS);
+            long publishMills = NativeProperties.getConsumerStatsPublishMills();
+            if (publishMills > 0) {
+                scheduledExecutor.scheduleAtFixedRate(this::publishStats, publishMills,
+                    publishMills, TimeUnit.MILLISECONDS);
+            }
             return true;
         } catch (Exception e) {
             LOGGER.error("start consume path listen fail!", e);
@@ -74,6 +220,14 @@ public class ConsumeService implements Switchable, Runnable {
     @Override
     public boolean stop() {
         canConsume = false;
+        if (fastPathEnabled) {
+            lock.lock();
+            try {
+                reclaimFastPathSlots();
+            } finally {
+                lock.unlock();
+            }
+        }
         if (scheduledExecutor != null) {
             scheduledExecutor.shutdown();
         }
@@ -83,184 +237,1008 @@ public class ConsumeService implements Switchable, Runnable {
         if (consumePathWatcher != null) {
             consumePathWatcher.stop();
         }
+        if (sessionPathWatcher != null) {
+            sessionPathWatcher.stop();
+        }
+        if (fastPathWatcher != null) {
+            fastPathWatcher.stop();
+        }
         return true;
     }
 
-    //定时检查消费队列的任务是否过期.
+    //推进过期时间轮，回收过期的执行资源并清理过期的注册节点.
     @Override
     public void run() {
         if (!canConsume) {
             return;
         }
+        List<String> missedNodes;
         lock.lock();
-        while (true) {
-            RegisterObject registerObject = producerConsumeQueue.peek();
-            if (System.currentTimeMillis() > registerObject.getExpireTime()) {
-                try {
-                    this.client.delete().forPath(
-                        NativeProperties.getProducerConsumePath() + "/" + registerObject.getNode());
-                    int limit = queryTypeLimiterMap.get(registerObject.getQueryType());
-                    if (limit >= 0) {
-                        queryTypeLimiterMap.put(registerObject.getQueryType(), ++limit);
+        try {
+            long now = System.currentTimeMillis();
+            int expiredCount = 0;
+            expiredNodeList.clear();
+            consumeExpiryWheel.advance(now, expiredNodeList);
+            for (String node : expiredNodeList) {
+                int slot = producerConsumeQueue.slotOf(node);
+                if (slot >= 0) {
+                    releaseConsumeSlot(slot);
+                    deleteConsumeNode(node);
+                    consumeExpireCount.increment();
+                    expiredCount++;
+                    if (adaptiveLimit != null) {
+                        adaptiveLimit.onFailure();
                     }
-                    producerConsumeQueue.poll();
-                } catch (Exception e) {
-                    LOGGER.error(String.format(
-                        "presto limiter timing job delete expire node fail! the error is [%s]",
-                        e.getMessage()));
-                    break;
                 }
-
-            } else {
-                break;
             }
+            missedNodes = findMissedConsumeNodes(now);
+            if ((fastPathInflight > 0 || fastPathGrantedAhead > 0)
+                && now - fastPathInflightSince > FAST_PATH_INFLIGHT_MILLS) {
+                fastPathInflight = 0;
+                fastPathGrantedAhead = 0;
+                expiredCount++;
+            }
+            expiredNodeList.clear();
+            registerExpiryWheel.advance(now, expiredNodeList);
+            for (String node : expiredNodeList) {
+                if (producerRegisterQueue.remove(node)) {
+                    deleteRegisterNode(node);
+                    registerExpireCount.increment();
+                    expiredCount++;
+                }
+            }
+            if (adaptiveLimit != null && adaptiveLimit.update(now)) {
+                limitCnt = adaptiveLimit.getLimit();
+                refreshClusterLimits();
+                expiredCount++; //限制增大时立即调度.
+            }
+            if (expiredCount > 0 || now - lastMoveTime >= MOVE_RETRY_INTERVAL_MILLS) {
+                moveNodesToConsumePath();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!missedNodes.isEmpty()) {
+            reclaimMissedConsumeNodes(missedNodes);
         }
-        moveNodesToConsumePath();
-        lock.unlock();
     }
 
+    /**
+     * 先规划本次调度可以下发的全部许可，再按批次合并成一个zk事务提交.
+     * 排在最前的请求资源不足时，在{@code consumer.bypass.maxMills}内跳过它调度后面资源足够的请求，
+     * 超过后停止调度，释放的资源只留给它，避免大请求一直等不到足够的资源.
+     * 多集群时请求分配到可用集群中能容纳它且负载最低的集群，可用的集群都已用满的请求直接跳过，不阻塞其他集群.
+     * 开启公平调度时请求的顺序先按租户的份额，再按优先级，见{@link TenantFairQueues}.
+     * 开启老化时按等待时间提升后的优先级排序，高优先级预留仍按请求本身的优先级判断.
+     * 只剩高优先级预留时只在各租户、各类型中选择本身优先级高的请求，排在前面的低优先级请求留在队列中.
+     * 开启最早截止优先时，同一优先级段内过期时间早的先下发. 过期时间是调用方等待许可的截止时间，
+     * 即开始执行的截止时间，请求在过期前都可以下发，不按执行时间预估能否完成.
+     * 开启快速获取时，调度前收回已发布的空闲资源，调度后队列为空时再发布.
+     */
     public void moveNodesToConsumePath() {
-        List<RegisterObject> unRunableObjectList = new ArrayList<>(); //由于类型limit限制无法执行的对象.
-        while (canConsume && producerConsumeQueue.size() < NativeProperties.getPrestoLimitCnt()
-            && producerRegisterQueue.size() > 0) {
-            RegisterObject registerObject = producerRegisterQueue.peek();
-            if (System.currentTimeMillis() > registerObject.getExpireTime()) {
-                deleteRegisterNode(registerObject);
-                producerRegisterQueue.poll();
-            } else {
-                if (registerObject.getPriority() >= NativeProperties
-                    .getPrestoLimitHighPriorityMinScore()
-                    || producerConsumeQueue.size()
-                    < NativeProperties.getPrestoLimitCnt() - NativeProperties
-                    .getPrestoLimitHighPriorityReserved()) {
-                    int limit = queryTypeLimiterMap.get(registerObject.getQueryType());
-                    if (limit != 0) {
-                        if (moveTopNode()) {
-                            if (limit > 0) {
-                                queryTypeLimiterMap.put(registerObject.getQueryType(), --limit);
-                            }
-                        } else {
-                            break;
-                        }
-                    } else {
-                        producerRegisterQueue.poll();
-                        unRunableObjectList.add(registerObject);
+        long startNanos = System.nanoTime();
+        lastMoveTime = System.currentTimeMillis();
+        refreshFastPathSlots();
+        List<RegisterObject> moveList = new ArrayList<>();
+        List<RegisterObject> consumeList = new ArrayList<>();
+        List<RegisterObject> skipList = new ArrayList<>();
+        int blockedCount = 0;
+        //类型并发已满的请求不在可执行队列中，不会出现在堆顶.
+        while (canConsume && producerRegisterQueue.size() > 0) {
+            //只剩高优先级预留时只选高优先级的请求，老化或公平调度排在前面的低优先级请求不阻塞它们.
+            int minPriority = hasAvailable(allClusterMask, true) ? 0 : highPriorityMinScore;
+            RegisterObject registerObject = producerRegisterQueue.peek(minPriority);
+            if (registerObject == null) {
+                if (minPriority == 0 || producerRegisterQueue.peek() == null) {
+                    break;
+                }
+                //各类型的队首都是老化排在前面的低优先级请求，跳过它们找到后面的高优先级请求.
+                markSaturated();
+                skipList.add(producerRegisterQueue.poll());
+                if (skipList.size() >= MAX_BYPASS_SCAN) {
+                    break;
+                }
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            if (now > registerObject.getExpireTime()) {
+                producerRegisterQueue.poll(minPriority);
+                registerExpiryWheel.cancel(registerObject.getNode());
+                deleteRegisterNode(registerObject.getNode());
+                registerExpireCount.increment();
+                continue;
+            }
+            if (!hasAvailable(allClusterMask, false)) {
+                markSaturated();
+                break;
+            }
+            boolean lowPriority = registerObject.getPriority() < highPriorityMinScore;
+            int permits = registerObject.getPermits();
+            int clusterMask = eligibleClusters(registerObject.getClusterMask());
+            int cluster = selectCluster(clusterMask, lowPriority, permits,
+                registerObject.isLease());
+            if (cluster < 0) {
+                if (hasAvailable(clusterMask, lowPriority)) {
+                    if (blockedCount == 0 && !isBlockedHead(registerObject.getNode())) {
+                        markSaturated();
+                        break;
                     }
-                } else {
+                    blockedCount++;
+                }
+                skipList.add(producerRegisterQueue.poll(minPriority));
+                if (skipList.size() >= MAX_BYPASS_SCAN) {
+                    break;
+                }
+                continue;
+            }
+            if (registerObject.getNode().equals(blockedHeadNode)) {
+                blockedHeadNode = null;
+            }
+            producerRegisterQueue.pollGranted(minPriority);
+            acquireTypeLimit(registerObject.getQueryType());
+            //下发的内容写在副本上，移动失败时原请求不变地放回队列.
+            RegisterObject consumeObject = new RegisterObject(registerObject);
+            if (registerObject.isLease()) {
+                //租约可以部分满足.
+                consumeObject.setPermits(Math.min(permits, availableOf(cluster, lowPriority)));
+            }
+            consumeObject.setCluster(NativeProperties.getPrestoClusterCount() > 0 ? cluster : -1);
+            moveList.add(registerObject);
+            consumeList.add(consumeObject);
+            clusterMovePermits[cluster] += consumeObject.getPermits();
+            if (moveList.size() >= NativeProperties.getConsumerMoveBatchSize()) {
+                boolean allMoved = moveNodes(moveList, consumeList);
+                moveList.clear();
+                consumeList.clear();
+                Arrays.fill(clusterMovePermits, 0);
+                if (!allMoved) {
                     break;
                 }
             }
         }
-        if (unRunableObjectList.size() > 0) {
-            producerRegisterQueue.addAll(unRunableObjectList);
+        if (moveList.size() > 0) {
+            moveNodes(moveList, consumeList);
+        }
+        Arrays.fill(clusterMovePermits, 0);
+        for (RegisterObject skipped : skipList) {
+            producerRegisterQueue.add(skipped);
+        }
+        refreshFastPathSlots();
+        scheduleMicros.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * 发布各优先级段的排队数与下发速度，供生产者在注册前预估排队时间.
+     * 下发速度只统计前后两次发布时都有请求排队的窗口，队列空闲时下发少不代表处理能力低.
+     * 锁内生成统计，锁外写zk；节点是临时节点，消费者退出后被删除.
+     */
+    private void publishStats() {
+        LimiterStats stats;
+        lock.lock();
+        try {
+            if (!canConsume) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long grants = grantCount.getCount();
+            boolean backlogged = !producerRegisterQueue.isEmpty();
+            if (statsBacklogged && backlogged && now > statsPublishTime) {
+                double windowRate = (grants - statsGrantCount) * 1000.0 / (now - statsPublishTime);
+                grantRate = grantRate == 0 ? windowRate
+                    : grantRate + (windowRate - grantRate) / GRANT_RATE_SMOOTHING;
+            }
+            statsPublishTime = now;
+            statsGrantCount = grants;
+            statsBacklogged = backlogged;
+            int[] bandDepths = new int[QueryTypeReadyQueues.PRIORITY_BAND_COUNT];
+            for (int band = 0; band < bandDepths.length; band++) {
+                bandDepths[band] = producerRegisterQueue.bandSize(band);
+            }
+            stats = new LimiterStats(now, grantRate, bandDepths);
+        } finally {
+            lock.unlock();
+        }
+        String path = NativeProperties.getConsumerStatsPath();
+        byte[] data = stats.encode().getBytes(StandardCharsets.UTF_8);
+        try {
+            try {
+                backend.setData(path, data);
+            } catch (KeeperException.NoNodeException e) {
+                backend.tryLock(path, data);
+            }
+        } catch (Exception e) {
+            LOGGER.error(String.format(
+                "presto limiter publish consumer stats to [%s] fail! the error is [%s]", path,
+                e.getMessage()));
+        }
+    }
+
+    /**
+     * 应用运行时修改的全局限制与类型限制，调高的资源立即参与调度，调低时不回收已下发的许可，
+     * 在它们释放之前不再下发新的许可.
+     */
+    public void applyLimits() {
+        lock.lock();
+        try {
+            limitCnt = NativeProperties.getPrestoLimitCnt();
+            if (adaptiveLimit != null) {
+                adaptiveLimit.reset(limitCnt); //运维修改的限制作为新的起点.
+                limitCnt = adaptiveLimit.getLimit();
+            }
+            highPriorityReserved = NativeProperties.getPrestoLimitHighPriorityReserved();
+            highPriorityMinScore = NativeProperties.getPrestoLimitHighPriorityMinScore();
+            refreshClusterLimits();
+            if (typeLimits.length < QueryType.count()) {
+                growTypes(QueryType.count());
+            }
+            for (int index = 0; index < typeLimits.length; index++) {
+                typeLimits[index] = QueryType.fromIndex(index).getLimit();
+                refreshTypeBlocked(index);
+            }
+            moveNodesToConsumePath();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void deleteConsumeNodeFromQueue(String node) {
+        lock.lock();
+        try {
+            int slot = this.producerConsumeQueue.slotOf(node);
+            if (slot >= 0) {
+                //移动时间等于过期时间减去有效期，续约只推迟时间轮中的定时，不修改堆中的过期时间.
+                long runMills = System.currentTimeMillis() - (producerConsumeQueue
+                    .expireTimeAt(slot) - NativeProperties.getProducerConsumeGrantMills());
+                holdMills.record(runMills);
+                //租约的持有时间是租约时长，不代表查询的执行时间.
+                if (!producerConsumeQueue.isLeaseAt(slot)) {
+                    recordRunMills(producerConsumeQueue.queryTypeAt(slot), runMills);
+                    if (adaptiveLimit != null) {
+                        adaptiveLimit.onRelease(runMills);
+                    }
+                }
+                consumeReleaseCount.increment();
+                releaseConsumeSlot(slot);
+            }
+            moveNodesToConsumePath();
+        } finally {
+            lock.unlock();
         }
     }
 
-    public void deleteConsumeNodeFromQueue(RegisterObject registerObject) {
+    /**
+     * 生产者主机租约结束时归还未使用的许可，更新执行节点占用的资源个数.
+     * 生产者心跳续约时推迟执行节点的过期时间.
+     */
+    public void updateConsumeNodeInQueue(RegisterObject registerObject) {
         lock.lock();
-        if (this.producerConsumeQueue.contains(registerObject)) {
-            this.producerConsumeQueue.remove(registerObject);
-            int limit = queryTypeLimiterMap.get(registerObject.getQueryType());
-            if (limit >= 0) {
-                queryTypeLimiterMap.put(registerObject.getQueryType(), ++limit);
+        try {
+            int slot = this.producerConsumeQueue.slotOf(registerObject.getNode());
+            if (slot >= 0) {
+                consumeExpiryWheel
+                    .schedule(registerObject.getNode(), registerObject.getExpireTime());
+            }
+            int permits = slot >= 0 ? this.producerConsumeQueue.permitsAt(slot) : 0;
+            if (slot >= 0 && permits != registerObject.getPermits()) {
+                usedPermits += registerObject.getPermits() - permits;
+                clusterPermits[clusterIndex(producerConsumeQueue.clusterAt(slot))] +=
+                    registerObject.getPermits() - permits;
+                typePermits[typeIndex(producerConsumeQueue.queryTypeAt(slot))] +=
+                    registerObject.getPermits() - permits;
+                this.producerConsumeQueue.setPermitsAt(slot, registerObject.getPermits());
+                moveNodesToConsumePath();
             }
+        } finally {
+            lock.unlock();
         }
-        moveNodesToConsumePath();
-        lock.unlock();
     }
 
     public void addConsumeNodeToQueue(RegisterObject registerObject) {
         lock.lock();
-        if (!this.producerConsumeQueue.contains(registerObject)) {
-            int limit = queryTypeLimiterMap.get(registerObject.getQueryType());
-            if (limit > 0) {
-                this.producerConsumeQueue.add(registerObject);
-                queryTypeLimiterMap.put(registerObject.getQueryType(), --limit);
-            } else if (limit == 0) {
-                deleteConsumeNode(registerObject);
-                LOGGER.error(
-                    "unexpected error, the type limiter is zero, but add node to consume path also");
-            } else {
-                this.producerConsumeQueue.add(registerObject);
+        try {
+            //限制可能在运行时调低，已经下发的许可照常计入，执行结束后自然回落到新的限制内.
+            if (!this.producerConsumeQueue.contains(registerObject.getNode())) {
+                holdTypeLimit(registerObject.getQueryType());
+                addToConsumeQueue(registerObject);
+                if (fastPathEnabled
+                    && RegisterObjectCodec.decodeNodeName(registerObject.getNode(), nodeNameHolder)
+                    && nodeNameHolder.isFastPath()) {
+                    onFastPathGranted(registerObject.getPermits());
+                }
             }
+        } finally {
+            lock.unlock();
         }
-        lock.unlock();
     }
 
     public void addRegisterNodeToQueue(RegisterObject registerObject) {
         lock.lock();
-        if (!this.producerRegisterQueue.contains(registerObject)) {
-            this.producerRegisterQueue.add(registerObject);
+        try {
+            //监听器复用解码对象，每个注册节点都从收到时开始计算等待时间；
+            //调度中重新放回队列的请求直接加入队列，保留原来的时间继续老化.
+            registerObject.setRegisterTime(System.currentTimeMillis());
+            if (this.producerRegisterQueue.add(registerObject)) {
+                registerExpiryWheel
+                    .schedule(registerObject.getNode(), registerObject.getExpireTime());
+            }
+            moveNodesToConsumePath();
+        } finally {
+            lock.unlock();
         }
-        moveNodesToConsumePath();
-        lock.unlock();
     }
 
-    public void deleteRegisterNodeFromQueue(RegisterObject registerObject) {
+    public void deleteRegisterNodeFromQueue(String node) {
         lock.lock();
-        if (this.producerRegisterQueue.contains(registerObject)) {
-            this.producerRegisterQueue.remove(registerObject);
+        try {
+            this.producerRegisterQueue.remove(node);
+            registerExpiryWheel.cancel(node);
+        } finally {
+            lock.unlock();
         }
-        lock.unlock();
     }
 
     public void setCanConsume(boolean canConsume) {
+        if (canConsume && fastPathEnabled) {
+            //在开始消费之前清理，不会删除本机刚开始发布的空闲资源.
+            deleteStaleFastPathSlots();
+        }
         this.canConsume = canConsume;
+        if (canConsume) {
+            if (fastPathEnabled) {
+                lock.lock();
+                try {
+                    moveNodesToConsumePath();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            //消费者切换期间会话过期的生产者不会再产生删除事件.
+            reclaimDeadOwnerNodes();
+        }
+    }
+
+    /**
+     * 回收会话节点已不存在的生产者占用的执行节点，在会话节点删除时以及开始消费时调用.
+     * 注册节点是临时节点，zk在会话过期时已经删除.
+     */
+    public void reclaimDeadOwnerNodes() {
+        lock.lock();
+        try {
+            if (!canConsume || sessionPathWatcher == null) {
+                return;
+            }
+            expiredNodeList.clear();
+            for (int i = 0; i < producerConsumeQueue.size(); i++) {
+                String node = producerConsumeQueue.nodeAt(producerConsumeQueue.slotAt(i));
+                if (RegisterObjectCodec.decodeNodeName(node, nodeNameHolder)
+                    && nodeNameHolder.getOwner() != null
+                    && !sessionPathWatcher.containsNode(nodeNameHolder.getOwner())) {
+                    expiredNodeList.add(node);
+                }
+            }
+            for (String node : expiredNodeList) {
+                releaseConsumeSlot(producerConsumeQueue.slotOf(node));
+                deleteConsumeNode(node);
+                sessionReclaimCount.increment();
+            }
+            if (!expiredNodeList.isEmpty()) {
+                LOGGER.error(String.format(
+                    "presto limiter reclaim [%d] consume nodes of expired producer sessions",
+                    expiredNodeList.size()));
+                moveNodesToConsumePath();
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private Map<QueryType, Integer> initQueryTypeLimitMap() {
-        Map<QueryType, Integer> map = new HashMap<>();
-        for (QueryType queryType : QueryType.values()) {
-            map.put(queryType, queryType.getLimit());
+    //瞬时值不加锁读取，可能与队列的当前状态有短暂的偏差.
+    private void registerGauges() {
+        metricsRegistry.gauge("consumer.register.depth", producerRegisterQueue::size);
+        metricsRegistry.gauge("consumer.register.tenants", producerRegisterQueue::tenantCount);
+        metricsRegistry.gauge("consumer.consume.permits", () -> usedPermits);
+        metricsRegistry.gauge("consumer.limit", () -> limitCnt);
+        metricsRegistry.gauge("consumer.fastPath.slots", this::fastPathSlotCount);
+        for (int band = 0; band < QueryTypeReadyQueues.PRIORITY_BAND_COUNT; band++) {
+            int index = band;
+            metricsRegistry.gauge(
+                String.format("consumer.register.depth.priority.%d-%d", band * 10 + 1,
+                    band * 10 + 10), () -> producerRegisterQueue.bandSize(index));
+        }
+        String[] clusters = NativeProperties.getPrestoClusters();
+        for (int i = 0; i < clusters.length; i++) {
+            int cluster = i;
+            metricsRegistry.gauge("consumer.consume.permits.cluster." + clusters[i],
+                () -> clusterPermits[cluster]);
+            metricsRegistry.gauge("consumer.limit.cluster." + clusters[i],
+                () -> clusterLimits[cluster]);
         }
-        return map;
     }
 
-    private void deleteRegisterNode(RegisterObject registerObject) {
+    //未配置多集群时默认集群使用全局限制，开启自适应时为调整后的限制.
+    private void refreshClusterLimits() {
+        if (NativeProperties.getPrestoClusterCount() == 0) {
+            clusterLimits[0] = limitCnt;
+            clusterReserved[0] = highPriorityReserved;
+            return;
+        }
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            clusterLimits[cluster] = NativeProperties.getPrestoClusterLimit(cluster);
+            clusterReserved[cluster] = NativeProperties.getPrestoClusterReserved(cluster);
+        }
+    }
+
+    //请求可以使用的集群，未指定或者指定的集群都不存在时可以使用任意集群.
+    private int eligibleClusters(int clusterMask) {
+        int eligible = clusterMask & allClusterMask;
+        return eligible != 0 ? eligible : allClusterMask;
+    }
+
+    //执行节点所属集群的下标，未分配集群的执行节点(单集群模式或升级前下发)计入第一个集群.
+    private int clusterIndex(int cluster) {
+        return cluster >= 0 && cluster < clusterCount ? cluster : 0;
+    }
+
+    //发布的空闲资源只在单集群时存在，计入默认集群.
+    private int availableOf(int cluster, boolean lowPriority) {
+        return clusterLimits[cluster] - (lowPriority ? clusterReserved[cluster] : 0)
+            - clusterPermits[cluster] - clusterMovePermits[cluster] - fastPathSlotCount();
+    }
+
+    private boolean hasAvailable(int clusterMask, boolean lowPriority) {
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            if ((clusterMask & (1 << cluster)) != 0 && availableOf(cluster, lowPriority) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在可用的集群中选择能容纳请求且负载(占用资源与限制之比)最低的集群，租约有可用资源即可.
+     * 有集群的限制不小于请求的资源个数时只在这些集群中选择.
+     *
+     * @return 都不能容纳时返回-1.
+     */
+    private int selectCluster(int clusterMask, boolean lowPriority, int permits, boolean lease) {
+        boolean fits = fitsAnyCluster(clusterMask, lowPriority, permits);
+        int selected = -1;
+        long selectedLoad = 0;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            int available = availableOf(cluster, lowPriority);
+            int capacity = capacityOf(cluster, lowPriority);
+            //限制调低到小于权重时，请求等到可用的资源全部空闲后单独执行，不会永远等待.
+            int required = fits ? permits : Math.min(permits, capacity);
+            if ((clusterMask & (1 << cluster)) == 0 || available <= 0
+                || (!lease && required > available)) {
+                continue;
+            }
+            long load = clusterPermits[cluster] + clusterMovePermits[cluster];
+            if (selected < 0
+                || load * clusterLimits[selected] < selectedLoad * clusterLimits[cluster]) {
+                selected = cluster;
+                selectedLoad = load;
+            }
+        }
+        return selected;
+    }
+
+    private int capacityOf(int cluster, boolean lowPriority) {
+        return clusterLimits[cluster] - (lowPriority ? clusterReserved[cluster] : 0);
+    }
+
+    private boolean fitsAnyCluster(int clusterMask, boolean lowPriority, int permits) {
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            if ((clusterMask & (1 << cluster)) != 0 && capacityOf(cluster, lowPriority) >= permits) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int typeIndex(QueryType queryType) {
+        int index = queryType.getIndex();
+        if (index >= typeLimits.length) {
+            growTypes(QueryType.count());
+        }
+        return index;
+    }
+
+    //按注册时的限制初始化新类型，并注册类型的指标.
+    private void growTypes(int typeCount) {
+        int oldCount = typeLimits.length;
+        int[] newTypePermits = Arrays.copyOf(typePermits, typeCount);
+        typeLimits = Arrays.copyOf(typeLimits, typeCount);
+        typeRunning = Arrays.copyOf(typeRunning, typeCount);
+        typeRunMills = Arrays.copyOf(typeRunMills, typeCount);
+        typePermits = newTypePermits;
+        for (int index = oldCount; index < typeCount; index++) {
+            QueryType queryType = QueryType.fromIndex(index);
+            typeLimits[index] = queryType.getLimit();
+            refreshTypeBlocked(index);
+            metricsRegistry.gauge("consumer.register.depth." + queryType,
+                () -> producerRegisterQueue.size(queryType));
+            int typeIndex = index;
+            metricsRegistry.gauge("consumer.consume.permits." + queryType,
+                () -> typePermits[typeIndex]);
+            metricsRegistry.gauge("consumer.run.mills." + queryType,
+                () -> typeRunMills[typeIndex]);
+        }
+    }
+
+    //按指数平滑更新类型的平均执行时间，第一个样本直接作为平均值.
+    private void recordRunMills(QueryType queryType, long runMills) {
+        int index = typeIndex(queryType);
+        long average = typeRunMills[index];
+        typeRunMills[index] = Math.max(1, average == 0 ? runMills
+            : average + (runMills - average) / RUN_MILLS_SMOOTHING);
+    }
+
+    /**
+     * 执行节点在本地缓存读到之前就被生产者删除时，缓存不会产生删除事件，资源要等到过期才能回收.
+     * 在锁内找出移动已经超过一段时间但缓存中仍没有的执行节点，由{@link #reclaimMissedConsumeNodes}核对.
+     */
+    private List<String> findMissedConsumeNodes(long now) {
+        if (consumePathWatcher == null) {
+            return Collections.emptyList();
+        }
+        long movedBefore =
+            now - RECLAIM_GRACE_MILLS + NativeProperties.getProducerConsumeGrantMills();
+        List<String> missedNodes = null;
+        for (int i = 0; i < producerConsumeQueue.size(); i++) {
+            int slot = producerConsumeQueue.slotAt(i);
+            if (producerConsumeQueue.expireTimeAt(slot) < movedBefore
+                && !consumePathWatcher.containsNode(producerConsumeQueue.nodeAt(slot))) {
+                if (missedNodes == null) {
+                    missedNodes = new ArrayList<>();
+                }
+                missedNodes.add(producerConsumeQueue.nodeAt(slot));
+            }
+        }
+        return missedNodes == null ? Collections.<String>emptyList() : missedNodes;
+    }
+
+    /**
+     * 在锁外用一次getChildren确认执行节点已不在zk上，再加锁回收，不阻塞调度.
+     * 节点名称不会重复，锁外确认已删除的节点不会再出现.
+     */
+    private void reclaimMissedConsumeNodes(List<String> missedNodes) {
+        Set<String> consumeNodes;
         try {
-            this.client.delete().forPath(
-                NativeProperties.getProducerRegisterPath() + "/" + registerObject.getNode());
+            consumeNodes = new HashSet<>(
+                backend.getChildren(NativeProperties.getProducerConsumePath()));
         } catch (Exception e) {
             LOGGER.error(String.format(
-                "presto limiter delete producer register path expire node fail! the error is [%s]",
+                "presto limiter check [%d] missed consume nodes fail! the error is [%s]",
+                missedNodes.size(), e.getMessage()));
+            return;
+        }
+        lock.lock();
+        try {
+            int reclaimedCount = 0;
+            for (String node : missedNodes) {
+                int slot = producerConsumeQueue.slotOf(node);
+                if (slot >= 0 && !consumeNodes.contains(node)) {
+                    releaseConsumeSlot(slot);
+                    consumeReclaimCount.increment();
+                    reclaimedCount++;
+                }
+            }
+            if (reclaimedCount > 0) {
+                moveNodesToConsumePath();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //已发布、正在创建或删除的空闲资源与被取走、执行节点尚未到达的资源都不能再下发.
+    private int fastPathSlotCount() {
+        return fastPathFreeSlots.size() + fastPathReservedSlots.size()
+            + fastPathReclaimingSlots.size() + fastPathPublishing + fastPathInflight;
+    }
+
+    /**
+     * 有请求排队时收回全部空闲资源，队列为空时把空闲资源发布为快速获取的节点.
+     * 非预留的空闲资源加上已占用的资源不超过限制减去预留，全部空闲资源加上已占用的资源不超过限制，
+     * 所以无论生产者按什么顺序取走，低优先级的请求都不会占用预留，总数也不会超过限制.
+     * 限制调低时先全部收回再按新的限制发布.
+     * 锁内只修改计数，zk的创建和删除在锁外异步完成，结果返回前按最坏情况扣除.
+     */
+    private void refreshFastPathSlots() {
+        if (!fastPathEnabled || !canConsume) {
+            return;
+        }
+        if (!producerRegisterQueue.isEmpty()) {
+            reclaimFastPathSlots();
+            return;
+        }
+        //上一次的创建或删除还没有结果，结果返回后重新调度.
+        if (fastPathPublishing > 0 || !fastPathReclaimingSlots.isEmpty()) {
+            return;
+        }
+        int published = fastPathFreeSlots.size() + fastPathReservedSlots.size();
+        int used = clusterPermits[0] + fastPathInflight;
+        if (fastPathFreeSlots.size() > clusterLimits[0] - clusterReserved[0] - used
+            || published > clusterLimits[0] - used) {
+            reclaimFastPathSlots();
+            return;
+        }
+        int totalTarget = Math.max(0, clusterLimits[0] - used);
+        int freeCount = Math.max(0, Math.min(
+            clusterLimits[0] - clusterReserved[0] - used - fastPathFreeSlots.size(),
+            totalTarget - published));
+        int reservedCount = totalTarget - published - freeCount;
+        if (freeCount + reservedCount > 0) {
+            fastPathPublishing = freeCount + reservedCount;
+            executeLater(() -> publishFastPathSlots(freeCount, reservedCount));
+        }
+    }
+
+    /**
+     * 在调度线程中锁外用一个事务创建全部空闲资源节点.
+     * 创建失败时不重试，等待下一次调度.
+     */
+    private void publishFastPathSlots(int freeCount, int reservedCount) {
+        List<String> prefixes = new ArrayList<>(freeCount + reservedCount);
+        for (int i = 0; i < freeCount; i++) {
+            prefixes.add(FastPathSlots.FREE_PREFIX);
+        }
+        for (int i = 0; i < reservedCount; i++) {
+            prefixes.add(FastPathSlots.RESERVED_PREFIX);
+        }
+        List<String> slots = Collections.emptyList();
+        if (canConsume) {
+            try {
+                slots = backend.createSequential(NativeProperties.getConsumerFastPathPath(),
+                    prefixes, EMPTY_DATA, true);
+            } catch (Exception e) {
+                LOGGER.error(String.format(
+                    "presto limiter publish fast path slots fail! the error is [%s]",
+                    e.getMessage()));
+            }
+        }
+        lock.lock();
+        try {
+            fastPathPublishing = 0;
+            for (String slot : slots) {
+                if (fastPathRemovedSlots.remove(slot)) {
+                    onFastPathSlotTaken();
+                } else if (FastPathSlots.isReserved(slot)) {
+                    fastPathReservedSlots.add(slot);
+                } else {
+                    fastPathFreeSlots.add(slot);
+                }
+            }
+            fastPathRemovedSlots.clear();
+            if (!canConsume) {
+                reclaimFastPathSlots();
+            } else if (!slots.isEmpty()) {
+                //发布期间到达的请求或者释放的资源.
+                moveNodesToConsumePath();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 异步删除已发布的空闲资源，结果在回调中处理.
+     */
+    private void reclaimFastPathSlots() {
+        reclaimFastPathSlots(fastPathFreeSlots);
+        reclaimFastPathSlots(fastPathReservedSlots);
+    }
+
+    private void reclaimFastPathSlots(Set<String> slots) {
+        if (slots.isEmpty()) {
+            return;
+        }
+        List<String> reclaimList = new ArrayList<>(slots);
+        slots.clear();
+        fastPathReclaimingSlots.addAll(reclaimList);
+        for (String slot : reclaimList) {
+            backend.deleteAsync(NativeProperties.getConsumerFastPathPath() + "/" + slot)
+                .whenComplete((result, e) -> onFastPathSlotReclaimed(slot, e));
+        }
+    }
+
+    /**
+     * 空闲资源的删除结果：节点已不存在说明被生产者取走，在执行节点到达之前仍然扣除；
+     * 其他错误时结果未知，按仍然发布处理，下一次调度时重试.
+     * 全部删除结果返回后重新调度，不在回调中直接调度，内存实现的回调在删除的调用中同步执行.
+     */
+    private void onFastPathSlotReclaimed(String slot, Throwable e) {
+        lock.lock();
+        try {
+            if (!fastPathReclaimingSlots.remove(slot)) {
+                return;
+            }
+            if (e == null) {
+                fastPathReclaimCount.increment();
+            } else if (e instanceof KeeperException.NoNodeException) {
+                onFastPathSlotTaken();
+            } else {
+                LOGGER.error(String.format(
+                    "presto limiter reclaim fast path slot [%s] fail! the error is [%s]", slot,
+                    e.getMessage()));
+                (FastPathSlots.isReserved(slot) ? fastPathReservedSlots : fastPathFreeSlots)
+                    .add(slot);
+            }
+            if (fastPathReclaimingSlots.isEmpty() && canConsume) {
+                executeLater(() -> {
+                    lock.lock();
+                    try {
+                        moveNodesToConsumePath();
+                    } finally {
+                        lock.unlock();
+                    }
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 空闲资源节点被删除，不是本机正在删除的节点说明被生产者取走.
+     * 正在创建时收到的删除事件可能早于创建的结果，先记下，创建结果返回时核对.
+     */
+    public void onFastPathSlotRemoved(String slot) {
+        lock.lock();
+        try {
+            if (fastPathFreeSlots.remove(slot) || fastPathReservedSlots.remove(slot)) {
+                onFastPathSlotTaken();
+            } else if (fastPathPublishing > 0) {
+                fastPathRemovedSlots.add(slot);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 快速获取的执行节点到达，先抵消已经确认被取走的资源.
+     * 空闲资源和执行节点是两个监听，事件的先后不确定，执行节点先到达的部分在删除事件到达时抵消.
+     */
+    private void onFastPathGranted(int permits) {
+        fastPathGrantCount.increment();
+        int matched = Math.min(fastPathInflight, permits);
+        fastPathInflight -= matched;
+        if (matched < permits) {
+            fastPathGrantedAhead += permits - matched;
+            fastPathInflightSince = System.currentTimeMillis();
+        }
+    }
+
+    private void onFastPathSlotTaken() {
+        if (fastPathGrantedAhead > 0) {
+            fastPathGrantedAhead--;
+        } else {
+            fastPathInflight++;
+            fastPathInflightSince = System.currentTimeMillis();
+        }
+    }
+
+    //在调度线程中执行，停止后忽略.
+    private void executeLater(Runnable task) {
+        try {
+            scheduledExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            fastPathPublishing = 0;
+        }
+    }
+
+    /**
+     * 删除之前的消费者发布的空闲资源，它们没有计入本机的执行队列.
+     * 之前的消费者会话过期时临时节点已被zk删除，主动让出锁时需要这里清理.
+     * 锁内只取本机发布的节点，读取和删除在锁外完成.
+     */
+    private void deleteStaleFastPathSlots() {
+        Set<String> ownSlots = new HashSet<>();
+        lock.lock();
+        try {
+            ownSlots.addAll(fastPathFreeSlots);
+            ownSlots.addAll(fastPathReservedSlots);
+            ownSlots.addAll(fastPathReclaimingSlots);
+        } finally {
+            lock.unlock();
+        }
+        String path = NativeProperties.getConsumerFastPathPath();
+        try {
+            for (String slot : backend.getChildren(path)) {
+                if (!ownSlots.contains(slot)) {
+                    try {
+                        backend.delete(path + "/" + slot);
+                    } catch (KeeperException.NoNodeException e) {
+                        //已被取走.
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error(String.format(
+                "presto limiter delete stale fast path slots fail! the error is [%s]",
                 e.getMessage()));
         }
     }
 
-    private void deleteConsumeNode(RegisterObject registerObject) {
+    private void markSaturated() {
+        if (adaptiveLimit != null) {
+            adaptiveLimit.onSaturated();
+        }
+    }
+
+    /**
+     * 记录资源不足的队首请求，更靠前的请求插队时仍然按最早被阻塞的请求计时.
+     *
+     * @return 仍在可以跳过它的时间内返回true.
+     */
+    private boolean isBlockedHead(String node) {
+        long now = System.currentTimeMillis();
+        if (!node.equals(blockedHeadNode)
+            && (blockedHeadNode == null || !producerRegisterQueue.contains(blockedHeadNode))) {
+            blockedHeadNode = node;
+            blockedHeadSince = now;
+        }
+        return now - blockedHeadSince < NativeProperties.getConsumerBypassMaxMills();
+    }
+
+    private void addToConsumeQueue(RegisterObject consumeObject) {
+        if (this.producerConsumeQueue.add(consumeObject)) {
+            usedPermits += consumeObject.getPermits();
+            clusterPermits[clusterIndex(consumeObject.getCluster())] += consumeObject.getPermits();
+            typePermits[typeIndex(consumeObject.getQueryType())] += consumeObject.getPermits();
+            consumeExpiryWheel.schedule(consumeObject.getNode(), consumeObject.getExpireTime());
+        }
+    }
+
+    //从执行队列移除并归还类型限制.
+    private void releaseConsumeSlot(int slot) {
+        QueryType queryType = this.producerConsumeQueue.queryTypeAt(slot);
+        consumeExpiryWheel.cancel(this.producerConsumeQueue.nodeAt(slot));
+        usedPermits -= this.producerConsumeQueue.permitsAt(slot);
+        clusterPermits[clusterIndex(this.producerConsumeQueue.clusterAt(slot))] -=
+            this.producerConsumeQueue.permitsAt(slot);
+        typePermits[typeIndex(queryType)] -= this.producerConsumeQueue.permitsAt(slot);
+        this.producerConsumeQueue.removeSlot(slot);
+        releaseTypeLimit(queryType);
+    }
+
+    /**
+     * 占用类型限制，限制为负数表示不限制，达到限制时该类型退出调度.
+     *
+     * @return 类型已经达到限制时返回false.
+     */
+    private boolean acquireTypeLimit(QueryType queryType) {
+        int index = typeIndex(queryType);
+        if (typeLimits[index] >= 0 && typeRunning[index] >= typeLimits[index]) {
+            return false;
+        }
+        holdTypeLimit(queryType);
+        return true;
+    }
+
+    private void holdTypeLimit(QueryType queryType) {
+        int index = typeIndex(queryType);
+        typeRunning[index]++;
+        refreshTypeBlocked(index);
+    }
+
+    private void releaseTypeLimit(QueryType queryType) {
+        int index = typeIndex(queryType);
+        typeRunning[index]--;
+        refreshTypeBlocked(index);
+    }
+
+    private void refreshTypeBlocked(int index) {
+        producerRegisterQueue.setBlocked(QueryType.fromIndex(index),
+            typeLimits[index] >= 0 && typeRunning[index] >= typeLimits[index]);
+    }
+
+    /**
+     * 读取名称中不带调度属性的注册节点的数据，节点已被删除或读取失败时返回null.
+     */
+    public byte[] readRegisterNodeData(String node) {
         try {
-            this.client.delete().forPath(
-                NativeProperties.getProducerConsumePath() + "/" + registerObject.getNode());
+            return backend.getData(NativeProperties.getProducerRegisterPath() + "/" + node);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
         } catch (Exception e) {
             LOGGER.error(String.format(
-                "presto limiter delete producer consume path expire node fail! the error is [%s]",
+                "presto limiter read producer register node [%s] fail! the error is [%s]", node,
                 e.getMessage()));
+            return null;
         }
     }
 
+    //异步删除，不在锁内等待zk的响应，节点的删除事件到达时队列中已经没有该节点.
+    private void deleteRegisterNode(String node) {
+        deleteNodeInBackground(NativeProperties.getProducerRegisterPath() + "/" + node,
+            "presto limiter delete producer register path expire node fail! the error is [%s]");
+    }
+
+    private void deleteConsumeNode(String node) {
+        deleteNodeInBackground(NativeProperties.getProducerConsumePath() + "/" + node,
+            "presto limiter delete producer consume path expire node fail! the error is [%s]");
+    }
+
+    private void deleteNodeInBackground(String path, String errorFormat) {
+        this.backend.deleteAsync(path).whenComplete((result, throwable) -> {
+            if (throwable != null && !(throwable instanceof KeeperException.NoNodeException)) {
+                LOGGER.error(String.format(errorFormat, throwable.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * 将已经出队并扣减了类型限制的节点移动到执行目录，所有移动合并在一个事务里提交.
+     * 事务失败时逐个移动，移动失败的节点放回注册队列并归还类型限制，等待下一次.
+     *
+     * @param moveList 出队的原请求，移动失败时放回注册队列.
+     * @param consumeObjectList 与原请求一一对应的执行节点内容，包括实际下发的资源数与集群.
+     * @return 是否全部移动成功.
+     */
+    private boolean moveNodes(List<RegisterObject> moveList,
+        List<RegisterObject> consumeObjectList) {
+        long expireTime =
+            System.currentTimeMillis() + NativeProperties.getProducerConsumeGrantMills();
+        for (RegisterObject consumeObject : consumeObjectList) {
+            consumeObject.setExpireTime(expireTime);
+        }
+        if (canConsume && consumeObjectList.size() > 1) {
+            try {
+                List<NodeMove> moves = new ArrayList<>(consumeObjectList.size());
+                for (RegisterObject consumeObject : consumeObjectList) {
+                    moves.add(toNodeMove(consumeObject));
+                }
+                this.backend.move(moves);
+                for (RegisterObject consumeObject : consumeObjectList) {
+                    registerExpiryWheel.cancel(consumeObject.getNode());
+                    addToConsumeQueue(consumeObject);
+                }
+                grantCount.add(consumeObjectList.size());
+                return true;
+            } catch (Exception e) {
+                LOGGER.error(String.format(
+                    "presto limiter batch move [%d] nodes fail, fall back to move one by one! "
+                        + "the error is [%s]", consumeObjectList.size(), e.getMessage()));
+            }
+        }
+        boolean allMoved = true;
+        for (int i = 0; i < moveList.size(); i++) {
+            RegisterObject registerObject = moveList.get(i);
+            if (!allMoved || !moveNode(consumeObjectList.get(i))) {
+                allMoved = false;
+                moveFailCount.increment();
+                releaseTypeLimit(registerObject.getQueryType());
+                this.producerRegisterQueue.add(registerObject);
+            }
+        }
+        return allMoved;
+    }
+
     //如果失败，等待下一次.
-    private boolean moveTopNode() {
+    private boolean moveNode(RegisterObject consumeObject) {
         try {
-            RegisterObject registerObject = new RegisterObject(producerRegisterQueue.peek());
-            registerObject.setExpireTime(
-                System.currentTimeMillis() + NativeProperties.getProducerConsumeExpireMills());
             if (canConsume) {
-                this.client.inTransaction().delete().forPath(
-                    NativeProperties.getProducerRegisterPath() + "/" + registerObject.getNode())
-                    .and()
-                    .create()
-                    .forPath(
-                        NativeProperties.getProducerConsumePath() + "/" + registerObject.getNode(),
-                        JSON.toJSONBytes(registerObject)).and().commit();
+                this.backend.move(Collections.singletonList(toNodeMove(consumeObject)));
             } else {
                 return false;
             }
-            this.producerRegisterQueue.poll();
-            this.producerConsumeQueue.add(registerObject);
+            registerExpiryWheel.cancel(consumeObject.getNode());
+            addToConsumeQueue(consumeObject);
+            grantCount.increment();
             return true;
         } catch (Exception e) {
             LOGGER.error("presto limiter move node from register path to consume path fail", e);
             return false;
         }
     }
+
+    private NodeMove toNodeMove(RegisterObject consumeObject) {
+        return new NodeMove(
+            NativeProperties.getProducerRegisterPath() + "/" + consumeObject.getNode(),
+            NativeProperties.getProducerConsumePath() + "/" + consumeObject.getNode(),
+            RegisterObjectCodec.encode(consumeObject));
+    }
 }
@@ -0,0 +1,132 @@
+package com.lc.prestolimiter.consumer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按过期时间组织节点的哈希时间轮，添加、取消、到期都是O(1).
+ * 每个格子是一个双向链表，超过一圈的定时通过剩余圈数区分，时间轮由调用者调用{@link #advance}推进.
+ * 非线程安全，由{@link ConsumeService}的锁保护.
+ */
+public class ExpiryTimerWheel {
+
+    private final long tickMills;
+    private final Entry[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final Map<String, Entry> entryMap;
+    private long currentTick; //下一个要处理的格子.
+
+    public ExpiryTimerWheel(long tickMills, int wheelSize, long startTime) {
+        assert tickMills > 0 && wheelSize > 0;
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.tickMills = tickMills;
+        this.wheel = new Entry[Math.max(size, 1)];
+        this.mask = wheel.length - 1;
+        this.startTime = startTime;
+        this.entryMap = new HashMap<>();
+    }
+
+    public int size() {
+        return entryMap.size();
+    }
+
+    public boolean contains(String node) {
+        return entryMap.containsKey(node);
+    }
+
+    /**
+     * 添加节点的过期定时，节点已存在时替换原有的定时.
+     */
+    public void schedule(String node, long expireTime) {
+        Entry entry = entryMap.get(node);
+        if (entry != null) {
+            if (entry.expireTime == expireTime) {
+                return;
+            }
+            unlink(entry);
+        } else {
+            entry = new Entry(node);
+            entryMap.put(node, entry);
+        }
+        entry.expireTime = expireTime;
+        long tick = Math.max((expireTime - startTime + tickMills - 1) / tickMills, currentTick);
+        entry.remainingRounds = (tick - currentTick) / wheel.length;
+        link(entry, (int) (tick & mask));
+    }
+
+    public boolean cancel(String node) {
+        Entry entry = entryMap.remove(node);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * 推进时间轮到{@code now}，到期的节点放入{@code expiredNodes}并从时间轮移除.
+     *
+     * @return 到期节点的个数.
+     */
+    public int advance(long now, List<String> expiredNodes) {
+        int expiredCount = 0;
+        long targetTick = (now - startTime) / tickMills;
+        while (currentTick <= targetTick) {
+            int index = (int) (currentTick & mask);
+            Entry entry = wheel[index];
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.remainingRounds <= 0) {
+                    unlink(entry);
+                    entryMap.remove(entry.node);
+                    expiredNodes.add(entry.node);
+                    expiredCount++;
+                } else {
+                    entry.remainingRounds--;
+                }
+                entry = next;
+            }
+            currentTick++;
+        }
+        return expiredCount;
+    }
+
+    private void link(Entry entry, int index) {
+        entry.bucket = index;
+        entry.prev = null;
+        entry.next = wheel[index];
+        if (wheel[index] != null) {
+            wheel[index].prev = entry;
+        }
+        wheel[index] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            wheel[entry.bucket] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private static class Entry {
+
+        private final String node;
+        private long expireTime;
+        private long remainingRounds;
+        private int bucket;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(String node) {
+            this.node = node;
+        }
+    }
+}
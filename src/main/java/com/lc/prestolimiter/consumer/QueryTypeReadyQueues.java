@@ -0,0 +1,298 @@
+package com.lc.prestolimiter.consumer;
+
+import com.lc.prestolimiter.common.LimiterStats;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import java.util.Arrays;
+
+/**
+ * 按查询类型拆分的注册队列，每个类型一个{@link RegisterObjectHeap}.
+ * 类型队列非空且未被阻塞(类型并发已满)时，其堆顶参与一个以类型为元素的小根堆的合并，
+ * 调度时只看可执行类型中排在最前面的请求，已满的类型整体退出合并，不再反复出队入队.
+ * 类型按下标索引，运行时新注册的类型在第一次使用时扩容.
+ * 非线程安全，由{@link ConsumeService}的锁保护.
+ */
+public class QueryTypeReadyQueues {
+
+    //优先级按每10个一段统计排队数，[1, 10]为第0段，与发布给生产者的统计一致.
+    public static final int PRIORITY_BAND_COUNT = LimiterStats.PRIORITY_BAND_COUNT;
+
+    private final long agingMills;
+    private final boolean deadlineFirst;
+    private final int[] bandSizes;
+    private RegisterObjectHeap[] typeQueues;
+    private boolean[] blocked;
+    private int[] mergeHeap; //可执行的类型.
+    private int[] mergeIndexes; //类型在合并堆中的位置，-1表示不在.
+    private int mergeSize;
+    private int size;
+
+    public QueryTypeReadyQueues() {
+        this(0, false);
+    }
+
+    /**
+     * 创建注册队列，排序规则见{@link RegisterObjectHeap}.
+     *
+     * @param agingMills 请求每等待该时间排序时的优先级加一，0表示不老化.
+     * @param deadlineFirst 优先级段内是否按过期时间排序.
+     */
+    public QueryTypeReadyQueues(long agingMills, boolean deadlineFirst) {
+        this.agingMills = agingMills;
+        this.deadlineFirst = deadlineFirst;
+        typeQueues = new RegisterObjectHeap[0];
+        blocked = new boolean[0];
+        mergeHeap = new int[0];
+        mergeIndexes = new int[0];
+        bandSizes = new int[PRIORITY_BAND_COUNT];
+        grow(QueryType.count());
+    }
+
+    /**
+     * 所有类型的排队总数，包括被阻塞的类型.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size(QueryType queryType) {
+        int type = queryType.getIndex();
+        return type < typeQueues.length ? typeQueues[type].size() : 0;
+    }
+
+    /**
+     * 优先级段内的排队数，包括被阻塞的类型.
+     */
+    public int bandSize(int band) {
+        return bandSizes[band];
+    }
+
+    public static int bandOf(int priority) {
+        return LimiterStats.bandOf(priority);
+    }
+
+    public boolean add(RegisterObject registerObject) {
+        int type = indexOf(registerObject.getQueryType());
+        if (contains(registerObject.getNode()) || !typeQueues[type].add(registerObject)) {
+            return false;
+        }
+        size++;
+        bandSizes[bandOf(registerObject.getPriority())]++;
+        refresh(type);
+        return true;
+    }
+
+    public boolean remove(String node) {
+        for (int type = 0; type < typeQueues.length; type++) {
+            int slot = typeQueues[type].slotOf(node);
+            if (slot >= 0) {
+                bandSizes[bandOf(typeQueues[type].priorityAt(slot))]--;
+                typeQueues[type].removeSlot(slot);
+                size--;
+                refresh(type);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean contains(String node) {
+        for (RegisterObjectHeap typeQueue : typeQueues) {
+            if (typeQueue.contains(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 可执行类型中排在最前的请求，没有返回null.
+     */
+    public RegisterObject peek() {
+        return peek(0);
+    }
+
+    /**
+     * 可执行类型的堆顶中优先级不低于minPriority且排在最前的请求，没有返回null.
+     * 开启老化时低优先级的堆顶可能排在其他类型的高优先级堆顶之前，只剩高优先级预留时按优先级筛选，
+     * minPriority大于0时需要遍历可执行的类型.
+     */
+    public RegisterObject peek(int minPriority) {
+        int type = headType(minPriority);
+        return type < 0 ? null : typeQueues[type].peek();
+    }
+
+    /**
+     * 是否有可执行的请求，不创建对象.
+     */
+    public boolean hasReady() {
+        return mergeSize > 0;
+    }
+
+    /**
+     * 是否有堆顶优先级不低于minPriority的可执行类型，不创建对象.
+     */
+    public boolean hasReady(int minPriority) {
+        return headType(minPriority) >= 0;
+    }
+
+    /**
+     * 可执行类型中排在最前的请求是否排在另一个队列的之前，两个队列都需要有可执行的请求.
+     */
+    public boolean headBefore(QueryTypeReadyQueues other) {
+        return typeQueues[mergeHeap[0]].headBefore(other.typeQueues[other.mergeHeap[0]]);
+    }
+
+    /**
+     * 按{@link #peek(int)}选出的请求比较，两个队列都需要有满足条件的请求.
+     */
+    public boolean headBefore(QueryTypeReadyQueues other, int minPriority) {
+        return typeQueues[headType(minPriority)]
+            .headBefore(other.typeQueues[other.headType(minPriority)]);
+    }
+
+    public RegisterObject poll() {
+        return poll(0);
+    }
+
+    /**
+     * 出队{@link #peek(int)}选出的请求.
+     */
+    public RegisterObject poll(int minPriority) {
+        int type = headType(minPriority);
+        if (type < 0) {
+            return null;
+        }
+        RegisterObject registerObject = typeQueues[type].poll();
+        size--;
+        bandSizes[bandOf(registerObject.getPriority())]--;
+        refresh(type);
+        return registerObject;
+    }
+
+    /**
+     * 类型并发已满时阻塞，该类型的请求不再参与调度，直到解除阻塞.
+     */
+    public void setBlocked(QueryType queryType, boolean isBlocked) {
+        int type = indexOf(queryType);
+        if (blocked[type] != isBlocked) {
+            blocked[type] = isBlocked;
+            refresh(type);
+        }
+    }
+
+    public boolean isBlocked(QueryType queryType) {
+        int type = queryType.getIndex();
+        return type < blocked.length && blocked[type];
+    }
+
+    //堆顶优先级不低于minPriority且排在最前的可执行类型，没有返回-1.
+    private int headType(int minPriority) {
+        if (mergeSize == 0) {
+            return -1;
+        }
+        if (minPriority <= 0) {
+            return mergeHeap[0];
+        }
+        int head = -1;
+        for (int i = 0; i < mergeSize; i++) {
+            int type = mergeHeap[i];
+            RegisterObjectHeap typeQueue = typeQueues[type];
+            if (typeQueue.priorityAt(typeQueue.peekSlot()) >= minPriority
+                && (head < 0 || less(type, head))) {
+                head = type;
+            }
+        }
+        return head;
+    }
+
+    private int indexOf(QueryType queryType) {
+        int type = queryType.getIndex();
+        if (type >= typeQueues.length) {
+            grow(QueryType.count());
+        }
+        return type;
+    }
+
+    private void grow(int typeCount) {
+        int oldCount = typeQueues.length;
+        typeQueues = Arrays.copyOf(typeQueues, typeCount);
+        blocked = Arrays.copyOf(blocked, typeCount);
+        mergeHeap = Arrays.copyOf(mergeHeap, typeCount);
+        mergeIndexes = Arrays.copyOf(mergeIndexes, typeCount);
+        for (int i = oldCount; i < typeCount; i++) {
+            typeQueues[i] = new RegisterObjectHeap(RegisterObjectHeap.DEFAULT_CAPACITY, agingMills,
+                deadlineFirst);
+            mergeIndexes[i] = -1;
+        }
+    }
+
+    //类型队列的堆顶或阻塞状态变化后，调整该类型在合并堆中的位置.
+    private void refresh(int type) {
+        boolean ready = !blocked[type] && !typeQueues[type].isEmpty();
+        int index = mergeIndexes[type];
+        if (ready) {
+            if (index < 0) {
+                index = mergeSize++;
+                mergeHeap[index] = type;
+                mergeIndexes[type] = index;
+            }
+            siftDown(siftUp(index));
+        } else if (index >= 0) {
+            mergeIndexes[type] = -1;
+            int last = mergeHeap[--mergeSize];
+            if (index != mergeSize) {
+                mergeHeap[index] = last;
+                mergeIndexes[last] = index;
+                siftDown(siftUp(index));
+            }
+        }
+    }
+
+    private boolean less(int typeA, int typeB) {
+        return typeQueues[typeA].headBefore(typeQueues[typeB]);
+    }
+
+    private int siftUp(int index) {
+        int type = mergeHeap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            int parent = mergeHeap[parentIndex];
+            if (!less(type, parent)) {
+                break;
+            }
+            mergeHeap[index] = parent;
+            mergeIndexes[parent] = index;
+            index = parentIndex;
+        }
+        mergeHeap[index] = type;
+        mergeIndexes[type] = index;
+        return index;
+    }
+
+    private void siftDown(int index) {
+        int type = mergeHeap[index];
+        int half = mergeSize >>> 1;
+        while (index < half) {
+            int childIndex = (index << 1) + 1;
+            int child = mergeHeap[childIndex];
+            int rightIndex = childIndex + 1;
+            if (rightIndex < mergeSize && less(mergeHeap[rightIndex], child)) {
+                childIndex = rightIndex;
+                child = mergeHeap[childIndex];
+            }
+            if (!less(child, type)) {
+                break;
+            }
+            mergeHeap[index] = child;
+            mergeIndexes[child] = index;
+            index = childIndex;
+        }
+        mergeHeap[index] = type;
+        mergeIndexes[type] = index;
+    }
+}
@@ -0,0 +1,475 @@
+package com.lc.prestolimiter.consumer;
+
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import java.util.Arrays;
+
+/**
+ * 以zk节点名称为索引的优先级堆，未开启老化时排序规则与{@link RegisterObject#compareTo}一致.
+ * 开启老化时请求每等待agingMills优先级加一，等效优先级 priority + (now - registerTime) / agingMills
+ * 的比较与当前时间无关，等价于比较 priority * agingMills - registerTime，堆中按该值比较，
+ * 堆的顺序不随时间变化，不需要定时重建.
+ * 按截止时间排序时，先比较等效优先级所在的段(每10个一段)，段内过期时间早的在前.
+ * 老化时段由上述比较值划分，与按当前时间计算的等效优先级分段只差一个整体的平移，同样不随时间变化.
+ * 元素的各个字段按槽位存放在基本类型数组中，堆里只保存槽位号，节点名称通过开放寻址哈希表定位到槽位，
+ * 插入、删除、修改优先级为O(log n)，判断是否存在为O(1)，百万级排队不会产生百万个对象.
+ * 非线程安全，由{@link ConsumeService}的锁保护.
+ */
+public class RegisterObjectHeap {
+
+    public static final int DEFAULT_CAPACITY = 64;
+    private static final int SEQUENCE_LENGTH = 10;
+
+    //槽位数据.
+    private String[] nodes;
+    private int[] priorities;
+    private long[] expireTimes;
+    private QueryType[] queryTypes;
+    private int[] permits;
+    private boolean[] leases;
+    private int[] clusterMasks;
+    private int[] clusters;
+    private long[] registerTimes;
+    private int[] heapIndexes; //槽位在堆中的位置，-1表示空闲.
+    private int[] freeSlots;
+    private int freeCount;
+    private int slotCount;
+
+    //堆，保存槽位号.
+    private int[] heap;
+    private int size;
+
+    //节点名称 -> 槽位号 + 1，0表示空.
+    private int[] table;
+    private int tableMask;
+
+    private final long agingMills; //0表示不老化.
+    private final boolean deadlineFirst;
+
+    public RegisterObjectHeap() {
+        this(DEFAULT_CAPACITY, 0, false);
+    }
+
+    public RegisterObjectHeap(int initialCapacity) {
+        this(initialCapacity, 0, false);
+    }
+
+    /**
+     * 创建注册队列使用的堆.
+     *
+     * @param agingMills 请求每等待该时间排序时的优先级加一，0表示不老化，等待时间从registerTime开始.
+     * @param deadlineFirst 优先级段内是否按过期时间排序.
+     */
+    public RegisterObjectHeap(int initialCapacity, long agingMills, boolean deadlineFirst) {
+        this.agingMills = agingMills;
+        this.deadlineFirst = deadlineFirst;
+        int capacity = Math.max(initialCapacity, 2);
+        nodes = new String[capacity];
+        priorities = new int[capacity];
+        expireTimes = new long[capacity];
+        queryTypes = new QueryType[capacity];
+        permits = new int[capacity];
+        leases = new boolean[capacity];
+        clusterMasks = new int[capacity];
+        clusters = new int[capacity];
+        registerTimes = new long[capacity];
+        heapIndexes = new int[capacity];
+        freeSlots = new int[capacity];
+        heap = new int[capacity];
+        table = new int[tableSizeFor(capacity)];
+        tableMask = table.length - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(String node) {
+        return slotOf(node) >= 0;
+    }
+
+    /**
+     * 节点已存在时返回false.
+     */
+    public boolean add(RegisterObject registerObject) {
+        int slot = insert(registerObject.getNode(), registerObject.getPriority(),
+            registerObject.getExpireTime(), registerObject.getQueryType(),
+            registerObject.getPermits(), registerObject.isLease(),
+            registerObject.getRegisterTime());
+        if (slot < 0) {
+            return false;
+        }
+        clusterMasks[slot] = registerObject.getClusterMask();
+        clusters[slot] = registerObject.getCluster();
+        return true;
+    }
+
+    public boolean add(String node, int priority, long expireTime, QueryType queryType) {
+        return add(node, priority, expireTime, queryType, 1, false);
+    }
+
+    public boolean add(String node, int priority, long expireTime, QueryType queryType,
+        int permitCount, boolean lease) {
+        return insert(node, priority, expireTime, queryType, permitCount, lease, 0) >= 0;
+    }
+
+    //节点已存在时返回-1，否则返回分配的槽位号.
+    private int insert(String node, int priority, long expireTime, QueryType queryType,
+        int permitCount, boolean lease, long registerTime) {
+        if (node == null || slotOf(node) >= 0) {
+            return -1;
+        }
+        int slot = allocateSlot();
+        nodes[slot] = node;
+        priorities[slot] = priority;
+        expireTimes[slot] = expireTime;
+        queryTypes[slot] = queryType;
+        permits[slot] = permitCount;
+        leases[slot] = lease;
+        clusterMasks[slot] = 0;
+        clusters[slot] = -1;
+        registerTimes[slot] = registerTime;
+        tableInsert(slot);
+        heap[size] = slot;
+        heapIndexes[slot] = size;
+        siftUp(size++);
+        return slot;
+    }
+
+    public boolean remove(String node) {
+        int slot = slotOf(node);
+        if (slot < 0) {
+            return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * 修改节点的优先级与过期时间，节点不存在时返回false.
+     */
+    public boolean update(String node, int priority, long expireTime) {
+        int slot = slotOf(node);
+        if (slot < 0) {
+            return false;
+        }
+        priorities[slot] = priority;
+        expireTimes[slot] = expireTime;
+        int index = heapIndexes[slot];
+        siftUp(index);
+        siftDown(heapIndexes[slot]);
+        return true;
+    }
+
+    public RegisterObject peek() {
+        return size == 0 ? null : toRegisterObject(heap[0]);
+    }
+
+    public RegisterObject poll() {
+        if (size == 0) {
+            return null;
+        }
+        int slot = heap[0];
+        RegisterObject registerObject = toRegisterObject(slot);
+        removeSlot(slot);
+        return registerObject;
+    }
+
+    /**
+     * 堆顶元素的槽位号，空堆返回-1，配合{@code xxxAt}方法可以不创建对象读取堆顶.
+     */
+    public int peekSlot() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    /**
+     * 堆中第index个位置的槽位号，index属于[0, size)，用于不按顺序遍历所有元素.
+     */
+    public int slotAt(int index) {
+        return heap[index];
+    }
+
+    /**
+     * 节点所在的槽位号，不存在返回-1.
+     */
+    public int slotOf(String node) {
+        if (node == null) {
+            return -1;
+        }
+        int i = hash(node) & tableMask;
+        int entry;
+        while ((entry = table[i]) != 0) {
+            if (node.equals(nodes[entry - 1])) {
+                return entry - 1;
+            }
+            i = (i + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    public String nodeAt(int slot) {
+        return nodes[slot];
+    }
+
+    public int priorityAt(int slot) {
+        return priorities[slot];
+    }
+
+    public long expireTimeAt(int slot) {
+        return expireTimes[slot];
+    }
+
+    public QueryType queryTypeAt(int slot) {
+        return queryTypes[slot];
+    }
+
+    public int permitsAt(int slot) {
+        return permits[slot];
+    }
+
+    public void setPermitsAt(int slot, int permitCount) {
+        permits[slot] = permitCount;
+    }
+
+    public boolean isLeaseAt(int slot) {
+        return leases[slot];
+    }
+
+    public int clusterMaskAt(int slot) {
+        return clusterMasks[slot];
+    }
+
+    public int clusterAt(int slot) {
+        return clusters[slot];
+    }
+
+    public long registerTimeAt(int slot) {
+        return registerTimes[slot];
+    }
+
+    public RegisterObject toRegisterObject(int slot) {
+        RegisterObject registerObject = new RegisterObject(priorities[slot], expireTimes[slot],
+            queryTypes[slot], nodes[slot]);
+        registerObject.setPermits(permits[slot]);
+        registerObject.setLease(leases[slot]);
+        registerObject.setClusterMask(clusterMasks[slot]);
+        registerObject.setCluster(clusters[slot]);
+        registerObject.setRegisterTime(registerTimes[slot]);
+        return registerObject;
+    }
+
+    public void removeSlot(int slot) {
+        int index = heapIndexes[slot];
+        int last = heap[--size];
+        if (index != size) {
+            heap[index] = last;
+            heapIndexes[last] = index;
+            siftUp(index);
+            siftDown(heapIndexes[last]);
+        }
+        tableRemove(slot);
+        heapIndexes[slot] = -1;
+        nodes[slot] = null;
+        queryTypes[slot] = null;
+        freeSlots[freeCount++] = slot;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("RegisterObjectHeap{size=").append(size);
+        if (size > 0) {
+            builder.append(", head='").append(nodes[heap[0]]).append('\'');
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * 当前堆顶是否排在另一个堆的堆顶之前，两个堆都不能为空且老化配置相同，用于合并多个堆.
+     */
+    public boolean headBefore(RegisterObjectHeap other) {
+        int slot = heap[0];
+        int otherSlot = other.heap[0];
+        return before(slot, other, otherSlot);
+    }
+
+    private boolean less(int slotA, int slotB) {
+        return before(slotA, this, slotB);
+    }
+
+    private boolean before(int slot, RegisterObjectHeap other, int otherSlot) {
+        if (deadlineFirst) {
+            long band = bandAt(slot);
+            long otherBand = other.bandAt(otherSlot);
+            if (band != otherBand) {
+                return band > otherBand;
+            }
+            if (expireTimes[slot] != other.expireTimes[otherSlot]) {
+                return expireTimes[slot] < other.expireTimes[otherSlot];
+            }
+        }
+        return before(rankAt(slot), expireTimes[slot], nodes[slot],
+            other.rankAt(otherSlot), other.expireTimes[otherSlot], other.nodes[otherSlot]);
+    }
+
+    //等效优先级所在的段，未老化时与{@link QueryTypeReadyQueues#bandOf}一致.
+    private long bandAt(int slot) {
+        return agingMills > 0 ? Math.floorDiv(rankAt(slot) - agingMills, agingMills * 10)
+            : QueryTypeReadyQueues.bandOf(priorities[slot]);
+    }
+
+    //排序用的等效优先级，老化时等待越久越大.
+    private long rankAt(int slot) {
+        return agingMills > 0 ? priorities[slot] * agingMills - registerTimes[slot]
+            : priorities[slot];
+    }
+
+    //等效优先级高的在前，相同时过期时间早的在前，再相同按节点名称末尾的顺序号排序.
+    private static boolean before(long rankA, long expireTimeA, String nodeA,
+        long rankB, long expireTimeB, String nodeB) {
+        if (rankA != rankB) {
+            return rankA > rankB;
+        }
+        if (expireTimeA != expireTimeB) {
+            return expireTimeA < expireTimeB;
+        }
+        return compareSequence(nodeA, nodeB) < 0;
+    }
+
+    //节点名称可能带有调度属性前缀，只比较zk追加的10位顺序号.
+    private static int compareSequence(String nodeA, String nodeB) {
+        if (nodeA.length() < SEQUENCE_LENGTH || nodeB.length() < SEQUENCE_LENGTH) {
+            return nodeA.compareTo(nodeB);
+        }
+        int offsetA = nodeA.length() - SEQUENCE_LENGTH;
+        int offsetB = nodeB.length() - SEQUENCE_LENGTH;
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            int diff = nodeA.charAt(offsetA + i) - nodeB.charAt(offsetB + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return nodeA.compareTo(nodeB);
+    }
+
+    private void siftUp(int index) {
+        int slot = heap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            int parent = heap[parentIndex];
+            if (!less(slot, parent)) {
+                break;
+            }
+            heap[index] = parent;
+            heapIndexes[parent] = index;
+            index = parentIndex;
+        }
+        heap[index] = slot;
+        heapIndexes[slot] = index;
+    }
+
+    private void siftDown(int index) {
+        int slot = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int childIndex = (index << 1) + 1;
+            int child = heap[childIndex];
+            int rightIndex = childIndex + 1;
+            if (rightIndex < size && less(heap[rightIndex], child)) {
+                childIndex = rightIndex;
+                child = heap[childIndex];
+            }
+            if (!less(child, slot)) {
+                break;
+            }
+            heap[index] = child;
+            heapIndexes[child] = index;
+            index = childIndex;
+        }
+        heap[index] = slot;
+        heapIndexes[slot] = index;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == nodes.length) {
+            grow();
+        }
+        return slotCount++;
+    }
+
+    private void grow() {
+        int capacity = nodes.length + (nodes.length >> 1);
+        nodes = Arrays.copyOf(nodes, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        expireTimes = Arrays.copyOf(expireTimes, capacity);
+        queryTypes = Arrays.copyOf(queryTypes, capacity);
+        permits = Arrays.copyOf(permits, capacity);
+        leases = Arrays.copyOf(leases, capacity);
+        clusterMasks = Arrays.copyOf(clusterMasks, capacity);
+        clusters = Arrays.copyOf(clusters, capacity);
+        registerTimes = Arrays.copyOf(registerTimes, capacity);
+        heapIndexes = Arrays.copyOf(heapIndexes, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+        heap = Arrays.copyOf(heap, capacity);
+        if (capacity * 2 > table.length) {
+            rehash(tableSizeFor(capacity));
+        }
+    }
+
+    private void rehash(int tableSize) {
+        table = new int[tableSize];
+        tableMask = tableSize - 1;
+        for (int i = 0; i < size; i++) {
+            tableInsert(heap[i]);
+        }
+    }
+
+    private void tableInsert(int slot) {
+        int i = hash(nodes[slot]) & tableMask;
+        while (table[i] != 0) {
+            i = (i + 1) & tableMask;
+        }
+        table[i] = slot + 1;
+    }
+
+    //线性探测的删除，将后续同一探测链上的元素前移，不留删除标记.
+    private void tableRemove(int slot) {
+        int i = hash(nodes[slot]) & tableMask;
+        while (table[i] != slot + 1) {
+            i = (i + 1) & tableMask;
+        }
+        int j = i;
+        while (true) {
+            table[i] = 0;
+            while (true) {
+                j = (j + 1) & tableMask;
+                if (table[j] == 0) {
+                    return;
+                }
+                int k = hash(nodes[table[j] - 1]) & tableMask;
+                if (i <= j ? (i >= k || k > j) : (i >= k && k > j)) {
+                    break;
+                }
+            }
+            table[i] = table[j];
+            i = j;
+        }
+    }
+
+    private static int hash(String node) {
+        int h = node.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    //哈希表负载因子不超过0.5.
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        return Math.max(n, 4);
+    }
+}
@@ -2,14 +2,14 @@ package com.lc.prestolimiter.consumer;
 
 import com.lc.prestolimiter.common.NativeProperties;
 import com.lc.prestolimiter.common.Switchable;
-import com.lc.prestolimiter.zookeeper.common.PathChangeWatcher;
+import com.lc.prestolimiter.coordination.ChildrenWatch;
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import com.lc.prestolimiter.metrics.MetricsRegistry;
 import com.lc.prestolimiter.zookeeper.impl.ConsumerLockPathListener;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 
-import org.apache.curator.framework.CuratorFramework;
-import org.apache.zookeeper.CreateMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,14 +18,17 @@ public class RegisterService implements Switchable {
     private static final Logger LOGGER = LoggerFactory.getLogger(RegisterService.class.getName());
 
     private final String consumerLockData;
-    private final CuratorFramework client;
+    private final CoordinationBackend backend;
+    private final MetricsRegistry metricsRegistry;
     private ConsumeService consumeService;
     private final String consumerLockRealPath;
-    private PathChangeWatcher lockPathChangeWatcher;
+    private ChildrenWatch lockPathChangeWatcher;
     private boolean isConsumer;
 
-    public RegisterService(CuratorFramework client) throws UnknownHostException {
-        this.client = client;
+    public RegisterService(CoordinationBackend backend, MetricsRegistry metricsRegistry)
+        throws UnknownHostException {
+        this.backend = backend;
+        this.metricsRegistry = metricsRegistry;
         this.consumerLockData = InetAddress.getLocalHost().getHostAddress();
         this.consumerLockRealPath =
             NativeProperties.getConsumerLockPath() + "/" + NativeProperties.getConsumerLockNode();
@@ -33,7 +36,7 @@ public class RegisterService implements Switchable {
 
     public boolean lockThenConsume(boolean addListening) {
         if (tryLock()) {
-            this.consumeService = new ConsumeService(client); //每次开始消费都重新构建该对象.
+            this.consumeService = new ConsumeService(backend, metricsRegistry); //每次开始消费都重新构建该对象.
             if (consumeService.start()) {
                 LOGGER.error("presto limiter consumer!");
                 this.isConsumer = true;
@@ -42,7 +45,7 @@ public class RegisterService implements Switchable {
                 consumeService.stop();
                 while (true) {
                     try {
-                        this.client.delete().forPath(consumerLockRealPath);
+                        this.backend.delete(consumerLockRealPath);
                         break;
                     } catch (Exception e) {
                         LOGGER.error(String.format(
@@ -54,9 +57,8 @@ public class RegisterService implements Switchable {
             }
         }
         if (addListening) {
-            this.lockPathChangeWatcher = new PathChangeWatcher(client,
-                NativeProperties.getConsumerLockPath(),
-                new ConsumerLockPathListener(this));
+            this.lockPathChangeWatcher = backend.watchChildren(
+                NativeProperties.getConsumerLockPath(), new ConsumerLockPathListener(this), false);
             try {
                 this.lockPathChangeWatcher.start();
             } catch (Exception e) {
@@ -69,17 +71,16 @@ public class RegisterService implements Switchable {
 
     private boolean tryLock() {
         try {
-            this.client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
-                .forPath(consumerLockRealPath);
-            return true;
+            return this.backend
+                .tryLock(consumerLockRealPath, consumerLockData.getBytes(Charset.forName("UTF-8")));
         } catch (Exception e) {
             try {
-                if (this.client.checkExists().forPath(consumerLockRealPath) != null) {
+                if (this.backend.exists(consumerLockRealPath)) {
                     return false;
                 } else {
-                    LOGGER.error(String
-                            .format("presto limiter consumer try lock error, the error info is [%s]"),
-                        e.getMessage());
+                    LOGGER.error(String.format(
+                        "presto limiter consumer try lock error, the error info is [%s]",
+                        e.getMessage()));
                     return tryLock();
                 }
             } catch (Exception e1) {
@@ -109,6 +110,16 @@ public class RegisterService implements Switchable {
         }
     }
 
+    /**
+     * 如果本机是消费者，应用运行时修改的限制.
+     */
+    public void applyLimits() {
+        ConsumeService service = this.consumeService;
+        if (this.isConsumer && service != null) {
+            service.applyLimits();
+        }
+    }
+
     /**
      * 移除消费者身份.
      */
@@ -124,7 +135,7 @@ public class RegisterService implements Switchable {
      */
     public boolean checkSelfIsTheConsume() {
         try {
-            byte[] data = this.client.getData().forPath(this.consumerLockRealPath);
+            byte[] data = this.backend.getData(this.consumerLockRealPath);
             if (data == null || data.length == 0) {
                 return false;
             }
@@ -0,0 +1,419 @@
+package com.lc.prestolimiter.consumer;
+
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按租户加权公平调度的注册队列(start-time fair queuing)，每个租户一个{@link QueryTypeReadyQueues}.
+ * 有可执行请求的租户按开始标签组成小根堆，调度时取开始标签最小的租户，租户内仍按优先级与过期时间排序.
+ * 请求下发后虚拟时间推进到该租户的开始标签，租户的标签增加 资源个数/权重，各租户获得的资源按权重分配.
+ * 重新有可执行请求的租户的开始标签取虚拟时间与结束标签中较大的一个，空闲期间不积累额度，
+ * 空闲租户的份额由其他租户按权重分享.
+ * 选择租户与下发后调整标签都是O(log 租户数)，类型并发限制的阻塞状态变化需要通知每个租户.
+ * 没有排队请求的租户在虚拟时间追上它的结束标签后删除，之后重新排队时从当前虚拟时间开始，与保留时相同，
+ * 所以由请求方指定的租户名称不会使租户一直增长.
+ * 未开启公平调度时所有请求属于同一个租户，等同于按优先级严格排序.
+ * 非线程安全，由{@link ConsumeService}的锁保护.
+ */
+public class TenantFairQueues {
+
+    private static final String DEFAULT_TENANT = ""; //未指定租户的请求.
+
+    private final boolean fair;
+    private final Map<String, Integer> weights;
+    private final int defaultWeight;
+    private final long agingMills;
+    private final boolean deadlineFirst;
+    private final Map<String, Tenant> tenants;
+    private volatile Tenant[] tenantList; //写时复制，指标不加锁读取.
+    private final List<Tenant> idleTenants; //没有排队请求但结束标签超过虚拟时间的租户.
+    private final RegisterObject nodeNameHolder;
+    private boolean[] blocked; //按类型下标索引.
+    private Tenant[] readyHeap; //有可执行请求的租户.
+    private int readySize;
+    private int size;
+    private double virtualTime;
+
+    public TenantFairQueues(boolean fair, Map<String, Integer> weights, int defaultWeight) {
+        this(fair, weights, defaultWeight, 0, false);
+    }
+
+    /**
+     * 创建注册队列.
+     *
+     * @param fair 是否按租户公平调度.
+     * @param weights 租户的权重，未配置的租户使用默认权重.
+     * @param agingMills 租户内请求每等待该时间排序时的优先级加一，0表示不老化.
+     * @param deadlineFirst 租户内优先级段内是否按过期时间排序.
+     */
+    public TenantFairQueues(boolean fair, Map<String, Integer> weights, int defaultWeight,
+        long agingMills, boolean deadlineFirst) {
+        this.fair = fair;
+        this.weights = weights;
+        this.defaultWeight = defaultWeight;
+        this.agingMills = agingMills;
+        this.deadlineFirst = deadlineFirst;
+        this.tenants = new HashMap<>();
+        this.tenantList = new Tenant[0];
+        this.idleTenants = new ArrayList<>();
+        this.nodeNameHolder = new RegisterObject();
+        this.blocked = new boolean[QueryType.count()];
+        this.readyHeap = new Tenant[4];
+    }
+
+    /**
+     * 所有租户的排队总数，包括被阻塞的类型.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size(QueryType queryType) {
+        int count = 0;
+        for (Tenant tenant : tenantList) {
+            count += tenant.queues.size(queryType);
+        }
+        return count;
+    }
+
+    public int bandSize(int band) {
+        int count = 0;
+        for (Tenant tenant : tenantList) {
+            count += tenant.queues.bandSize(band);
+        }
+        return count;
+    }
+
+    /**
+     * 租户的个数，包括没有排队但还未删除的租户.
+     */
+    public int tenantCount() {
+        return tenantList.length;
+    }
+
+    public boolean add(RegisterObject registerObject) {
+        Tenant tenant = tenantOf(registerObject.getTenant());
+        if (!tenant.queues.add(registerObject)) {
+            return false;
+        }
+        size++;
+        refresh(tenant);
+        return true;
+    }
+
+    public boolean remove(String node) {
+        Tenant tenant = findTenant(node);
+        if (tenant == null || !tenant.queues.remove(node)) {
+            return false;
+        }
+        size--;
+        refresh(tenant);
+        return true;
+    }
+
+    public boolean contains(String node) {
+        return findTenant(node) != null;
+    }
+
+    /**
+     * 开始标签最小的租户中排在最前的请求，没有可执行的请求返回null.
+     */
+    public RegisterObject peek() {
+        return peek(0);
+    }
+
+    /**
+     * 只考虑优先级不低于minPriority的请求时排在最前的请求，没有返回null.
+     * 只剩高优先级预留时使用：选中租户的队首是低优先级时，其他租户的高优先级请求仍然可以使用预留.
+     * minPriority大于0时需要遍历有可执行请求的租户，O(租户数 * 类型数).
+     */
+    public RegisterObject peek(int minPriority) {
+        Tenant tenant = headTenant(minPriority);
+        return tenant == null ? null : withTenant(tenant.queues.peek(minPriority), tenant);
+    }
+
+    /**
+     * 出队但不计入租户的份额，用于过期清理以及暂时跳过资源不足的请求.
+     */
+    public RegisterObject poll() {
+        return poll(0);
+    }
+
+    /**
+     * 出队{@link #peek(int)}选出的请求，不计入租户的份额.
+     */
+    public RegisterObject poll(int minPriority) {
+        Tenant tenant = headTenant(minPriority);
+        if (tenant == null) {
+            return null;
+        }
+        RegisterObject registerObject = tenant.queues.poll(minPriority);
+        size--;
+        refresh(tenant);
+        return withTenant(registerObject, tenant);
+    }
+
+    /**
+     * 出队下发的请求，按占用的资源个数推进所属租户的标签.
+     */
+    public RegisterObject pollGranted() {
+        return pollGranted(0);
+    }
+
+    /**
+     * 出队下发{@link #peek(int)}选出的请求.
+     */
+    public RegisterObject pollGranted(int minPriority) {
+        Tenant tenant = headTenant(minPriority);
+        if (tenant == null) {
+            return null;
+        }
+        RegisterObject registerObject = tenant.queues.poll(minPriority);
+        size--;
+        boolean advanced = tenant.startTag > virtualTime;
+        virtualTime = Math.max(virtualTime, tenant.startTag);
+        tenant.finishTag = tenant.startTag + (double) registerObject.getPermits() / tenant.weight;
+        tenant.startTag = tenant.finishTag;
+        refresh(tenant);
+        if (advanced && !idleTenants.isEmpty()) {
+            dropIdleTenants();
+        }
+        return withTenant(registerObject, tenant);
+    }
+
+    /**
+     * 类型并发已满时阻塞，所有租户中该类型的请求不再参与调度，直到解除阻塞.
+     */
+    public void setBlocked(QueryType queryType, boolean isBlocked) {
+        int type = queryType.getIndex();
+        if (type >= blocked.length) {
+            blocked = Arrays.copyOf(blocked, QueryType.count());
+        }
+        if (blocked[type] == isBlocked) {
+            return;
+        }
+        blocked[type] = isBlocked;
+        for (Tenant tenant : tenantList) {
+            tenant.queues.setBlocked(queryType, isBlocked);
+            refresh(tenant);
+        }
+    }
+
+    public boolean isBlocked(QueryType queryType) {
+        int type = queryType.getIndex();
+        return type < blocked.length && blocked[type];
+    }
+
+    private RegisterObject withTenant(RegisterObject registerObject, Tenant tenant) {
+        if (fair) {
+            registerObject.setTenant(tenant.name.isEmpty() ? null : tenant.name);
+        }
+        return registerObject;
+    }
+
+    private Tenant tenantOf(String name) {
+        String key = !fair || name == null ? DEFAULT_TENANT : name;
+        Tenant tenant = tenants.get(key);
+        if (tenant == null) {
+            Integer weight = weights.get(key);
+            tenant = new Tenant(key, weight != null ? weight : defaultWeight, agingMills,
+                deadlineFirst);
+            for (int type = 0; type < blocked.length; type++) {
+                if (blocked[type]) {
+                    tenant.queues.setBlocked(QueryType.fromIndex(type), true);
+                }
+            }
+            tenants.put(key, tenant);
+            Tenant[] newTenantList = Arrays.copyOf(tenantList, tenantList.length + 1);
+            newTenantList[newTenantList.length - 1] = tenant;
+            tenantList = newTenantList;
+        }
+        return tenant;
+    }
+
+    /**
+     * 节点所在的租户，不存在返回null.
+     * 租户在节点名称中，名称中不带调度属性(升级前创建)的节点在所有租户中查找.
+     */
+    private Tenant findTenant(String node) {
+        if (fair && RegisterObjectCodec.decodeNodeName(node, nodeNameHolder)) {
+            Tenant tenant = tenants.get(
+                nodeNameHolder.getTenant() == null ? DEFAULT_TENANT : nodeNameHolder.getTenant());
+            return tenant != null && tenant.queues.contains(node) ? tenant : null;
+        }
+        for (Tenant tenant : tenantList) {
+            if (tenant.queues.contains(node)) {
+                return tenant;
+            }
+        }
+        return null;
+    }
+
+    //租户的可执行请求变化后，调整它在堆中的位置，重新变为可执行的租户从当前虚拟时间开始.
+    private void refresh(Tenant tenant) {
+        int index = tenant.heapIndex;
+        if (tenant.queues.hasReady()) {
+            if (index < 0) {
+                tenant.startTag = Math.max(virtualTime, tenant.finishTag);
+                if (readySize == readyHeap.length) {
+                    readyHeap = Arrays.copyOf(readyHeap, readySize * 2);
+                }
+                index = readySize++;
+                readyHeap[index] = tenant;
+                tenant.heapIndex = index;
+            }
+            siftDown(siftUp(index));
+        } else if (index >= 0) {
+            tenant.heapIndex = -1;
+            Tenant last = readyHeap[--readySize];
+            readyHeap[readySize] = null;
+            if (index != readySize) {
+                readyHeap[index] = last;
+                last.heapIndex = index;
+                siftDown(siftUp(index));
+            }
+        }
+        //已在空闲列表中的租户由虚拟时间推进时删除.
+        if (tenant.queues.size() == 0 && !tenant.idle && !tenant.name.equals(DEFAULT_TENANT)) {
+            if (tenant.finishTag <= virtualTime) {
+                dropTenant(tenant);
+            } else {
+                tenant.idle = true;
+                idleTenants.add(tenant);
+            }
+        }
+    }
+
+    //虚拟时间推进后删除结束标签已被追上的空闲租户，重新有请求的租户不再是空闲的.
+    private void dropIdleTenants() {
+        Iterator<Tenant> iterator = idleTenants.iterator();
+        while (iterator.hasNext()) {
+            Tenant tenant = iterator.next();
+            if (tenant.queues.size() > 0) {
+                tenant.idle = false;
+                iterator.remove();
+            } else if (tenant.finishTag <= virtualTime) {
+                tenant.idle = false;
+                iterator.remove();
+                dropTenant(tenant);
+            }
+        }
+    }
+
+    //没有排队请求的租户不在堆中，删除后不影响调度.
+    private void dropTenant(Tenant tenant) {
+        if (!tenants.remove(tenant.name, tenant)) {
+            return;
+        }
+        Tenant[] newTenantList = new Tenant[tenantList.length - 1];
+        int index = 0;
+        for (Tenant other : tenantList) {
+            if (other != tenant) {
+                newTenantList[index++] = other;
+            }
+        }
+        tenantList = newTenantList;
+    }
+
+    //有优先级不低于minPriority的请求且开始标签最小的租户，没有返回null.
+    private Tenant headTenant(int minPriority) {
+        if (readySize == 0) {
+            return null;
+        }
+        if (minPriority <= 0) {
+            return readyHeap[0];
+        }
+        Tenant head = null;
+        for (int i = 0; i < readySize; i++) {
+            Tenant tenant = readyHeap[i];
+            if (tenant.queues.hasReady(minPriority)
+                && (head == null || less(tenant, head, minPriority))) {
+                head = tenant;
+            }
+        }
+        return head;
+    }
+
+    //开始标签相同时按租户内排在最前的请求排序.
+    private static boolean less(Tenant tenantA, Tenant tenantB) {
+        if (tenantA.startTag != tenantB.startTag) {
+            return tenantA.startTag < tenantB.startTag;
+        }
+        return tenantA.queues.headBefore(tenantB.queues);
+    }
+
+    private static boolean less(Tenant tenantA, Tenant tenantB, int minPriority) {
+        if (tenantA.startTag != tenantB.startTag) {
+            return tenantA.startTag < tenantB.startTag;
+        }
+        return tenantA.queues.headBefore(tenantB.queues, minPriority);
+    }
+
+    private int siftUp(int index) {
+        Tenant tenant = readyHeap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            Tenant parent = readyHeap[parentIndex];
+            if (!less(tenant, parent)) {
+                break;
+            }
+            readyHeap[index] = parent;
+            parent.heapIndex = index;
+            index = parentIndex;
+        }
+        readyHeap[index] = tenant;
+        tenant.heapIndex = index;
+        return index;
+    }
+
+    private void siftDown(int index) {
+        Tenant tenant = readyHeap[index];
+        int half = readySize >>> 1;
+        while (index < half) {
+            int childIndex = (index << 1) + 1;
+            Tenant child = readyHeap[childIndex];
+            int rightIndex = childIndex + 1;
+            if (rightIndex < readySize && less(readyHeap[rightIndex], child)) {
+                childIndex = rightIndex;
+                child = readyHeap[childIndex];
+            }
+            if (!less(child, tenant)) {
+                break;
+            }
+            readyHeap[index] = child;
+            child.heapIndex = index;
+            index = childIndex;
+        }
+        readyHeap[index] = tenant;
+        tenant.heapIndex = index;
+    }
+
+    private static class Tenant {
+
+        private final String name;
+        private final int weight;
+        private final QueryTypeReadyQueues queues;
+        private double startTag;
+        private double finishTag;
+        private int heapIndex;
+        private boolean idle; //在空闲租户列表中.
+
+        private Tenant(String name, int weight, long agingMills, boolean deadlineFirst) {
+            this.name = name;
+            this.weight = weight;
+            this.queues = new QueryTypeReadyQueues(agingMills, deadlineFirst);
+            this.heapIndex = -1;
+        }
+    }
+}
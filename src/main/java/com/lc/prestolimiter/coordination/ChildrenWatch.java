@@ -0,0 +1,29 @@
+package com.lc.prestolimiter.coordination;
+
+import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
+
+/**
+ * 对一个路径下子节点变化的监听.
+ */
+public interface ChildrenWatch {
+
+    /**
+     * start watch, the existing children are reported as added.
+     */
+    void start(StartMode startMode) throws Exception;
+
+    /**
+     * start with normal.
+     */
+    void start() throws Exception;
+
+    /**
+     * check whether the child node exists, answered locally without a round trip.
+     */
+    boolean containsNode(String node);
+
+    /**
+     * stop watch quietly.
+     */
+    void stop();
+}
@@ -0,0 +1,87 @@
+package com.lc.prestolimiter.coordination;
+
+import com.lc.prestolimiter.zookeeper.common.NodeChangeListener;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * limiter依赖的协调操作：顺序节点注册、事务移动、删除、子节点与配置节点的监听以及消费者锁.
+ * 节点不存在、已存在等错误与zk保持一致，抛出对应的{@link org.apache.zookeeper.KeeperException}.
+ */
+public interface CoordinationBackend {
+
+    void start();
+
+    void close();
+
+    /**
+     * 在父路径下创建顺序节点，节点名称为前缀加10位顺序号，父路径不存在时自动创建.
+     *
+     * @param ephemeral 是否为与会话绑定的临时节点.
+     * @return 新节点的名称.
+     */
+    String createSequential(String parentPath, String prefix, byte[] data, boolean ephemeral)
+        throws Exception;
+
+    /**
+     * 在一个事务中按前缀依次创建多个顺序节点，全部成功或全部失败，父路径不存在时自动创建.
+     *
+     * @return 新节点的名称，与前缀的顺序一致.
+     */
+    List<String> createSequential(String parentPath, List<String> prefixes, byte[] data,
+        boolean ephemeral) throws Exception;
+
+    /**
+     * 创建与会话绑定的临时节点，用于消费者锁以及生产者的会话节点.
+     *
+     * @return 节点已存在返回false.
+     */
+    boolean tryLock(String path, byte[] data) throws Exception;
+
+    boolean exists(String path) throws Exception;
+
+    /**
+     * 子节点的名称，父路径不存在时返回空列表.
+     */
+    List<String> getChildren(String path) throws Exception;
+
+    byte[] getData(String path) throws Exception;
+
+    void setData(String path, byte[] data) throws Exception;
+
+    /**
+     * 在一个事务中修改多个节点的数据，全部成功或全部失败.
+     */
+    void setData(List<NodeData> updates) throws Exception;
+
+    void delete(String path) throws Exception;
+
+    /**
+     * 异步删除，不等待结果，失败时future以异常完成.
+     */
+    CompletableFuture<Void> deleteAsync(String path);
+
+    /**
+     * 在一个事务中完成所有移动，全部成功或全部失败.
+     */
+    void move(List<NodeMove> moves) throws Exception;
+
+    /**
+     * 在一个事务中删除节点并在父路径下创建持久顺序节点，任一节点不存在时全部失败.
+     *
+     * @return 新节点的名称.
+     */
+    String deleteAndCreateSequential(List<String> deletePaths, String parentPath, String prefix,
+        byte[] data) throws Exception;
+
+    /**
+     * 创建子节点监听，调用{@link ChildrenWatch#start}后开始回调.
+     */
+    ChildrenWatch watchChildren(String path, PathChangeListener listener, boolean cacheData);
+
+    /**
+     * 创建节点数据监听，调用{@link NodeWatch#start}后开始回调，节点不存在或被删除时回调null.
+     */
+    NodeWatch watchNode(String path, NodeChangeListener listener);
+}
@@ -0,0 +1,227 @@
+package com.lc.prestolimiter.coordination;
+
+import com.lc.prestolimiter.metrics.Counter;
+import com.lc.prestolimiter.metrics.Histogram;
+import com.lc.prestolimiter.metrics.MetricsRegistry;
+import com.lc.prestolimiter.zookeeper.common.NodeChangeListener;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 记录每类协调操作耗时(微秒)与失败次数的包装.
+ */
+public class InstrumentedCoordinationBackend implements CoordinationBackend {
+
+    private final CoordinationBackend delegate;
+    private final Histogram createMicros;
+    private final Histogram lockMicros;
+    private final Histogram existsMicros;
+    private final Histogram getChildrenMicros;
+    private final Histogram getDataMicros;
+    private final Histogram setDataMicros;
+    private final Histogram deleteMicros;
+    private final Histogram deleteAsyncMicros;
+    private final Histogram moveMicros;
+    private final Histogram deleteAndCreateMicros;
+    private final Counter errorCount;
+
+    public InstrumentedCoordinationBackend(CoordinationBackend delegate,
+        MetricsRegistry metricsRegistry) {
+        this.delegate = delegate;
+        this.createMicros = metricsRegistry.histogram("coordination.create.micros");
+        this.lockMicros = metricsRegistry.histogram("coordination.lock.micros");
+        this.existsMicros = metricsRegistry.histogram("coordination.exists.micros");
+        this.getChildrenMicros = metricsRegistry.histogram("coordination.getChildren.micros");
+        this.getDataMicros = metricsRegistry.histogram("coordination.getData.micros");
+        this.setDataMicros = metricsRegistry.histogram("coordination.setData.micros");
+        this.deleteMicros = metricsRegistry.histogram("coordination.delete.micros");
+        this.deleteAsyncMicros = metricsRegistry.histogram("coordination.deleteAsync.micros");
+        this.moveMicros = metricsRegistry.histogram("coordination.move.micros");
+        this.deleteAndCreateMicros = metricsRegistry
+            .histogram("coordination.deleteAndCreate.micros");
+        this.errorCount = metricsRegistry.counter("coordination.error");
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public String createSequential(String parentPath, String prefix, byte[] data,
+        boolean ephemeral) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return delegate.createSequential(parentPath, prefix, data, ephemeral);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(createMicros, startNanos);
+        }
+    }
+
+    @Override
+    public List<String> createSequential(String parentPath, List<String> prefixes, byte[] data,
+        boolean ephemeral) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return delegate.createSequential(parentPath, prefixes, data, ephemeral);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(createMicros, startNanos);
+        }
+    }
+
+    @Override
+    public boolean tryLock(String path, byte[] data) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return delegate.tryLock(path, data);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(lockMicros, startNanos);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return delegate.exists(path);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(existsMicros, startNanos);
+        }
+    }
+
+    @Override
+    public List<String> getChildren(String path) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return delegate.getChildren(path);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(getChildrenMicros, startNanos);
+        }
+    }
+
+    @Override
+    public byte[] getData(String path) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return delegate.getData(path);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(getDataMicros, startNanos);
+        }
+    }
+
+    @Override
+    public void setData(String path, byte[] data) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            delegate.setData(path, data);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(setDataMicros, startNanos);
+        }
+    }
+
+    @Override
+    public void setData(List<NodeData> updates) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            delegate.setData(updates);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(setDataMicros, startNanos);
+        }
+    }
+
+    @Override
+    public void delete(String path) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            delegate.delete(path);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(deleteMicros, startNanos);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String path) {
+        long startNanos = System.nanoTime();
+        return delegate.deleteAsync(path).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                errorCount.increment();
+            }
+            record(deleteAsyncMicros, startNanos);
+        });
+    }
+
+    @Override
+    public void move(List<NodeMove> moves) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            delegate.move(moves);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(moveMicros, startNanos);
+        }
+    }
+
+    @Override
+    public String deleteAndCreateSequential(List<String> deletePaths, String parentPath,
+        String prefix, byte[] data) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return delegate.deleteAndCreateSequential(deletePaths, parentPath, prefix, data);
+        } catch (Exception e) {
+            errorCount.increment();
+            throw e;
+        } finally {
+            record(deleteAndCreateMicros, startNanos);
+        }
+    }
+
+    @Override
+    public ChildrenWatch watchChildren(String path, PathChangeListener listener,
+        boolean cacheData) {
+        return delegate.watchChildren(path, listener, cacheData);
+    }
+
+    @Override
+    public NodeWatch watchNode(String path, NodeChangeListener listener) {
+        return delegate.watchNode(path, listener);
+    }
+
+    private static void record(Histogram histogram, long startNanos) {
+        histogram.record((System.nanoTime() - startNanos) / 1000);
+    }
+}
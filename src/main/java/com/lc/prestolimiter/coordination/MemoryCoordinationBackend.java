@@ -0,0 +1,430 @@
+package com.lc.prestolimiter.coordination;
+
+import com.lc.prestolimiter.zookeeper.common.NodeChangeListener;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import com.lc.prestolimiter.zookeeper.common.PathChildrenEvent;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent.Type;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 单进程内存中的协调实现，用于单机部署以及压测，不经过网络.
+ * 节点保存在并发跳表中，读操作不加锁；所有写操作持有同一把锁，事务先检查全部条件再执行，
+ * 与zk的multi一样要么全部生效要么都不生效，不需要回滚.
+ * 事务中先创建再删除，不加锁的读者不会看到节点同时不在原路径与新路径的中间状态；
+ * 但读操作不是原子的，可能看到事务执行了一部分的结果，例如多个节点的移动中部分节点同时在两个路径下.
+ * 需要一致结果的读者应当以变化事件为准.
+ * 变化事件在锁内按修改顺序提交到事件线程，事务执行完才发出，所以监听者只会看到完整的事务结果.
+ * 变化事件与zk一样在单独的线程上按顺序回调，回调中可以安全地再次调用本实现.
+ * 进程内没有会话，临时节点与持久节点相同，直到被删除或关闭.
+ */
+public class MemoryCoordinationBackend implements CoordinationBackend {
+
+    private static final Logger LOGGER = LoggerFactory
+        .getLogger(MemoryCoordinationBackend.class.getName());
+    private static final byte[] EMPTY_DATA = new byte[0];
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConcurrentNavigableMap<String, byte[]> nodes;
+    private final ConcurrentMap<String, AtomicInteger> sequences;
+    private final ConcurrentMap<String, List<MemoryChildrenWatch>> watches;
+    private final ConcurrentMap<String, List<MemoryNodeWatch>> nodeWatches;
+    private final ExecutorService eventExecutor;
+    private final Lock lock; //所有写操作互斥，保证事务的检查与执行是原子的.
+
+    public MemoryCoordinationBackend() {
+        this.lock = new ReentrantLock();
+        this.nodes = new ConcurrentSkipListMap<>();
+        this.sequences = new ConcurrentHashMap<>();
+        this.watches = new ConcurrentHashMap<>();
+        this.nodeWatches = new ConcurrentHashMap<>();
+        this.eventExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presto-limiter-memory-event");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void close() {
+        eventExecutor.shutdown();
+    }
+
+    @Override
+    public String createSequential(String parentPath, String prefix, byte[] data,
+        boolean ephemeral) throws Exception {
+        lock.lock();
+        try {
+            String path = nextSequentialPath(parentPath, prefix);
+            nodes.put(path, nullToEmpty(data));
+            fire(path, Type.CHILD_ADDED, data);
+            return ZKPaths.getNodeFromPath(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> createSequential(String parentPath, List<String> prefixes, byte[] data,
+        boolean ephemeral) throws Exception {
+        lock.lock();
+        try {
+            List<String> paths = new ArrayList<>(prefixes.size());
+            for (String prefix : prefixes) {
+                String path = nextSequentialPath(parentPath, prefix);
+                nodes.put(path, nullToEmpty(data));
+                paths.add(path);
+            }
+            List<String> names = new ArrayList<>(paths.size());
+            for (String path : paths) {
+                fire(path, Type.CHILD_ADDED, data);
+                names.add(ZKPaths.getNodeFromPath(path));
+            }
+            return names;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean tryLock(String path, byte[] data) {
+        lock.lock();
+        try {
+            if (nodes.putIfAbsent(path, nullToEmpty(data)) != null) {
+                return false;
+            }
+            fire(path, Type.CHILD_ADDED, data);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return nodes.containsKey(path);
+    }
+
+    @Override
+    public List<String> getChildren(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        List<String> children = new ArrayList<>();
+        for (String childPath : nodes.subMap(prefix, prefix + Character.MAX_VALUE).keySet()) {
+            if (childPath.indexOf('/', prefix.length()) < 0) {
+                children.add(childPath.substring(prefix.length()));
+            }
+        }
+        return children;
+    }
+
+    @Override
+    public byte[] getData(String path) throws Exception {
+        byte[] data = nodes.get(path);
+        if (data == null) {
+            throw new KeeperException.NoNodeException(path);
+        }
+        return data;
+    }
+
+    @Override
+    public void setData(String path, byte[] data) throws Exception {
+        setData(Collections.singletonList(new NodeData(path, data)));
+    }
+
+    @Override
+    public void setData(List<NodeData> updates) throws Exception {
+        lock.lock();
+        try {
+            for (NodeData update : updates) {
+                checkExists(update.getPath());
+            }
+            for (NodeData update : updates) {
+                nodes.put(update.getPath(), nullToEmpty(update.getData()));
+                fire(update.getPath(), Type.CHILD_UPDATED, update.getData());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(String path) throws Exception {
+        lock.lock();
+        try {
+            byte[] data = nodes.remove(path);
+            if (data == null) {
+                throw new KeeperException.NoNodeException(path);
+            }
+            fire(path, Type.CHILD_REMOVED, data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String path) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            delete(path);
+            future.complete(null);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public void move(List<NodeMove> moves) throws Exception {
+        lock.lock();
+        try {
+            Set<String> fromPaths = new HashSet<>();
+            Set<String> toPaths = new HashSet<>();
+            for (NodeMove move : moves) {
+                if (!nodes.containsKey(move.getFromPath())
+                    || !fromPaths.add(move.getFromPath())) {
+                    throw new KeeperException.NoNodeException(move.getFromPath());
+                }
+                if (!toPaths.add(move.getToPath()) || nodes.containsKey(move.getToPath())) {
+                    throw new KeeperException.NodeExistsException(move.getToPath());
+                }
+            }
+            //逐个节点先创建再删除，不加锁的读者可能看到部分节点已移动.
+            for (NodeMove move : moves) {
+                nodes.put(move.getToPath(), nullToEmpty(move.getData()));
+                byte[] removedData = nodes.remove(move.getFromPath());
+                fire(move.getFromPath(), Type.CHILD_REMOVED, removedData);
+                fire(move.getToPath(), Type.CHILD_ADDED, move.getData());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String deleteAndCreateSequential(List<String> deletePaths, String parentPath,
+        String prefix, byte[] data) throws Exception {
+        lock.lock();
+        try {
+            Set<String> checkedPaths = new HashSet<>();
+            for (String deletePath : deletePaths) {
+                if (!checkedPaths.add(deletePath)) {
+                    throw new KeeperException.NoNodeException(deletePath);
+                }
+                checkExists(deletePath);
+            }
+            String path = nextSequentialPath(parentPath, prefix);
+            nodes.put(path, nullToEmpty(data));
+            for (String deletePath : deletePaths) {
+                fire(deletePath, Type.CHILD_REMOVED, nodes.remove(deletePath));
+            }
+            fire(path, Type.CHILD_ADDED, data);
+            return ZKPaths.getNodeFromPath(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ChildrenWatch watchChildren(String path, PathChangeListener listener,
+        boolean cacheData) {
+        return new MemoryChildrenWatch(path, listener, cacheData);
+    }
+
+    @Override
+    public NodeWatch watchNode(String path, NodeChangeListener listener) {
+        return new MemoryNodeWatch(path, listener);
+    }
+
+    private void fire(String path, Type type, byte[] data) {
+        List<MemoryNodeWatch> watchesOfNode = nodeWatches.get(path);
+        if (watchesOfNode != null) {
+            for (MemoryNodeWatch watch : watchesOfNode) {
+                watch.dispatch(type == Type.CHILD_REMOVED ? null : data);
+            }
+        }
+        List<MemoryChildrenWatch> pathWatches = watches
+            .get(ZKPaths.getPathAndNode(path).getPath());
+        if (pathWatches != null) {
+            for (MemoryChildrenWatch watch : pathWatches) {
+                watch.dispatch(path, type, data);
+            }
+        }
+    }
+
+    //锁内调用，顺序号与zk一样在失败时也会消耗.
+    private String nextSequentialPath(String parentPath, String prefix)
+        throws KeeperException {
+        int sequence = sequences.computeIfAbsent(parentPath, path -> new AtomicInteger())
+            .getAndIncrement();
+        String path = ZKPaths.makePath(parentPath, prefix + String.format("%010d", sequence));
+        if (nodes.containsKey(path)) {
+            throw new KeeperException.NodeExistsException(path);
+        }
+        return path;
+    }
+
+    private void checkExists(String path) throws KeeperException {
+        if (!nodes.containsKey(path)) {
+            throw new KeeperException.NoNodeException(path);
+        }
+    }
+
+    private static byte[] nullToEmpty(byte[] data) {
+        return data == null ? EMPTY_DATA : data;
+    }
+
+    private class MemoryNodeWatch implements NodeWatch {
+
+        private final String path;
+        private final NodeChangeListener listener;
+        private volatile boolean started;
+
+        private MemoryNodeWatch(String path, NodeChangeListener listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+        @Override
+        public void start() {
+            nodeWatches.computeIfAbsent(path, key -> new CopyOnWriteArrayList<>()).add(this);
+            started = true;
+            eventExecutor.execute(() -> deliver(nodes.get(path)));
+        }
+
+        @Override
+        public void stop() {
+            started = false;
+            List<MemoryNodeWatch> watchesOfNode = nodeWatches.get(path);
+            if (watchesOfNode != null) {
+                watchesOfNode.remove(this);
+            }
+        }
+
+        private void dispatch(byte[] data) {
+            try {
+                eventExecutor.execute(() -> deliver(data));
+            } catch (RejectedExecutionException e) {
+                LOGGER.error(String.format("memory coordination closed, drop event of path [%s]",
+                    path));
+            }
+        }
+
+        //与zk的实现一致，空数据按null回调.
+        private void deliver(byte[] data) {
+            if (!started) {
+                return;
+            }
+            String text = data == null ? null : new String(data, UTF_8);
+            try {
+                listener.nodeChange(text == null || text.trim().isEmpty() ? null : text);
+            } catch (Exception e) {
+                LOGGER.error(String.format("memory coordination deliver event error! path [%s]",
+                    path), e);
+            }
+        }
+    }
+
+    private class MemoryChildrenWatch implements ChildrenWatch {
+
+        private final String path;
+        private final PathChangeListener listener;
+        private final boolean cacheData;
+        private volatile boolean started;
+
+        private MemoryChildrenWatch(String path, PathChangeListener listener, boolean cacheData) {
+            this.path = path;
+            this.listener = listener;
+            this.cacheData = cacheData;
+        }
+
+        @Override
+        public void start(StartMode startMode) {
+            watches.computeIfAbsent(path, key -> new CopyOnWriteArrayList<>()).add(this);
+            started = true;
+            //在事件线程上读取已有的子节点，保证与之后的变化事件有序.
+            eventExecutor.execute(() -> {
+                String prefix = path.endsWith("/") ? path : path + "/";
+                for (Map.Entry<String, byte[]> entry : nodes
+                    .subMap(prefix, prefix + Character.MAX_VALUE).entrySet()) {
+                    if (entry.getKey().indexOf('/', prefix.length()) < 0) {
+                        deliver(entry.getKey(), Type.CHILD_ADDED, entry.getValue());
+                    }
+                }
+                if (startMode == StartMode.POST_INITIALIZED_EVENT) {
+                    deliver(null, Type.INITIALIZED, null);
+                }
+            });
+        }
+
+        @Override
+        public void start() {
+            start(StartMode.NORMAL);
+        }
+
+        @Override
+        public boolean containsNode(String node) {
+            return nodes.containsKey(ZKPaths.makePath(path, node));
+        }
+
+        @Override
+        public void stop() {
+            started = false;
+            List<MemoryChildrenWatch> pathWatches = watches.get(path);
+            if (pathWatches != null) {
+                pathWatches.remove(this);
+            }
+        }
+
+        private void dispatch(String childPath, Type type, byte[] data) {
+            try {
+                eventExecutor.execute(() -> deliver(childPath, type, data));
+            } catch (RejectedExecutionException e) {
+                LOGGER.error(String.format("memory coordination closed, drop event of path [%s]",
+                    childPath));
+            }
+        }
+
+        private void deliver(String childPath, Type type, byte[] data) {
+            if (!started) {
+                return;
+            }
+            ChildData childData = childPath == null ? null
+                : new ChildData(childPath, null, cacheData ? data : null);
+            try {
+                listener.childEvent(PathChildrenEvent
+                    .createPathChildrenEvent(new PathChildrenCacheEvent(type, childData)));
+            } catch (Exception e) {
+                LOGGER.error(String.format("memory coordination deliver event error! path [%s]",
+                    childPath), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.lc.prestolimiter.coordination;
+
+//事务修改中的一个节点：以新的数据替换节点原有的数据.
+public class NodeData {
+
+    private final String path;
+    private final byte[] data;
+
+    public NodeData(String path, byte[] data) {
+        this.path = path;
+        this.data = data;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,27 @@
+package com.lc.prestolimiter.coordination;
+
+//事务移动中的一个节点：删除源节点，并以新的数据创建目标节点.
+public class NodeMove {
+
+    private final String fromPath;
+    private final String toPath;
+    private final byte[] data;
+
+    public NodeMove(String fromPath, String toPath, byte[] data) {
+        this.fromPath = fromPath;
+        this.toPath = toPath;
+        this.data = data;
+    }
+
+    public String getFromPath() {
+        return fromPath;
+    }
+
+    public String getToPath() {
+        return toPath;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,17 @@
+package com.lc.prestolimiter.coordination;
+
+/**
+ * 对单个节点数据变化的监听.
+ */
+public interface NodeWatch {
+
+    /**
+     * start watch, the existing data is reported as a change.
+     */
+    void start() throws Exception;
+
+    /**
+     * stop watch quietly.
+     */
+    void stop();
+}
@@ -0,0 +1,24 @@
+package com.lc.prestolimiter.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 累加计数器，多线程并发累加时不竞争同一个变量.
+ */
+public class Counter implements CounterMBean {
+
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long value) {
+        count.add(value);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,20 @@
+package com.lc.prestolimiter.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 读取时才计算的瞬时值，如队列长度.
+ */
+public class Gauge implements GaugeMBean {
+
+    private final LongSupplier supplier;
+
+    public Gauge(LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public long getValue() {
+        return supplier.getAsLong();
+    }
+}
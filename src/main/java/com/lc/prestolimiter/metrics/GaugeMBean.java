@@ -0,0 +1,6 @@
+package com.lc.prestolimiter.metrics;
+
+public interface GaugeMBean {
+
+    long getValue();
+}
@@ -0,0 +1,73 @@
+package com.lc.prestolimiter.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 将指标注册为JMX MBean，对象名为{@code <domain>:type=<Counter|Histogram|Gauge>,name=<指标名>}.
+ * 注册失败只记录日志，不影响指标的记录.
+ */
+public class JmxMetricsRegistry implements MetricsRegistry {
+
+    private static final Logger LOGGER = LoggerFactory
+        .getLogger(JmxMetricsRegistry.class.getName());
+    private static final JmxMetricsRegistry DEFAULT =
+        new JmxMetricsRegistry("com.lc.prestolimiter");
+
+    private final String domain;
+    private final MBeanServer mBeanServer;
+    private final ConcurrentMap<String, Counter> counters;
+    private final ConcurrentMap<String, Histogram> histograms;
+
+    public JmxMetricsRegistry(String domain) {
+        this.domain = domain;
+        this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        this.counters = new ConcurrentHashMap<>();
+        this.histograms = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 进程内默认的注册表，未指定注册表的服务都使用它.
+     */
+    public static JmxMetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> register(new Counter(), "Counter", key));
+    }
+
+    @Override
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> register(new Histogram(), "Histogram", key));
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier supplier) {
+        register(new Gauge(supplier), "Gauge", name);
+    }
+
+    private synchronized <T> T register(T mBean, String type, String name) {
+        try {
+            ObjectName objectName = new ObjectName(
+                String.format("%s:type=%s,name=%s", domain, type, ObjectName.quote(name)));
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(mBean, objectName);
+        } catch (JMException e) {
+            LOGGER.error(String.format(
+                "presto limiter register metric [%s] fail! the error is [%s]", name,
+                e.getMessage()));
+        }
+        return mBean;
+    }
+}
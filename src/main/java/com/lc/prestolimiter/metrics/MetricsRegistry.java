@@ -0,0 +1,19 @@
+package com.lc.prestolimiter.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 指标注册表，同名的计数器与直方图只创建一次，多个服务实例共用同一个注册表时指标合并.
+ * 服务在创建时取得指标对象并保存在字段中，记录时不再查找注册表.
+ */
+public interface MetricsRegistry {
+
+    Counter counter(String name);
+
+    Histogram histogram(String name);
+
+    /**
+     * 注册瞬时值，同名的已有瞬时值被替换，如消费者重新选举后由新的消费服务提供队列长度.
+     */
+    void gauge(String name, LongSupplier supplier);
+}
@@ -1,17 +1,32 @@
 package com.lc.prestolimiter.service;
 
+import com.lc.prestolimiter.Exception.PrestoLimiterException;
 import com.lc.prestolimiter.Producer.ProducerService;
 import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
 import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
 import com.lc.prestolimiter.common.Switchable;
 import com.lc.prestolimiter.consumer.RegisterService;
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import com.lc.prestolimiter.coordination.InstrumentedCoordinationBackend;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeWatch;
+import com.lc.prestolimiter.metrics.JmxMetricsRegistry;
+import com.lc.prestolimiter.metrics.MetricsRegistry;
+import com.lc.prestolimiter.zookeeper.common.CuratorCoordinationBackend;
+import com.lc.prestolimiter.zookeeper.impl.LimiterConfigNodeListener;
 import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
-import org.apache.curator.framework.imps.CuratorFrameworkState;
 import org.apache.curator.retry.RetryNTimes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * presto limiter服务.该服务的主要功能是通过将所有端访问presto的请求统一管理起来，来限制对presto集群的并发访问量。
@@ -26,14 +41,21 @@ import org.apache.curator.retry.RetryNTimes;
  * 查询优先级区间：【1-100】
  * 消费者为高于一定优先级的请求预留了一定的资源，低优先级的请求无法使用所有的资源，保证了线上高优先级的任务能够及时执行。
  * 使用服务时先初始化PrestoLimiterService实例，并调用{@code start}，然后在查询的过程中调用{@code getExecutePermition}方法，
+ * 或者调用{@code acquireAsync}异步等待，排队中的请求不占用线程，
  * 一但获取执行权限成功，无论后面的查询是否成功，都要调用{@code deleteExecutePermition}方法释放资源。
  */
 public class PrestoLimiterService implements Switchable {
 
-    private final CuratorFramework client;
+    private static final Logger LOGGER = LoggerFactory
+        .getLogger(PrestoLimiterService.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final CoordinationBackend backend;
     private final ProducerService producerService;
     private final RegisterService consumerRegisterService;
     private final boolean consumable;
+    private final LimiterConfigNodeListener configListener;
+    private NodeWatch configWatch;
 
     /**
      * 创建一个presto limiter服务，并设置当前进程能否作为消费者.
@@ -41,41 +63,61 @@ public class PrestoLimiterService implements Switchable {
      * @param consumable 是否可作为消费者，一般使用线上的机器作为消费者，测试以及其他的机器由于不稳定，不要设置为消费者.
      */
     public PrestoLimiterService(boolean consumable) throws UnknownHostException {
-        client = CuratorFrameworkFactory.newClient(
+        this(consumable, new CuratorCoordinationBackend(CuratorFrameworkFactory.newClient(
             NativeProperties.getZkAddr(),
             NativeProperties.getZkSessionTimeoutMs(),
             NativeProperties.getZkCnxnTimeoutMs(),
             new RetryNTimes(NativeProperties.getZkRetryTimes(),
-                NativeProperties.getZkSleepMsBetweenRetries()));
-        this.producerService = new ProducerService(client);
-        this.consumerRegisterService = new RegisterService(client);
+                NativeProperties.getZkSleepMsBetweenRetries()))));
+    }
+
+    /**
+     * 使用指定的协调实现创建presto limiter服务，单机部署或压测时可以使用{@link MemoryCoordinationBackend}.
+     *
+     * @param consumable 是否可作为消费者.
+     * @param backend 协调实现，多个服务实例共享同一个内存实现即可在单进程内协作.
+     */
+    public PrestoLimiterService(boolean consumable, CoordinationBackend backend)
+        throws UnknownHostException {
+        this(consumable, backend, JmxMetricsRegistry.getDefault());
+    }
+
+    /**
+     * 使用指定的协调实现与指标注册表创建presto limiter服务.
+     *
+     * @param consumable 是否可作为消费者.
+     * @param backend 协调实现.
+     * @param metricsRegistry 指标注册表，默认注册为JMX MBean.
+     */
+    public PrestoLimiterService(boolean consumable, CoordinationBackend backend,
+        MetricsRegistry metricsRegistry) throws UnknownHostException {
+        QueryType.load(NativeProperties.getQueryTypeProperties());
+        this.backend = new InstrumentedCoordinationBackend(backend, metricsRegistry);
+        this.producerService = new ProducerService(this.backend, metricsRegistry);
+        this.consumerRegisterService = new RegisterService(this.backend, metricsRegistry);
         this.consumable = consumable;
+        this.configListener = new LimiterConfigNodeListener(consumerRegisterService);
     }
 
     /**
      * start the service.
      */
     public boolean start() {
-        synchronized (client) {
-            if (client.getState() == CuratorFrameworkState.LATENT) {
-                client.start();
-            }
-        }
-        return this.producerService.start()
-            && (consumable ? this.consumerRegisterService.start() : true);
+        backend.start();
+        return loadRemoteConfig() && this.producerService.start()
+            && (consumable ? this.consumerRegisterService.start() : true) && watchRemoteConfig();
     }
 
     /**
      * stop the service.
      */
     public boolean stop() {
+        if (this.configWatch != null) {
+            this.configWatch.stop();
+        }
         this.consumerRegisterService.stop();
         this.producerService.stop();
-        synchronized (client) {
-            if (client.getState() == CuratorFrameworkState.STARTED) {
-                client.close();
-            }
-        }
+        backend.close();
         return true;
     }
 
@@ -84,7 +126,7 @@ public class PrestoLimiterService implements Switchable {
      *
      * @param priority 查询的优先级.
      * @param queryType 查询的类型.
-     * @return zk上可执行节点的名称，如发生异常，返回null.
+     * @return zk上可执行节点的路径，如超时或发生异常，返回null.
      */
     public String getExecutePermission(int priority, QueryType queryType) {
         return getExecutePermissionWithTimeoutMills(priority, queryType,
@@ -97,14 +139,214 @@ public class PrestoLimiterService implements Switchable {
      * @param priority 查询的优先级.
      * @param queryType 查询的类型.
      * @param waitTimeoutMills 等待超时, 默认1小时, 最大6小时.
-     * @return zk上可执行节点的名称，如发生异常，返回null.
+     * @return zk上可执行节点的路径，如超时或发生异常，返回null.
      */
     public String getExecutePermissionWithTimeoutMills(int priority, QueryType queryType,
         long waitTimeoutMills) {
-        if (priority <= 0 || queryType == null || waitTimeoutMills <= 0) {
+        if (queryType == null) {
+            return null;
+        }
+        return getExecutePermissionWithTimeoutMills(priority, queryType, waitTimeoutMills,
+            queryType.getWeight());
+    }
+
+    /**
+     * get execute permission with wait time out and weight.
+     *
+     * @param priority 查询的优先级.
+     * @param queryType 查询的类型.
+     * @param waitTimeoutMills 等待超时, 默认1小时, 最大6小时.
+     * @param weight 占用的执行资源个数, 不超过{@code presto.limit.cnt}，多集群时不超过最大的集群限制.
+     * @return zk上可执行节点的路径，如超时或发生异常，返回null.
+     */
+    public String getExecutePermissionWithTimeoutMills(int priority, QueryType queryType,
+        long waitTimeoutMills, int weight) {
+        if (priority <= 0 || queryType == null || waitTimeoutMills <= 0 || !isLegalWeight(weight)) {
+            return null;
+        }
+        return producerService.getExecutePermission(priority, queryType, waitTimeoutMills, weight);
+    }
+
+    /**
+     * 异步获取执行权限，不会挂起调用线程.
+     *
+     * @param priority 查询的优先级.
+     * @param queryType 查询的类型.
+     * @param waitTimeoutMills 等待超时, 最大6小时.
+     * @return 获得许可后完成的future，超时以{@link java.util.concurrent.TimeoutException}异常完成，
+     *     参数非法或注册失败以{@link PrestoLimiterException}异常完成，
+     *     开启{@code producer.admission.enabled}且预计的排队时间超过等待超时时不注册节点，
+     *     以{@link com.lc.prestolimiter.Exception.AdmissionRejectedException}异常完成，其中带有建议的重试间隔.
+     */
+    public CompletableFuture<Permit> acquireAsync(int priority, QueryType queryType,
+        long waitTimeoutMills) {
+        return acquireAsync(priority, queryType, waitTimeoutMills,
+            queryType == null ? 1 : queryType.getWeight());
+    }
+
+    /**
+     * 异步获取占用多个执行资源的执行权限.
+     *
+     * @param weight 占用的执行资源个数, 不超过{@code presto.limit.cnt}，多集群时不超过最大的集群限制.
+     * @see #acquireAsync(int, QueryType, long)
+     */
+    public CompletableFuture<Permit> acquireAsync(int priority, QueryType queryType,
+        long waitTimeoutMills, int weight) {
+        if (priority <= 0 || queryType == null || waitTimeoutMills <= 0 || !isLegalWeight(weight)) {
+            CompletableFuture<Permit> future = new CompletableFuture<>();
+            future.completeExceptionally(new PrestoLimiterException(String.format(
+                "illegal acquire arguments, priority [%d], queryType [%s], waitTimeoutMills [%d], "
+                    + "weight [%d]", priority, queryType, waitTimeoutMills, weight)));
+            return future;
+        }
+        return producerService.acquireAsync(priority, queryType, waitTimeoutMills, weight);
+    }
+
+    /**
+     * 不排队的快速获取，只在开启{@code consumer.fastPath.enabled}时可用.
+     * 消费者在没有请求排队时发布空闲资源，一次zk事务取走空闲资源并创建执行节点，不创建注册节点，
+     * 资源不足时一次请求就返回，不经过注册、等待、超时、删除的过程.
+     * 获得的许可与其他许可一样需要调用{@code deleteExecutePermition}释放.
+     *
+     * @param priority 查询的优先级，低于{@code presto.limit.highPriority.minScore}时不能使用预留的资源.
+     * @param queryType 查询的类型，有并发限制的类型总是返回null.
+     * @return 获得的许可，不能立即获得、参数非法或者未开启时返回null.
+     */
+    public Permit tryAcquire(int priority, QueryType queryType) {
+        if (priority <= 0 || queryType == null || !isLegalWeight(queryType.getWeight())) {
             return null;
         }
-        return producerService.getExecutePermission(priority, queryType, waitTimeoutMills);
+        return producerService.tryAcquire(priority, queryType, queryType.getWeight());
+    }
+
+    /**
+     * 以租户的身份异步获取执行权限，消费者开启公平调度({@code consumer.fair.enabled})时按租户的权重分配资源.
+     *
+     * @param tenant 租户名称，只允许[0-9a-zA-Z-].
+     * @see #acquireAsync(int, QueryType, long)
+     */
+    public CompletableFuture<Permit> acquireAsync(int priority, QueryType queryType,
+        long waitTimeoutMills, String tenant) {
+        return acquireAsync(priority, queryType, waitTimeoutMills,
+            queryType == null ? 1 : queryType.getWeight(), Collections.emptyList(), tenant);
+    }
+
+    /**
+     * 异步获取只能在指定的presto集群中执行的执行权限，消费者在其中选择负载最低的集群，
+     * 分配的集群通过{@link Permit#getCluster()}返回.
+     *
+     * @param weight 占用的执行资源个数, 不超过指定集群中最大的限制.
+     * @param clusters {@code presto.clusters}中配置的集群名称，为null或空表示任意集群.
+     * @see #acquireAsync(int, QueryType, long, int)
+     */
+    public CompletableFuture<Permit> acquireAsync(int priority, QueryType queryType,
+        long waitTimeoutMills, int weight, Collection<String> clusters) {
+        return acquireAsync(priority, queryType, waitTimeoutMills, weight, clusters, null);
+    }
+
+    /**
+     * 以租户的身份异步获取只能在指定的presto集群中执行的执行权限.
+     *
+     * @param clusters {@code presto.clusters}中配置的集群名称，为null或空表示任意集群.
+     * @param tenant 租户名称，只允许[0-9a-zA-Z-]，为null表示不指定租户.
+     * @see #acquireAsync(int, QueryType, long, int)
+     */
+    public CompletableFuture<Permit> acquireAsync(int priority, QueryType queryType,
+        long waitTimeoutMills, int weight, Collection<String> clusters, String tenant) {
+        if (tenant != null && !RegisterObjectCodec.isTenantName(tenant)) {
+            return illegalArgument(String.format("illegal tenant [%s]", tenant));
+        }
+        int clusterMask = 0;
+        if (clusters != null) {
+            for (String cluster : clusters) {
+                int index = NativeProperties.getPrestoClusterIndex(cluster);
+                if (index < 0) {
+                    return illegalArgument(String.format("unknown presto cluster [%s]", cluster));
+                }
+                clusterMask |= 1 << index;
+            }
+        }
+        if (priority <= 0 || queryType == null || waitTimeoutMills <= 0
+            || !isLegalWeight(weight, clusterMask)) {
+            return illegalArgument(String.format(
+                "illegal acquire arguments, priority [%d], queryType [%s], waitTimeoutMills [%d], "
+                    + "weight [%d], clusters [%s]", priority, queryType, waitTimeoutMills, weight,
+                clusters));
+        }
+        return producerService
+            .acquireAsync(priority, queryType, waitTimeoutMills, weight, clusterMask, tenant);
+    }
+
+    private static CompletableFuture<Permit> illegalArgument(String message) {
+        CompletableFuture<Permit> future = new CompletableFuture<>();
+        future.completeExceptionally(new PrestoLimiterException(message));
+        return future;
+    }
+
+    //启动前同步读取一次zk配置节点，保证节点中定义的查询类型在处理节点之前已经注册.
+    private boolean loadRemoteConfig() {
+        String path = NativeProperties.getLimiterConfigPath();
+        try {
+            if (!path.isEmpty() && backend.exists(path)) {
+                configListener.nodeChange(new String(backend.getData(path), UTF_8));
+            }
+            return true;
+        } catch (Exception e) {
+            LOGGER.error(String.format(
+                "presto limiter load config from [%s] fail! the error is [%s]", path,
+                e.getMessage()));
+            return false;
+        }
+    }
+
+    //之后配置节点的修改在运行时生效，不需要重启.
+    private boolean watchRemoteConfig() {
+        String path = NativeProperties.getLimiterConfigPath();
+        if (path.isEmpty()) {
+            return true;
+        }
+        configWatch = backend.watchNode(path, configListener);
+        try {
+            configWatch.start();
+            return true;
+        } catch (Exception e) {
+            LOGGER.error(String.format(
+                "presto limiter watch config [%s] fail! the error is [%s]", path,
+                e.getMessage()));
+            return false;
+        }
+    }
+
+    //不限集群的请求.
+    private static boolean isLegalWeight(int weight) {
+        return isLegalWeight(weight, 0);
+    }
+
+    //多集群时不使用总资源数，超过所有可用集群限制的请求永远不会被满足.
+    private static boolean isLegalWeight(int weight, int clusterMask) {
+        if (weight <= 0) {
+            return false;
+        }
+        if (NativeProperties.getPrestoClusterCount() == 0) {
+            return weight <= NativeProperties.getPrestoLimitCnt();
+        }
+        for (int cluster = 0; cluster < NativeProperties.getPrestoClusterCount(); cluster++) {
+            if ((clusterMask == 0 || (clusterMask & (1 << cluster)) != 0)
+                && weight <= NativeProperties.getPrestoClusterLimit(cluster)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 执行许可的心跳，开启{@code producer.consume.heartbeatMills}时持有者需要至少每半个心跳超时调用一次.
+     *
+     * @param path 获得的许可的路径.
+     * @return 许可已释放或已因没有心跳被回收返回false，此时应停止查询.
+     */
+    public boolean heartbeat(String path) {
+        return !StringUtils.isEmpty(path) && producerService.heartbeat(path);
     }
 
     /**
@@ -0,0 +1,209 @@
+package com.lc.prestolimiter.zookeeper.common;
+
+import com.lc.prestolimiter.coordination.ChildrenWatch;
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeData;
+import com.lc.prestolimiter.coordination.NodeMove;
+import com.lc.prestolimiter.coordination.NodeWatch;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.curator.framework.api.transaction.OperationType;
+import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+
+/**
+ * 基于zookeeper的协调实现.
+ */
+public class CuratorCoordinationBackend implements CoordinationBackend {
+
+    private final CuratorFramework client;
+
+    public CuratorCoordinationBackend(CuratorFramework client) {
+        this.client = client;
+    }
+
+    public CuratorFramework getClient() {
+        return client;
+    }
+
+    @Override
+    public void start() {
+        synchronized (client) {
+            if (client.getState() == CuratorFrameworkState.LATENT) {
+                client.start();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (client) {
+            if (client.getState() == CuratorFrameworkState.STARTED) {
+                client.close();
+            }
+        }
+    }
+
+    @Override
+    public String createSequential(String parentPath, String prefix, byte[] data,
+        boolean ephemeral) throws Exception {
+        CreateMode mode =
+            ephemeral ? CreateMode.EPHEMERAL_SEQUENTIAL : CreateMode.PERSISTENT_SEQUENTIAL;
+        String path = client.create().creatingParentsIfNeeded().withMode(mode)
+            .forPath(parentPath + "/" + prefix, data);
+        return ZKPaths.getNodeFromPath(path);
+    }
+
+    @Override
+    public List<String> createSequential(String parentPath, List<String> prefixes, byte[] data,
+        boolean ephemeral) throws Exception {
+        if (prefixes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            return commitCreateSequential(parentPath, prefixes, data, ephemeral);
+        } catch (KeeperException.NoNodeException e) {
+            //事务中的创建不会自动创建父路径，创建后重试一次.
+            ZKPaths.mkdirs(client.getZookeeperClient().getZooKeeper(), parentPath);
+            return commitCreateSequential(parentPath, prefixes, data, ephemeral);
+        }
+    }
+
+    @Override
+    public boolean tryLock(String path, byte[] data) throws Exception {
+        try {
+            client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                .forPath(path, data);
+            return true;
+        } catch (KeeperException.NodeExistsException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean exists(String path) throws Exception {
+        return client.checkExists().forPath(path) != null;
+    }
+
+    @Override
+    public List<String> getChildren(String path) throws Exception {
+        try {
+            return client.getChildren().forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public byte[] getData(String path) throws Exception {
+        return client.getData().forPath(path);
+    }
+
+    @Override
+    public void setData(String path, byte[] data) throws Exception {
+        client.setData().forPath(path, data);
+    }
+
+    @Override
+    public void setData(List<NodeData> updates) throws Exception {
+        if (updates.isEmpty()) {
+            return;
+        }
+        CuratorTransaction transaction = client.inTransaction();
+        for (NodeData update : updates) {
+            transaction = transaction.setData().forPath(update.getPath(), update.getData()).and();
+        }
+        ((CuratorTransactionFinal) transaction).commit();
+    }
+
+    @Override
+    public void delete(String path) throws Exception {
+        client.delete().forPath(path);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String path) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            client.delete().inBackground((curator, event) -> {
+                Code code = Code.get(event.getResultCode());
+                if (code == Code.OK) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(KeeperException.create(code, path));
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public void move(List<NodeMove> moves) throws Exception {
+        if (moves.isEmpty()) {
+            return;
+        }
+        CuratorTransaction transaction = client.inTransaction();
+        for (NodeMove move : moves) {
+            transaction = transaction.delete().forPath(move.getFromPath()).and()
+                .create().forPath(move.getToPath(), move.getData()).and();
+        }
+        ((CuratorTransactionFinal) transaction).commit();
+    }
+
+    @Override
+    public String deleteAndCreateSequential(List<String> deletePaths, String parentPath,
+        String prefix, byte[] data) throws Exception {
+        CuratorTransaction transaction = client.inTransaction();
+        for (String deletePath : deletePaths) {
+            transaction = transaction.delete().forPath(deletePath).and();
+        }
+        Collection<CuratorTransactionResult> results = transaction.create()
+            .withMode(CreateMode.PERSISTENT_SEQUENTIAL).forPath(parentPath + "/" + prefix, data)
+            .and().commit();
+        for (CuratorTransactionResult result : results) {
+            if (result.getType() == OperationType.CREATE) {
+                return ZKPaths.getNodeFromPath(result.getResultPath());
+            }
+        }
+        throw new IllegalStateException("no create result in transaction");
+    }
+
+    private List<String> commitCreateSequential(String parentPath, List<String> prefixes,
+        byte[] data, boolean ephemeral) throws Exception {
+        CreateMode mode =
+            ephemeral ? CreateMode.EPHEMERAL_SEQUENTIAL : CreateMode.PERSISTENT_SEQUENTIAL;
+        CuratorTransaction transaction = client.inTransaction();
+        for (String prefix : prefixes) {
+            transaction = transaction.create().withMode(mode)
+                .forPath(parentPath + "/" + prefix, data).and();
+        }
+        List<String> nodes = new ArrayList<>(prefixes.size());
+        for (CuratorTransactionResult result : ((CuratorTransactionFinal) transaction).commit()) {
+            nodes.add(ZKPaths.getNodeFromPath(result.getResultPath()));
+        }
+        return nodes;
+    }
+
+    @Override
+    public ChildrenWatch watchChildren(String path, PathChangeListener listener,
+        boolean cacheData) {
+        return new PathChangeWatcher(client, path, listener, cacheData);
+    }
+
+    @Override
+    public NodeWatch watchNode(String path, NodeChangeListener listener) {
+        return new NodeChangeWatcher(client, path, listener);
+    }
+}
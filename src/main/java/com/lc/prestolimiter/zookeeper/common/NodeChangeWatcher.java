@@ -1,11 +1,16 @@
 package com.lc.prestolimiter.zookeeper.common;
 
+import com.lc.prestolimiter.coordination.NodeWatch;
+import java.nio.charset.Charset;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.NodeCache;
 import org.apache.curator.utils.CloseableUtils;
 import org.apache.curator.utils.PathUtils;
 
-public class NodeChangeWatcher {
+public class NodeChangeWatcher implements NodeWatch {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private final CuratorFramework curator;
     private final String nodePath;
@@ -27,22 +32,24 @@ public class NodeChangeWatcher {
     /**
      * start listener and add callback.
      */
+    @Override
     public void start() throws Exception {
-        assert nodePath != null && nodePath.isEmpty();
+        assert nodePath != null && !nodePath.isEmpty();
 
         cache = new NodeCache(curator, nodePath);
 
         cache.getListenable().addListener(() -> {
-            byte[] bytes = cache.getCurrentData().getData();
-            nodeChangeListener.nodeChange(byte2String(bytes));
+            ChildData currentData = cache.getCurrentData(); //节点被删除时为null.
+            nodeChangeListener.nodeChange(byte2String(
+                currentData == null ? null : currentData.getData()));
         });
         cache.start();
     }
 
     private String byte2String(byte[] bytes) {
         if (bytes != null) {
-            String data = new String(bytes);
-            if (data != null && !data.trim().isEmpty()) {
+            String data = new String(bytes, UTF_8);
+            if (!data.trim().isEmpty()) {
                 return data;
             }
         }
@@ -52,6 +59,7 @@ public class NodeChangeWatcher {
     /**
      * close watcher cache quietly.
      */
+    @Override
     public void stop() {
         if (cache != null) {
             CloseableUtils.closeQuietly(cache);
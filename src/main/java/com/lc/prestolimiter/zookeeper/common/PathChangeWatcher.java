@@ -1,5 +1,6 @@
 package com.lc.prestolimiter.zookeeper.common;
 
+import com.lc.prestolimiter.coordination.ChildrenWatch;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
@@ -7,12 +8,14 @@ import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
 import org.apache.curator.utils.CloseableUtils;
 import org.apache.curator.utils.PathUtils;
+import org.apache.curator.utils.ZKPaths;
 
-public class PathChangeWatcher implements PathChildrenCacheListener {
+public class PathChangeWatcher implements PathChildrenCacheListener, ChildrenWatch {
 
     private final CuratorFramework curator;
     private final String path;
     private PathChangeListener pathChangeListener;
+    private final boolean cacheData;
 
     private PathChildrenCache cache;
 
@@ -21,20 +24,30 @@ public class PathChangeWatcher implements PathChildrenCacheListener {
      */
     public PathChangeWatcher(CuratorFramework curator,
         String path, PathChangeListener pathChangeListener) {
+        this(curator, path, pathChangeListener, false);
+    }
+
+    /**
+     * constructor, cache the children data if the listener need to read it.
+     */
+    public PathChangeWatcher(CuratorFramework curator,
+        String path, PathChangeListener pathChangeListener, boolean cacheData) {
         this.curator = curator;
         PathUtils.validatePath(path);
         this.path = path;
         this.pathChangeListener = pathChangeListener;
+        this.cacheData = cacheData;
     }
 
     /**
      * start path children cache.
      */
+    @Override
     public void start(StartMode startMode) throws Exception {
 
         assert path != null && !path.trim().isEmpty();
 
-        cache = new PathChildrenCache(curator, path, false);
+        cache = new PathChildrenCache(curator, path, cacheData);
 
         cache.getListenable().addListener(this);
 
@@ -44,13 +57,23 @@ public class PathChangeWatcher implements PathChildrenCacheListener {
     /**
      * start with normal.
      */
+    @Override
     public void start() throws Exception {
-        this.start();
+        this.start(StartMode.NORMAL);
+    }
+
+    /**
+     * check the local cache whether the child node exists, no zk round trip.
+     */
+    @Override
+    public boolean containsNode(String node) {
+        return cache != null && cache.getCurrentData(ZKPaths.makePath(path, node)) != null;
     }
 
     /**
      * close cache quietly.
      */
+    @Override
     public void stop() {
         if (cache != null) {
             CloseableUtils.closeQuietly(cache);
@@ -1,7 +1,7 @@
 package com.lc.prestolimiter.zookeeper.impl;
 
-import com.alibaba.fastjson.JSON;
 import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
 import com.lc.prestolimiter.consumer.ConsumeService;
 import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
 import com.lc.prestolimiter.zookeeper.common.PathChildrenEvent;
@@ -13,6 +13,8 @@ public class ConsumerConsumePathListener implements PathChangeListener {
 
     private ConsumeService consumeService;
     private AtomicInteger initialized;
+    //事件串行处理，消费服务入队时复制字段，解码对象可以复用.
+    private final RegisterObject holder = new RegisterObject();
 
     public ConsumerConsumePathListener(ConsumeService consumeService,
         AtomicInteger initialized) {
@@ -23,13 +25,17 @@ public class ConsumerConsumePathListener implements PathChangeListener {
     @Override
     public synchronized void childEvent(PathChildrenEvent pathChildrenEvent) {
         if (pathChildrenEvent.getEventType() == Type.CHILD_REMOVED) {
-            RegisterObject registerObject = JSON
-                .parseObject(pathChildrenEvent.getData(), RegisterObject.class);
-            consumeService.deleteConsumeNodeFromQueue(registerObject);
+            consumeService.deleteConsumeNodeFromQueue(pathChildrenEvent.getNode());
         } else if (pathChildrenEvent.getEventType() == Type.CHILD_ADDED) {
-            RegisterObject registerObject = JSON
-                .parseObject(pathChildrenEvent.getData(), RegisterObject.class);
+            RegisterObject registerObject = RegisterObjectCodec
+                .decode(pathChildrenEvent.getData(), holder);
+            registerObject.setNode(pathChildrenEvent.getNode());
             consumeService.addConsumeNodeToQueue(registerObject);
+        } else if (pathChildrenEvent.getEventType() == Type.CHILD_UPDATED) {
+            RegisterObject registerObject = RegisterObjectCodec
+                .decode(pathChildrenEvent.getData(), holder);
+            registerObject.setNode(pathChildrenEvent.getNode());
+            consumeService.updateConsumeNodeInQueue(registerObject);
         } else if (pathChildrenEvent.getEventType() == Type.INITIALIZED) {
             if (this.initialized.decrementAndGet() == 0) {
                 consumeService.setCanConsume(true);
@@ -0,0 +1,22 @@
+package com.lc.prestolimiter.zookeeper.impl;
+
+import com.lc.prestolimiter.consumer.ConsumeService;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import com.lc.prestolimiter.zookeeper.common.PathChildrenEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent.Type;
+
+public class ConsumerFastPathListener implements PathChangeListener {
+
+    private ConsumeService consumeService;
+
+    public ConsumerFastPathListener(ConsumeService consumeService) {
+        this.consumeService = consumeService;
+    }
+
+    @Override
+    public void childEvent(PathChildrenEvent pathChildrenEvent) {
+        if (pathChildrenEvent.getEventType() == Type.CHILD_REMOVED) {
+            consumeService.onFastPathSlotRemoved(pathChildrenEvent.getNode());
+        }
+    }
+}
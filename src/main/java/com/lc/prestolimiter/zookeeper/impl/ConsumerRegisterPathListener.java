@@ -1,7 +1,7 @@
 package com.lc.prestolimiter.zookeeper.impl;
 
-import com.alibaba.fastjson.JSON;
 import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
 import com.lc.prestolimiter.consumer.ConsumeService;
 import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
 import com.lc.prestolimiter.zookeeper.common.PathChildrenEvent;
@@ -12,6 +12,8 @@ public class ConsumerRegisterPathListener implements PathChangeListener {
 
     private ConsumeService consumeService;
     private AtomicInteger initialized;
+    //事件串行处理，消费服务入队时复制字段，解码对象可以复用.
+    private final RegisterObject holder = new RegisterObject();
 
     public ConsumerRegisterPathListener(ConsumeService consumeService, AtomicInteger initialized) {
         this.consumeService = consumeService;
@@ -22,13 +24,20 @@ public class ConsumerRegisterPathListener implements PathChangeListener {
     @Override
     public synchronized void childEvent(PathChildrenEvent pathChildrenEvent) {
         if (pathChildrenEvent.getEventType() == Type.CHILD_REMOVED) {
-            RegisterObject registerObject = JSON
-                .parseObject(pathChildrenEvent.getData(), RegisterObject.class);
-            this.consumeService.deleteRegisterNodeFromQueue(registerObject);
+            this.consumeService.deleteRegisterNodeFromQueue(pathChildrenEvent.getNode());
         } else if (pathChildrenEvent.getEventType() == Type.CHILD_ADDED) {
-            RegisterObject registerObject = JSON
-                .parseObject(pathChildrenEvent.getData(), RegisterObject.class);
-            this.consumeService.addRegisterNodeToQueue(registerObject);
+            String node = pathChildrenEvent.getNode();
+            //调度属性在节点名称中，只有升级前创建的节点需要读取数据.
+            if (!RegisterObjectCodec.decodeNodeName(node, holder)) {
+                byte[] data = pathChildrenEvent.getData() != null ? pathChildrenEvent.getData()
+                    : this.consumeService.readRegisterNodeData(node);
+                if (data == null) {
+                    return;
+                }
+                RegisterObjectCodec.decode(data, holder);
+            }
+            holder.setNode(node);
+            this.consumeService.addRegisterNodeToQueue(holder);
         } else if (pathChildrenEvent.getEventType() == Type.INITIALIZED) {
             if (this.initialized.decrementAndGet() == 0) {
                 consumeService.setCanConsume(true);
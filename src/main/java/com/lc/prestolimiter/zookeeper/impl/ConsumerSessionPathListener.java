@@ -0,0 +1,30 @@
+package com.lc.prestolimiter.zookeeper.impl;
+
+import com.lc.prestolimiter.consumer.ConsumeService;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import com.lc.prestolimiter.zookeeper.common.PathChildrenEvent;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent.Type;
+
+public class ConsumerSessionPathListener implements PathChangeListener {
+
+    private ConsumeService consumeService;
+    private AtomicInteger initialized;
+
+    public ConsumerSessionPathListener(ConsumeService consumeService,
+        AtomicInteger initialized) {
+        this.consumeService = consumeService;
+        this.initialized = initialized;
+    }
+
+    @Override
+    public synchronized void childEvent(PathChildrenEvent pathChildrenEvent) {
+        if (pathChildrenEvent.getEventType() == Type.CHILD_REMOVED) {
+            consumeService.reclaimDeadOwnerNodes();
+        } else if (pathChildrenEvent.getEventType() == Type.INITIALIZED) {
+            if (this.initialized.decrementAndGet() == 0) {
+                consumeService.setCanConsume(true);
+            }
+        }
+    }
+}
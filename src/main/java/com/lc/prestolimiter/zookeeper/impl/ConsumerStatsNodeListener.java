@@ -0,0 +1,21 @@
+package com.lc.prestolimiter.zookeeper.impl;
+
+import com.lc.prestolimiter.Producer.ProducerService;
+import com.lc.prestolimiter.zookeeper.common.NodeChangeListener;
+
+/**
+ * 消费者排队统计节点的监听，节点被删除(消费者退出)时回调null.
+ */
+public class ConsumerStatsNodeListener implements NodeChangeListener {
+
+    private final ProducerService producerService;
+
+    public ConsumerStatsNodeListener(ProducerService producerService) {
+        this.producerService = producerService;
+    }
+
+    @Override
+    public void nodeChange(String data) {
+        producerService.updateConsumerStats(data);
+    }
+}
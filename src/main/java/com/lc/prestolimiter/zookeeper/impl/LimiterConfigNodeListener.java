@@ -0,0 +1,67 @@
+package com.lc.prestolimiter.zookeeper.impl;
+
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.consumer.RegisterService;
+import com.lc.prestolimiter.zookeeper.common.NodeChangeListener;
+import java.io.StringReader;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * zk配置节点的监听，节点数据与limiter.properties格式相同，可以修改全局限制、高优先级预留、各集群的限制以及查询类型.
+ * 节点中没有的限制使用当前值，节点被删除时保持当前值；集群的个数与名称不能在运行时修改.
+ */
+public class LimiterConfigNodeListener implements NodeChangeListener {
+
+    private static final Logger LOGGER = LoggerFactory
+        .getLogger(LimiterConfigNodeListener.class.getName());
+
+    private final RegisterService registerService;
+
+    public LimiterConfigNodeListener(RegisterService registerService) {
+        this.registerService = registerService;
+    }
+
+    @Override
+    public synchronized void nodeChange(String data) {
+        if (data == null) {
+            return;
+        }
+        try {
+            Properties properties = new Properties();
+            properties.load(new StringReader(data));
+            int limitCnt = getInt(properties, "presto.limit.count",
+                NativeProperties.getPrestoLimitCnt());
+            int highPriorityReserved = getInt(properties, "presto.limit.highPriority.reserved",
+                NativeProperties.getPrestoLimitHighPriorityReserved());
+            int highPriorityMinScore = getInt(properties, "presto.limit.highPriority.minScore",
+                NativeProperties.getPrestoLimitHighPriorityMinScore());
+            String[] clusters = NativeProperties.getPrestoClusters();
+            int[] clusterLimits = new int[clusters.length];
+            int[] clusterReserved = new int[clusters.length];
+            for (int i = 0; i < clusters.length; i++) {
+                clusterLimits[i] = getInt(properties, "presto.cluster." + clusters[i] + ".limit",
+                    NativeProperties.getPrestoClusterLimit(i));
+                clusterReserved[i] = getInt(properties,
+                    "presto.cluster." + clusters[i] + ".reserved",
+                    NativeProperties.getPrestoClusterReserved(i));
+            }
+            QueryType.load(properties);
+            NativeProperties.updatePrestoLimits(limitCnt, highPriorityReserved,
+                highPriorityMinScore, clusterLimits, clusterReserved);
+        } catch (Exception e) {
+            LOGGER.error(String.format(
+                "presto limiter apply config [%s] fail, keep the current limits! the error is [%s]",
+                data, e.getMessage()));
+            return;
+        }
+        registerService.applyLimits();
+    }
+
+    private static int getInt(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+}
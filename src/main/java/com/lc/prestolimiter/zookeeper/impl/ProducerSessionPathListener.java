@@ -0,0 +1,22 @@
+package com.lc.prestolimiter.zookeeper.impl;
+
+import com.lc.prestolimiter.Producer.ProducerService;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import com.lc.prestolimiter.zookeeper.common.PathChildrenEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent.Type;
+
+public class ProducerSessionPathListener implements PathChangeListener {
+
+    private ProducerService producerService;
+
+    public ProducerSessionPathListener(ProducerService producerService) {
+        this.producerService = producerService;
+    }
+
+    @Override
+    public void childEvent(PathChildrenEvent pathChildrenEvent) {
+        if (pathChildrenEvent.getEventType() == Type.CHILD_REMOVED) {
+            producerService.renewSession(pathChildrenEvent.getNode());
+        }
+    }
+}
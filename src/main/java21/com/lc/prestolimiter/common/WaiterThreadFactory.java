@@ -0,0 +1,28 @@
+package com.lc.prestolimiter.common;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 调用方阻塞等待许可时使用的线程工厂，Java 21及以上创建虚拟线程，等待许可时不占用平台线程.
+ * 公开的方法需要与src/main/java下的实现保持一致.
+ */
+public class WaiterThreadFactory implements ThreadFactory {
+
+    private final ThreadFactory factory;
+
+    public WaiterThreadFactory(String namePrefix) {
+        this.factory = Thread.ofVirtual().name(namePrefix, 0).factory();
+    }
+
+    /**
+     * 创建的线程是否为虚拟线程.
+     */
+    public static boolean isVirtual() {
+        return true;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        return factory.newThread(runnable);
+    }
+}
@@ -0,0 +1,44 @@
+package com.lc.prestolimiter.common;
+
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.coordination.CoordinationBackend;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 测试用的协调操作：不经过生产者直接创建注册节点，以及等待异步的调度结果.
+ */
+public class CoordinationFixture {
+
+    private static final long AWAIT_MILLS = 10000;
+
+    private CoordinationFixture() {
+    }
+
+    /**
+     * 按生产者的格式创建注册节点.
+     *
+     * @return 节点名称.
+     */
+    public static String register(CoordinationBackend backend, int priority, QueryType queryType,
+        long waitTimeoutMills, int permits) throws Exception {
+        RegisterObject registerObject = new RegisterObject(priority, queryType,
+            System.currentTimeMillis() + waitTimeoutMills);
+        registerObject.setPermits(permits);
+        return backend.createSequential(NativeProperties.getProducerRegisterPath(),
+            RegisterObjectCodec.encodeNodeName(registerObject),
+            RegisterObjectCodec.encode(registerObject), false);
+    }
+
+    /**
+     * 等待条件成立，超时断言失败.
+     */
+    public static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + AWAIT_MILLS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.lc.prestolimiter.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * 测试用的配置：在默认配置上覆盖指定的配置项，写入临时文件后通过{@code limiter.properties}系统属性指定.
+ * 配置在{@link NativeProperties}第一次使用时读取，需要在测试类的{@code @BeforeClass}中调用，
+ * surefire为每个测试类单独启动jvm，各测试类的配置互不影响.
+ */
+public class LimiterPropertiesFixture {
+
+    private LimiterPropertiesFixture() {
+    }
+
+    /**
+     * 覆盖默认配置.
+     *
+     * @param keyValues 依次为配置项与值.
+     */
+    public static void load(String... keyValues) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = LimiterPropertiesFixture.class.getClassLoader()
+            .getResourceAsStream("limiter.properties")) {
+            properties.load(inputStream);
+        }
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            properties.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        File file = File.createTempFile("limiter", ".properties");
+        file.deleteOnExit();
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            properties.store(outputStream, null);
+        }
+        System.setProperty("limiter.properties", file.getAbsolutePath());
+    }
+}
@@ -0,0 +1,39 @@
+package com.lc.prestolimiter.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class LimiterStatsTest {
+
+    @Test
+    public void testEncodeDecode() {
+        int[] bandDepths = new int[LimiterStats.PRIORITY_BAND_COUNT];
+        bandDepths[0] = 7;
+        bandDepths[9] = 3;
+        LimiterStats stats = LimiterStats.decode(
+            new LimiterStats(1500000000000L, 2.5, bandDepths).encode());
+        assertEquals(1500000000000L, stats.getPublishTime());
+        assertEquals(2.5, stats.getGrantRate(), 0);
+        assertEquals(7, stats.getBandDepth(0));
+        assertEquals(0, stats.getBandDepth(5));
+        assertEquals(3, stats.getBandDepth(9));
+        assertNull(LimiterStats.decode(null));
+        assertNull(LimiterStats.decode("1,2,3"));
+        assertNull(LimiterStats.decode("a,1,0,0,0,0,0,0,0,0,0,0"));
+    }
+
+    @Test
+    public void testPredictWait() {
+        int[] bandDepths = new int[LimiterStats.PRIORITY_BAND_COUNT];
+        bandDepths[1] = 10;
+        bandDepths[8] = 4;
+        LimiterStats stats = new LimiterStats(0, 2, bandDepths);
+        //同一段及更高段的请求都排在前面.
+        assertEquals(7000, stats.predictWaitMills(15));
+        assertEquals(2000, stats.predictWaitMills(90));
+        assertEquals(0, stats.predictWaitMills(100));
+        assertEquals(0, new LimiterStats(0, 0, bandDepths).predictWaitMills(1));
+    }
+}
@@ -0,0 +1,65 @@
+package com.lc.prestolimiter.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.alibaba.fastjson.JSON;
+import com.lc.prestolimiter.Exception.PrestoLimiterException;
+import java.util.Properties;
+import org.junit.Test;
+
+public class QueryTypeTest {
+
+    @Test
+    public void testRegister() {
+        int count = QueryType.count();
+        QueryType queryType = QueryType.register("TEST_REGISTER", 900, 3, 2);
+        assertEquals(count, queryType.getIndex());
+        assertSame(queryType, QueryType.fromIndex(count));
+        assertSame(queryType, QueryType.fromId(900));
+        assertSame(queryType, QueryType.valueOf("TEST_REGISTER"));
+
+        assertSame(queryType, QueryType.register("TEST_REGISTER", 900, 5, 1));
+        assertEquals(count + 1, QueryType.count());
+        assertEquals(5, queryType.getLimit());
+        assertEquals(1, queryType.getWeight());
+
+        try {
+            QueryType.register("TEST_REGISTER", 901, 5, 1);
+            fail();
+        } catch (PrestoLimiterException e) {
+            //编号冲突.
+        }
+        try {
+            QueryType.register("TEST_OTHER", 900, 5, 1);
+            fail();
+        } catch (PrestoLimiterException e) {
+            //编号冲突.
+        }
+        try {
+            QueryType.register("TEST_OTHER", 0x10000, 5, 1);
+            fail();
+        } catch (PrestoLimiterException e) {
+            //编号超出两个字节.
+        }
+    }
+
+    @Test
+    public void testLoadAndJson() {
+        Properties properties = new Properties();
+        properties.setProperty("query.type.TEST_LOAD", "910, -1, 3");
+        properties.setProperty("presto.limit.count", "10");
+        QueryType.load(properties);
+        QueryType queryType = QueryType.valueOf("TEST_LOAD");
+        assertEquals(910, queryType.getId());
+        assertEquals(3, queryType.getWeight());
+
+        RegisterObject registerObject = new RegisterObject(10, queryType, 99L);
+        String json = JSON.toJSONString(registerObject);
+        assertEquals(-1, json.indexOf("910"));
+        assertSame(queryType, JSON.parseObject(json, RegisterObject.class).getQueryType());
+        assertSame(QueryType.CIRCLE_PEOPLE,
+            JSON.parseObject("{\"queryType\":1}", RegisterObject.class).getQueryType());
+    }
+}
@@ -0,0 +1,155 @@
+package com.lc.prestolimiter.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.alibaba.fastjson.JSON;
+import com.lc.prestolimiter.Exception.PrestoLimiterException;
+import org.junit.Test;
+
+public class RegisterObjectCodecTest {
+
+    @Test
+    public void testBinaryRoundTrip() {
+        RegisterObject registerObject = new RegisterObject(70, QueryType.CIRCLE_PEOPLE,
+            1234567890123L);
+        registerObject.setPermits(3);
+        registerObject.setLease(true);
+        registerObject.setTenant("tenant-\u00e9");
+        registerObject.setCost(-42);
+        byte[] data = RegisterObjectCodec.encodeBinary(registerObject);
+
+        RegisterObject holder = new RegisterObject();
+        holder.setNode("node");
+        assertSame(holder, RegisterObjectCodec.decode(data, holder));
+        assertEquals(70, holder.getPriority());
+        assertEquals(QueryType.CIRCLE_PEOPLE, holder.getQueryType());
+        assertEquals(1234567890123L, holder.getExpireTime());
+        assertEquals(3, holder.getPermits());
+        assertTrue(holder.isLease());
+        assertEquals("tenant-\u00e9", holder.getTenant());
+        assertEquals(-42, holder.getCost());
+        assertEquals("node", holder.getNode());
+        assertEquals(0, holder.getClusterMask());
+        assertEquals(-1, holder.getCluster());
+
+        registerObject.setClusterMask(6);
+        registerObject.setCluster(2);
+        RegisterObjectCodec.decode(RegisterObjectCodec.encodeBinary(registerObject), holder);
+        assertEquals(6, holder.getClusterMask());
+        assertEquals(2, holder.getCluster());
+        assertEquals(-42, holder.getCost());
+    }
+
+    @Test
+    public void testUnknownFlagIgnored() {
+        RegisterObject registerObject = new RegisterObject(70, QueryType.NORMAL, 99L);
+        registerObject.setCost(5);
+        byte[] known = RegisterObjectCodec.encodeBinary(registerObject);
+        //新版本用最高的标志位在末尾追加字段，旧版本只读取已知的部分.
+        byte[] data = new byte[known.length + 4];
+        System.arraycopy(known, 0, data, 0, known.length);
+        data[2] |= (byte) 0x80;
+
+        RegisterObject holder = RegisterObjectCodec.decode(data, new RegisterObject());
+        assertEquals(70, holder.getPriority());
+        assertEquals(5, holder.getCost());
+        assertFalse(holder.isLease());
+        assertNull(holder.getTenant());
+        assertEquals(0, holder.getClusterMask());
+        assertEquals(-1, holder.getCluster());
+    }
+
+    @Test
+    public void testJsonFallback() {
+        RegisterObject registerObject = new RegisterObject(10, QueryType.NORMAL, 99L);
+        registerObject.setTenant("t");
+        RegisterObject holder = RegisterObjectCodec
+            .decode(JSON.toJSONBytes(registerObject), new RegisterObject());
+        assertEquals(10, holder.getPriority());
+        assertEquals(QueryType.NORMAL, holder.getQueryType());
+        assertEquals(99L, holder.getExpireTime());
+        assertEquals("t", holder.getTenant());
+    }
+
+    @Test
+    public void testHolderReuse() {
+        RegisterObject registerObject = new RegisterObject(10, QueryType.NORMAL, 99L);
+        registerObject.setTenant("tenant-b");
+        registerObject.setCost(7);
+        byte[] withTenant = RegisterObjectCodec.encodeBinary(registerObject);
+        RegisterObject holder = new RegisterObject();
+        String tenant = RegisterObjectCodec.decode(withTenant, holder).getTenant();
+        assertSame(tenant, RegisterObjectCodec.decode(withTenant, holder).getTenant());
+
+        byte[] plain = RegisterObjectCodec
+            .encodeBinary(new RegisterObject(20, QueryType.NORMAL, 100L));
+        RegisterObjectCodec.decode(plain, holder);
+        assertNull(holder.getTenant());
+        assertEquals(0, holder.getCost());
+        assertEquals(20, holder.getPriority());
+    }
+
+    @Test
+    public void testNodeName() {
+        RegisterObject registerObject = new RegisterObject(-3, QueryType.CIRCLE_PEOPLE,
+            1234567890123L);
+        registerObject.setPermits(4);
+        registerObject.setLease(true);
+        registerObject.setTenant("t");
+        String node = RegisterObjectCodec.encodeNodeName(registerObject) + "0000000042";
+
+        RegisterObject holder = new RegisterObject();
+        holder.setTenant("old");
+        assertTrue(RegisterObjectCodec.decodeNodeName(node, holder));
+        assertEquals(-3, holder.getPriority());
+        assertEquals(QueryType.CIRCLE_PEOPLE, holder.getQueryType());
+        assertEquals(1234567890123L, holder.getExpireTime());
+        assertEquals(4, holder.getPermits());
+        assertTrue(holder.isLease());
+        assertEquals("t", holder.getTenant());
+
+        assertNull(holder.getOwner());
+
+        registerObject.setOwner("3fa9c0");
+        node = RegisterObjectCodec.encodeNodeName(registerObject) + "0000000043";
+        assertTrue(RegisterObjectCodec.decodeNodeName(node, holder));
+        assertEquals("3fa9c0", holder.getOwner());
+        assertEquals(4, holder.getPermits());
+        String owner = holder.getOwner();
+        assertTrue(RegisterObjectCodec.decodeNodeName(node, holder));
+        assertSame(owner, holder.getOwner());
+
+        registerObject.setClusterMask(0x80000005);
+        node = RegisterObjectCodec.encodeNodeName(registerObject) + "0000000044";
+        assertTrue(RegisterObjectCodec.decodeNodeName(node, holder));
+        assertEquals(0x80000005, holder.getClusterMask());
+        assertEquals("3fa9c0", holder.getOwner());
+        assertEquals(-1, holder.getCluster());
+        assertEquals("t", holder.getTenant());
+        assertFalse(holder.isFastPath());
+
+        registerObject.setFastPath(true);
+        node = RegisterObjectCodec.encodeNodeName(registerObject) + "0000000045";
+        assertTrue(RegisterObjectCodec.decodeNodeName(node, holder));
+        assertTrue(holder.isFastPath());
+        assertEquals("t", holder.getTenant());
+
+        registerObject.setTenant("team_a");
+        try {
+            RegisterObjectCodec.encodeNodeName(registerObject);
+            fail();
+        } catch (PrestoLimiterException e) {
+            //租户名称中不能有分隔符.
+        }
+
+        assertFalse(RegisterObjectCodec.decodeNodeName("0000000042", holder));
+        assertFalse(RegisterObjectCodec.decodeNodeName("v1_1_0_x_1_0_0000000042", holder));
+        assertFalse(RegisterObjectCodec.decodeNodeName("v1_1_0_5_0000000042", holder));
+        assertEquals(-3, holder.getPriority());
+    }
+}
@@ -0,0 +1,49 @@
+package com.lc.prestolimiter.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class WaiterThreadFactoryTest {
+
+    @Test
+    public void testVersion() {
+        //jdk21 profile中对打包后的多版本jar运行测试时设置该属性，此时应加载java21下的实现.
+        assertEquals(Boolean.getBoolean("limiter.expectVirtualThreads"),
+            WaiterThreadFactory.isVirtual());
+        Thread thread = new WaiterThreadFactory("waiter-").newThread(() -> {
+        });
+        assertTrue(thread.isDaemon());
+        assertTrue(thread.getName().startsWith("waiter-"));
+    }
+
+    @Test
+    public void testBlockingWaiters() throws Exception {
+        int waiters = WaiterThreadFactory.isVirtual() ? 10000 : 500;
+        WaiterThreadFactory factory = new WaiterThreadFactory("waiter-");
+        CompletableFuture<Integer> permit = new CompletableFuture<>();
+        CountDownLatch started = new CountDownLatch(waiters);
+        CountDownLatch finished = new CountDownLatch(waiters);
+        AtomicInteger granted = new AtomicInteger();
+        for (int i = 0; i < waiters; i++) {
+            factory.newThread(() -> {
+                started.countDown();
+                try {
+                    granted.addAndGet(permit.get());
+                } catch (Exception e) {
+                    //计数不足时断言失败.
+                }
+                finished.countDown();
+            }).start();
+        }
+        assertTrue(started.await(30, TimeUnit.SECONDS));
+        permit.complete(1);
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        assertEquals(waiters, granted.get());
+    }
+}
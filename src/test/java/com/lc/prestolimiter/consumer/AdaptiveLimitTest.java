@@ -0,0 +1,61 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+    @Test
+    public void testIncreaseOnlyWhenSaturated() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 2, 12, 1000, 100, 0);
+        limit.onRelease(500);
+        assertFalse(limit.update(50));
+        assertFalse(limit.update(100)); //没有用满，不增长.
+        assertEquals(10, limit.getLimit());
+
+        limit.onSaturated();
+        assertTrue(limit.update(200));
+        assertEquals(11, limit.getLimit());
+        limit.onSaturated();
+        limit.update(300);
+        limit.onSaturated();
+        limit.update(400);
+        assertEquals(12, limit.getLimit());
+    }
+
+    @Test
+    public void testDecrease() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 2, 12, 1000, 100, 0);
+        limit.onSaturated();
+        limit.onRelease(5000);
+        limit.onRelease(5000);
+        assertFalse(limit.update(100)); //样本太少，不减小也不增长.
+        assertEquals(10, limit.getLimit());
+        limit.onSaturated();
+        limit.onRelease(500);
+        assertTrue(limit.update(200));
+        assertEquals(11, limit.getLimit());
+
+        limit.onSaturated();
+        for (int i = 0; i < 3; i++) {
+            limit.onRelease(2000);
+        }
+        assertTrue(limit.update(300));
+        assertEquals(8, limit.getLimit());
+
+        limit.onFailure();
+        limit.update(400);
+        assertEquals(6, limit.getLimit());
+        for (int i = 0; i < 10; i++) {
+            limit.onFailure();
+            limit.update(500 + i * 100);
+        }
+        assertEquals(2, limit.getLimit());
+
+        limit.reset(100);
+        assertEquals(12, limit.getLimit());
+    }
+}
@@ -0,0 +1,82 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ConsumeServiceAgingTest {
+
+    private MemoryCoordinationBackend backend;
+    private ConsumeService consumeService;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "2",
+            "presto.limit.highPriority.reserved", "1", "consumer.aging.mills", "10");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new MemoryCoordinationBackend();
+        consumeService = new ConsumeService(backend);
+        consumeService.start();
+    }
+
+    @After
+    public void tearDown() {
+        consumeService.stop();
+    }
+
+    @Test
+    public void testEarlierRequestAgesAhead() throws Exception {
+        String held = register(50);
+        CoordinationFixture.await(() -> isGranted(held));
+        String older = register(50);
+        TimeUnit.MILLISECONDS.sleep(200);
+        //后到达的请求优先级更高，但先到达的请求已经等待了20个老化周期.
+        String newer = register(52);
+        TimeUnit.MILLISECONDS.sleep(50);
+
+        release(held);
+        CoordinationFixture.await(() -> isGranted(older));
+        assertFalse(isGranted(newer));
+    }
+
+    @Test
+    public void testAgedLowPriorityHeadDoesNotBlockReserve() throws Exception {
+        String held = register(50);
+        CoordinationFixture.await(() -> isGranted(held));
+        String low = register(50);
+        TimeUnit.MILLISECONDS.sleep(500);
+        //低优先级的请求老化后排在最前，但只剩预留时高优先级的请求仍然可以使用预留.
+        String high = register(85);
+        CoordinationFixture.await(() -> isGranted(high));
+        assertFalse(isGranted(low));
+
+        release(held);
+        release(high);
+        CoordinationFixture.await(() -> isGranted(low));
+    }
+
+    private String register(int priority) throws Exception {
+        return CoordinationFixture.register(backend, priority, QueryType.NORMAL, 60000, 1);
+    }
+
+    private boolean isGranted(String node) {
+        return backend.exists(NativeProperties.getProducerConsumePath() + "/" + node);
+    }
+
+    private void release(String node) throws Exception {
+        backend.delete(NativeProperties.getProducerConsumePath() + "/" + node);
+    }
+}
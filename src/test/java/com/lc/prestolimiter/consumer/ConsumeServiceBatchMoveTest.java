@@ -0,0 +1,88 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertEquals;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeMove;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ConsumeServiceBatchMoveTest {
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "4",
+            "presto.limit.highPriority.reserved", "0", "consumer.move.batchSize", "3");
+    }
+
+    @Test
+    public void testMovesInBatches() throws Exception {
+        RecordingBackend backend = new RecordingBackend(false);
+        for (int i = 0; i < 6; i++) {
+            CoordinationFixture.register(backend, 50, QueryType.NORMAL, 60000, 1);
+        }
+        ConsumeService consumeService = new ConsumeService(backend);
+        consumeService.start();
+        try {
+            //读者可能看到事务移动了一部分的结果，两个目录同时等待.
+            CoordinationFixture.await(() -> consumePathSize(backend) == 4
+                && registerPathSize(backend) == 2);
+            //6个请求只能下发4个，按批次大小分成两个事务.
+            assertEquals(Arrays.asList(3, 1), backend.moveSizes);
+        } finally {
+            consumeService.stop();
+        }
+    }
+
+    @Test
+    public void testFallBackToSingleMoves() throws Exception {
+        RecordingBackend backend = new RecordingBackend(true);
+        for (int i = 0; i < 3; i++) {
+            CoordinationFixture.register(backend, 50, QueryType.NORMAL, 60000, 1);
+        }
+        ConsumeService consumeService = new ConsumeService(backend);
+        consumeService.start();
+        try {
+            CoordinationFixture.await(() -> consumePathSize(backend) == 3
+                && registerPathSize(backend) == 0);
+            assertEquals(Arrays.asList(3, 1, 1, 1), backend.moveSizes);
+        } finally {
+            consumeService.stop();
+        }
+    }
+
+    private static int consumePathSize(MemoryCoordinationBackend backend) {
+        return backend.getChildren(NativeProperties.getProducerConsumePath()).size();
+    }
+
+    private static int registerPathSize(MemoryCoordinationBackend backend) {
+        return backend.getChildren(NativeProperties.getProducerRegisterPath()).size();
+    }
+
+    //记录每个事务移动的节点数，可以让多个节点的事务失败.
+    private static class RecordingBackend extends MemoryCoordinationBackend {
+
+        private final boolean failBatch;
+        private final List<Integer> moveSizes = new CopyOnWriteArrayList<>();
+
+        private RecordingBackend(boolean failBatch) {
+            this.failBatch = failBatch;
+        }
+
+        @Override
+        public void move(List<NodeMove> moves) throws Exception {
+            moveSizes.add(moves.size());
+            if (failBatch && moves.size() > 1) {
+                throw new IllegalStateException("batch move disabled");
+            }
+            super.move(moves);
+        }
+    }
+}
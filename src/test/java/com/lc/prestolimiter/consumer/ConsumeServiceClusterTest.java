@@ -0,0 +1,122 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ConsumeServiceClusterTest {
+
+    private static final int ADHOC = 0;
+    private static final int ETL = 1;
+
+    private MemoryCoordinationBackend backend;
+    private ConsumeService consumeService;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        LimiterPropertiesFixture.load("presto.clusters", "adhoc,etl",
+            "presto.cluster.adhoc.limit", "2", "presto.cluster.adhoc.reserved", "1",
+            "presto.cluster.etl.limit", "4");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new MemoryCoordinationBackend();
+        consumeService = new ConsumeService(backend);
+        consumeService.start();
+    }
+
+    @After
+    public void tearDown() {
+        consumeService.stop();
+    }
+
+    @Test
+    public void testLeastLoadedClusterWithinLimits() throws Exception {
+        //负载相同时选择第一个集群，之后选择占用与限制之比最低的集群.
+        String first = grant(50, 0, ADHOC);
+        grant(50, 0, ETL);
+        grant(50, 0, ETL);
+        //adhoc剩下的1个资源是高优先级预留，低优先级的请求只能去etl.
+        grant(50, 0, ETL);
+        grant(90, 0, ADHOC);
+        String last = grant(90, 0, ETL);
+
+        //两个集群都已用满.
+        String waiting = register(90, 0);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(isGranted(waiting));
+        release(first);
+        CoordinationFixture.await(() -> isGranted(waiting));
+        assertEquals(ADHOC, clusterOf(waiting));
+
+        //只能在etl执行的请求不使用adhoc释放的资源.
+        String etlOnly = register(90, 1 << ETL);
+        release(waiting);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(isGranted(etlOnly));
+        release(last);
+        CoordinationFixture.await(() -> isGranted(etlOnly));
+        assertEquals(ETL, clusterOf(etlOnly));
+    }
+
+    @Test
+    public void testWeightFitsOnlyLargerCluster() throws Exception {
+        //3个资源超过adhoc的限制，只能分配到etl.
+        String large = CoordinationFixture.register(backend, 90, QueryType.NORMAL, 60000, 3);
+        CoordinationFixture.await(() -> isGranted(large));
+        assertEquals(ETL, clusterOf(large));
+        //etl剩下1个资源，负载更低的adhoc放不下第二个大请求.
+        String second = CoordinationFixture.register(backend, 90, QueryType.NORMAL, 60000, 3);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(isGranted(second));
+        release(large);
+        CoordinationFixture.await(() -> isGranted(second));
+        assertEquals(ETL, clusterOf(second));
+    }
+
+    private String grant(int priority, int clusterMask, int cluster) throws Exception {
+        String node = register(priority, clusterMask);
+        CoordinationFixture.await(() -> isGranted(node));
+        assertEquals(cluster, clusterOf(node));
+        return node;
+    }
+
+    private String register(int priority, int clusterMask) throws Exception {
+        RegisterObject registerObject = new RegisterObject(priority, QueryType.NORMAL,
+            System.currentTimeMillis() + 60000);
+        registerObject.setClusterMask(clusterMask);
+        return backend.createSequential(NativeProperties.getProducerRegisterPath(),
+            RegisterObjectCodec.encodeNodeName(registerObject),
+            RegisterObjectCodec.encode(registerObject), false);
+    }
+
+    private boolean isGranted(String node) {
+        return backend.exists(consumePath(node));
+    }
+
+    private int clusterOf(String node) throws Exception {
+        return RegisterObjectCodec.decode(backend.getData(consumePath(node)),
+            new RegisterObject()).getCluster();
+    }
+
+    private void release(String node) throws Exception {
+        backend.delete(consumePath(node));
+    }
+
+    private static String consumePath(String node) {
+        return NativeProperties.getProducerConsumePath() + "/" + node;
+    }
+}
@@ -0,0 +1,74 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertFalse;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ConsumeServiceDeadlineTest {
+
+    private MemoryCoordinationBackend backend;
+    private ConsumeService consumeService;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "1",
+            "presto.limit.highPriority.reserved", "0", "consumer.edf.enabled", "true");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new MemoryCoordinationBackend();
+        consumeService = new ConsumeService(backend);
+        consumeService.start();
+    }
+
+    @After
+    public void tearDown() {
+        consumeService.stop();
+    }
+
+    @Test
+    public void testEarlierDeadlineGrantedFirst() throws Exception {
+        String held = register(60000);
+        CoordinationFixture.await(() -> isGranted(held));
+        //执行300ms，类型的平均执行时间超过后面请求剩余的等待时间.
+        TimeUnit.MILLISECONDS.sleep(300);
+        String later = register(60000);
+        String urgent = register(2000);
+        TimeUnit.MILLISECONDS.sleep(50);
+        release(held);
+        CoordinationFixture.await(() -> isGranted(urgent));
+        assertFalse(isGranted(later));
+
+        //过期时间是开始执行的截止时间，剩余时间短于平均执行时间的请求仍然下发.
+        TimeUnit.MILLISECONDS.sleep(300);
+        String shortWait = register(150);
+        release(urgent);
+        CoordinationFixture.await(() -> isGranted(shortWait));
+        assertFalse(isGranted(later));
+
+        release(shortWait);
+        CoordinationFixture.await(() -> isGranted(later));
+    }
+
+    private String register(long waitTimeoutMills) throws Exception {
+        return CoordinationFixture.register(backend, 50, QueryType.NORMAL, waitTimeoutMills, 1);
+    }
+
+    private boolean isGranted(String node) {
+        return backend.exists(NativeProperties.getProducerConsumePath() + "/" + node);
+    }
+
+    private void release(String node) throws Exception {
+        backend.delete(NativeProperties.getProducerConsumePath() + "/" + node);
+    }
+}
@@ -0,0 +1,93 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertEquals;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.ChildrenWatch;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent.Type;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ConsumeServiceReclaimTest {
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "2",
+            "presto.limit.highPriority.reserved", "0");
+    }
+
+    @Test
+    public void testReclaimMissedConsumeNodeOutsideLock() throws Exception {
+        MissingEventBackend backend = new MissingEventBackend();
+        ConsumeService consumeService = new ConsumeService(backend);
+        consumeService.start();
+        try {
+            String first = CoordinationFixture.register(backend, 50, QueryType.NORMAL, 60000, 1);
+            CoordinationFixture.await(() -> consumeExists(backend, first));
+            //执行节点的删除事件丢失，资源只能由定时核对回收.
+            backend.delete(NativeProperties.getProducerConsumePath() + "/" + first);
+            CoordinationFixture.await(() -> backend.checking.getCount() == 0);
+
+            //核对在锁外等待zk时，调度仍然可以下发剩余的资源.
+            String second = CoordinationFixture.register(backend, 50, QueryType.NORMAL, 60000, 1);
+            CoordinationFixture.await(() -> consumeExists(backend, second));
+            String third = CoordinationFixture.register(backend, 50, QueryType.NORMAL, 60000, 1);
+            TimeUnit.MILLISECONDS.sleep(100);
+            assertEquals(1, backend.getChildren(NativeProperties.getProducerRegisterPath()).size());
+
+            backend.release.countDown();
+            CoordinationFixture.await(() -> consumeExists(backend, third));
+        } finally {
+            backend.release.countDown();
+            consumeService.stop();
+        }
+    }
+
+    private static boolean consumeExists(MemoryCoordinationBackend backend, String node) {
+        return backend.exists(NativeProperties.getProducerConsumePath() + "/" + node);
+    }
+
+    //丢弃执行目录的删除事件，并让第一次核对执行目录的getChildren等待.
+    private static class MissingEventBackend extends MemoryCoordinationBackend {
+
+        private final CountDownLatch checking = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger checks = new AtomicInteger();
+
+        @Override
+        public ChildrenWatch watchChildren(String path, PathChangeListener listener,
+            boolean cacheData) {
+            if (!path.equals(NativeProperties.getProducerConsumePath())) {
+                return super.watchChildren(path, listener, cacheData);
+            }
+            return super.watchChildren(path, event -> {
+                if (event.getEventType() != Type.CHILD_REMOVED) {
+                    listener.childEvent(event);
+                }
+            }, cacheData);
+        }
+
+        @Override
+        public List<String> getChildren(String path) {
+            if (path.equals(NativeProperties.getProducerConsumePath())
+                && checks.getAndIncrement() == 0) {
+                checking.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getChildren(path);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ConsumeServiceSessionTest {
+
+    private static final String OWNER_A = "a1";
+    private static final String OWNER_B = "b2";
+
+    private MemoryCoordinationBackend backend;
+    private ConsumeService consumeService;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "2",
+            "presto.limit.highPriority.reserved", "0", "producer.session.enabled", "true");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new MemoryCoordinationBackend();
+        assertTrue(backend.tryLock(sessionPath(OWNER_A), address()));
+        assertTrue(backend.tryLock(sessionPath(OWNER_B), address()));
+        consumeService = new ConsumeService(backend);
+        consumeService.start();
+    }
+
+    @After
+    public void tearDown() {
+        consumeService.stop();
+    }
+
+    @Test
+    public void testReclaimPermitsOfExpiredSession() throws Exception {
+        String first = register(OWNER_A);
+        String second = register(OWNER_A);
+        CoordinationFixture.await(() -> isGranted(first) && isGranted(second));
+        String queued = register(OWNER_A);
+        String other = register(OWNER_B);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(isGranted(queued) || isGranted(other));
+
+        //会话过期时zk删除该会话的临时节点，包括注册节点与会话节点，消费者回收已下发的执行节点.
+        backend.delete(NativeProperties.getProducerRegisterPath() + "/" + queued);
+        backend.delete(sessionPath(OWNER_A));
+        CoordinationFixture.await(() -> !isGranted(first) && !isGranted(second));
+        CoordinationFixture.await(() -> isGranted(other));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(isGranted(queued));
+        assertTrue(backend.getChildren(NativeProperties.getProducerRegisterPath()).isEmpty());
+    }
+
+    @Test
+    public void testLiveSessionKeepsPermits() throws Exception {
+        String first = register(OWNER_A);
+        String second = register(OWNER_B);
+        CoordinationFixture.await(() -> isGranted(first) && isGranted(second));
+
+        //其他生产者的会话过期不影响仍然有效的会话.
+        backend.delete(sessionPath(OWNER_B));
+        CoordinationFixture.await(() -> !isGranted(second));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(isGranted(first));
+
+        //消费者重新开始消费时也只回收会话已过期的节点.
+        consumeService.stop();
+        consumeService = new ConsumeService(backend);
+        consumeService.start();
+        String third = register(OWNER_A);
+        CoordinationFixture.await(() -> isGranted(third));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(isGranted(first));
+    }
+
+    private String register(String owner) throws Exception {
+        RegisterObject registerObject = new RegisterObject(50, QueryType.NORMAL,
+            System.currentTimeMillis() + 60000);
+        registerObject.setOwner(owner);
+        return backend.createSequential(NativeProperties.getProducerRegisterPath(),
+            RegisterObjectCodec.encodeNodeName(registerObject),
+            RegisterObjectCodec.encode(registerObject), true);
+    }
+
+    private boolean isGranted(String node) {
+        return backend.exists(NativeProperties.getProducerConsumePath() + "/" + node);
+    }
+
+    private static String sessionPath(String owner) {
+        return NativeProperties.getProducerSessionPath() + "/" + owner;
+    }
+
+    private static byte[] address() {
+        return "127.0.0.1".getBytes(StandardCharsets.UTF_8);
+    }
+}
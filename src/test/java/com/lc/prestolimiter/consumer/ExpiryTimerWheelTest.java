@@ -0,0 +1,63 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ExpiryTimerWheelTest {
+
+    @Test
+    public void testExpire() {
+        ExpiryTimerWheel wheel = new ExpiryTimerWheel(10, 8, 0);
+        wheel.schedule("a", 15);
+        wheel.schedule("b", 25);
+        wheel.schedule("c", 1000); //超过一圈.
+        List<String> expired = new ArrayList<>();
+        assertEquals(0, wheel.advance(14, expired));
+        assertEquals(1, wheel.advance(20, expired));
+        assertEquals(Collections.singletonList("a"), expired);
+        expired.clear();
+        assertEquals(1, wheel.advance(999, expired));
+        assertEquals(Collections.singletonList("b"), expired);
+        expired.clear();
+        assertEquals(1, wheel.advance(1000, expired));
+        assertEquals(Collections.singletonList("c"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCancelAndReschedule() {
+        ExpiryTimerWheel wheel = new ExpiryTimerWheel(10, 8, 0);
+        wheel.schedule("a", 50);
+        wheel.schedule("b", 50);
+        wheel.schedule("c", 50);
+        assertTrue(wheel.cancel("b"));
+        assertFalse(wheel.cancel("b"));
+        wheel.schedule("c", 500);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(100, expired);
+        assertEquals(Collections.singletonList("a"), expired);
+        assertTrue(wheel.contains("c"));
+        expired.clear();
+        wheel.advance(500, expired);
+        assertEquals(Collections.singletonList("c"), expired);
+    }
+
+    @Test
+    public void testPastDeadline() {
+        ExpiryTimerWheel wheel = new ExpiryTimerWheel(10, 8, 0);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(200, expired);
+        wheel.schedule("a", 100);
+        wheel.schedule("b", 205);
+        wheel.advance(210, expired);
+        Collections.sort(expired);
+        assertEquals(Arrays.asList("a", "b"), expired);
+    }
+}
@@ -0,0 +1,98 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import org.junit.Test;
+
+public class QueryTypeReadyQueuesTest {
+
+    @Test
+    public void testBlockedTypeLeavesMerge() {
+        QueryTypeReadyQueues queues = new QueryTypeReadyQueues();
+        long time = System.currentTimeMillis();
+        queues.add(new RegisterObject(90, time, QueryType.CIRCLE_PEOPLE, "a"));
+        queues.add(new RegisterObject(80, time, QueryType.CIRCLE_PEOPLE, "b"));
+        queues.add(new RegisterObject(50, time, QueryType.NORMAL, "c"));
+        assertFalse(queues.add(new RegisterObject(50, time, QueryType.NORMAL, "a")));
+        assertEquals("a", queues.peek().getNode());
+        assertEquals(8, QueryTypeReadyQueues.bandOf(90));
+        assertEquals(1, queues.bandSize(8));
+        assertEquals(1, queues.bandSize(7));
+
+        queues.setBlocked(QueryType.CIRCLE_PEOPLE, true);
+        assertEquals(3, queues.size());
+        assertEquals("c", queues.poll().getNode());
+        assertNull(queues.peek());
+        assertTrue(queues.contains("b"));
+
+        queues.setBlocked(QueryType.CIRCLE_PEOPLE, false);
+        assertEquals("a", queues.poll().getNode());
+        assertTrue(queues.remove("b"));
+        assertTrue(queues.isEmpty());
+        assertEquals(0, queues.bandSize(7));
+        assertNull(queues.poll());
+    }
+
+    @Test
+    public void testMergeOrder() {
+        QueryTypeReadyQueues queues = new QueryTypeReadyQueues();
+        long time = System.currentTimeMillis();
+        queues.add(new RegisterObject(10, time, QueryType.NORMAL, "n1"));
+        queues.add(new RegisterObject(30, time, QueryType.NORMAL, "n2"));
+        queues.add(new RegisterObject(20, time, QueryType.CIRCLE_PEOPLE, "c1"));
+        queues.add(new RegisterObject(20, time - 1, QueryType.NORMAL, "n3"));
+        assertEquals("n2", queues.poll().getNode());
+        assertEquals("n3", queues.poll().getNode());
+        assertEquals("c1", queues.poll().getNode());
+        assertEquals("n1", queues.poll().getNode());
+    }
+
+    @Test
+    public void testMinPriorityHead() {
+        QueryTypeReadyQueues queues = new QueryTypeReadyQueues(10, false);
+        long time = System.currentTimeMillis();
+        //n1等待了100个老化周期，排序时排在两个高优先级请求之前.
+        queues.add(registered(50, time - 1000, QueryType.NORMAL, "n1"));
+        queues.add(registered(85, time, QueryType.NORMAL, "n2"));
+        queues.add(registered(85, time, QueryType.CIRCLE_PEOPLE, "c1"));
+        assertEquals("n1", queues.peek().getNode());
+        assertEquals("c1", queues.peek(80).getNode());
+        assertTrue(queues.hasReady(80));
+        assertEquals("c1", queues.poll(80).getNode());
+        //n2在同一类型中排在n1之后，不能越过n1选出.
+        assertFalse(queues.hasReady(80));
+        assertNull(queues.peek(80));
+        assertEquals("n1", queues.poll().getNode());
+        assertEquals("n2", queues.poll(80).getNode());
+        assertTrue(queues.isEmpty());
+    }
+
+    @Test
+    public void testRuntimeType() {
+        QueryTypeReadyQueues queues = new QueryTypeReadyQueues();
+        QueryType queryType = QueryType.register("TEST_QUEUES", 920, 1, 1);
+        long time = System.currentTimeMillis();
+        assertEquals(0, queues.size(queryType));
+        queues.add(new RegisterObject(10, time, QueryType.NORMAL, "n1"));
+        queues.add(new RegisterObject(50, time, queryType, "t1"));
+        assertEquals(1, queues.size(queryType));
+        queues.setBlocked(queryType, true);
+        assertEquals("n1", queues.poll().getNode());
+        assertNull(queues.peek());
+        queues.setBlocked(queryType, false);
+        assertEquals("t1", queues.poll().getNode());
+    }
+
+    private static RegisterObject registered(int priority, long registerTime,
+        QueryType queryType, String node) {
+        RegisterObject registerObject =
+            new RegisterObject(priority, registerTime + 60000, queryType, node);
+        registerObject.setRegisterTime(registerTime);
+        return registerObject;
+    }
+}
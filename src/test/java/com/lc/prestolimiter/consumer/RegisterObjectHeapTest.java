@@ -0,0 +1,144 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.junit.Test;
+
+public class RegisterObjectHeapTest {
+
+    @Test
+    public void testOrder() {
+        RegisterObjectHeap heap = new RegisterObjectHeap(2);
+        long time = System.currentTimeMillis();
+        heap.add(new RegisterObject(1, time + 1, QueryType.NORMAL, "0000000001"));
+        heap.add(new RegisterObject(2, time + 2, QueryType.NORMAL, "0000000002"));
+        heap.add(new RegisterObject(1, time, QueryType.CIRCLE_PEOPLE, "0000000003"));
+        heap.add(new RegisterObject(3, time, QueryType.NORMAL, "0000000004"));
+        assertFalse(heap.add(new RegisterObject(9, time, QueryType.NORMAL, "0000000004")));
+        assertEquals(4, heap.size());
+        assertEquals("0000000004", heap.poll().getNode());
+        assertEquals("0000000002", heap.poll().getNode());
+        assertEquals(QueryType.CIRCLE_PEOPLE, heap.poll().getQueryType());
+        assertEquals("0000000001", heap.poll().getNode());
+        assertNull(heap.poll());
+        assertEquals(-1, heap.peekSlot());
+    }
+
+    @Test
+    public void testSequenceTieBreak() {
+        RegisterObjectHeap heap = new RegisterObjectHeap();
+        heap.add(new RegisterObject(5, 100L, QueryType.NORMAL, "v1_5_0_100_1_0_0000000002"));
+        heap.add(new RegisterObject(5, 100L, QueryType.CIRCLE_PEOPLE,
+            "v1_5_1_100_1_0_0000000001"));
+        heap.add(new RegisterObject(5, 100L, QueryType.NORMAL, "0000000000"));
+        assertEquals("0000000000", heap.poll().getNode());
+        assertEquals("v1_5_1_100_1_0_0000000001", heap.poll().getNode());
+        assertEquals("v1_5_0_100_1_0_0000000002", heap.poll().getNode());
+    }
+
+    @Test
+    public void testAging() {
+        RegisterObjectHeap heap = new RegisterObjectHeap(4, 1000L, false);
+        heap.add(aged(10, 0L, "0000000001"));
+        heap.add(aged(90, 70000L, "0000000002"));
+        heap.add(aged(90, 90000L, "0000000003"));
+        //每秒加一，0秒到达的10在80秒时与新到达的90相同，排在70秒到达的90之后、81秒到达的90之前.
+        heap.add(aged(90, 81000L, "0000000004"));
+        assertEquals("0000000002", heap.poll().getNode());
+        RegisterObject head = heap.poll();
+        assertEquals("0000000001", head.getNode());
+        assertEquals(10, head.getPriority());
+        assertEquals(0L, head.getRegisterTime());
+        heap.update("0000000003", 99, Long.MAX_VALUE);
+        assertEquals("0000000003", heap.poll().getNode());
+        assertEquals("0000000004", heap.poll().getNode());
+    }
+
+    @Test
+    public void testDeadlineFirst() {
+        RegisterObjectHeap heap = new RegisterObjectHeap(4, 0, true);
+        heap.add(new RegisterObject(19, 300L, QueryType.NORMAL, "0000000001"));
+        heap.add(new RegisterObject(11, 200L, QueryType.NORMAL, "0000000002"));
+        heap.add(new RegisterObject(21, 900L, QueryType.NORMAL, "0000000003"));
+        heap.add(new RegisterObject(15, 200L, QueryType.NORMAL, "0000000004"));
+        //高段优先，段内过期时间早的在前，过期时间相同时按优先级.
+        assertEquals("0000000003", heap.poll().getNode());
+        assertEquals("0000000004", heap.poll().getNode());
+        assertEquals("0000000002", heap.poll().getNode());
+        assertEquals("0000000001", heap.poll().getNode());
+
+        RegisterObjectHeap agedHeap = new RegisterObjectHeap(4, 1000L, true);
+        agedHeap.add(aged(15, 0L, "0000000005"));
+        agedHeap.add(aged(21, 5000L, "0000000006"));
+        //0秒到达的15在5秒时等效为20，与5秒到达的21同段，按过期时间排序.
+        agedHeap.update("0000000006", 21, 100L);
+        agedHeap.update("0000000005", 15, 50L);
+        assertEquals("0000000005", agedHeap.poll().getNode());
+        assertEquals("0000000006", agedHeap.poll().getNode());
+    }
+
+    private static RegisterObject aged(int priority, long registerTime, String node) {
+        RegisterObject registerObject = new RegisterObject(priority, Long.MAX_VALUE,
+            QueryType.NORMAL, node);
+        registerObject.setRegisterTime(registerTime);
+        return registerObject;
+    }
+
+    @Test
+    public void testRandomAgainstPriorityQueue() {
+        Random random = new Random(7);
+        RegisterObjectHeap heap = new RegisterObjectHeap();
+        PriorityQueue<RegisterObject> queue = new PriorityQueue<>();
+        List<String> nodes = new ArrayList<>();
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(10);
+            if (op < 6 || nodes.isEmpty()) {
+                RegisterObject registerObject = new RegisterObject(1 + random.nextInt(100),
+                    time + random.nextInt(1000) * 100000L + i, QueryType.NORMAL,
+                    String.format("%010d", i));
+                assertTrue(heap.add(registerObject));
+                queue.add(registerObject);
+                nodes.add(registerObject.getNode());
+            } else if (op < 8) {
+                String node = nodes.remove(random.nextInt(nodes.size()));
+                assertTrue(heap.contains(node));
+                assertTrue(heap.remove(node));
+                assertFalse(heap.contains(node));
+                queue.removeIf(registerObject -> registerObject.getNode().equals(node));
+            } else {
+                RegisterObject expected = queue.poll();
+                RegisterObject actual = heap.poll();
+                assertEquals(expected.getNode(), actual.getNode());
+                nodes.remove(actual.getNode());
+            }
+            assertEquals(queue.size(), heap.size());
+        }
+        while (!queue.isEmpty()) {
+            assertEquals(queue.poll().getNode(), heap.poll().getNode());
+        }
+    }
+
+    @Test
+    public void testUpdate() {
+        RegisterObjectHeap heap = new RegisterObjectHeap();
+        long time = System.currentTimeMillis();
+        heap.add(new RegisterObject(10, time, QueryType.NORMAL, "a"));
+        heap.add(new RegisterObject(20, time, QueryType.NORMAL, "b"));
+        heap.add(new RegisterObject(30, time, QueryType.NORMAL, "c"));
+        assertTrue(heap.update("a", 40, time));
+        assertEquals("a", heap.peek().getNode());
+        assertTrue(heap.update("a", 5, time));
+        assertEquals("c", heap.peek().getNode());
+        assertFalse(heap.update("d", 5, time));
+    }
+}
@@ -0,0 +1,172 @@
+package com.lc.prestolimiter.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class TenantFairQueuesTest {
+
+    private long sequence;
+
+    @Test
+    public void testWeightedShare() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("a", 2);
+        TenantFairQueues queues = new TenantFairQueues(true, weights, 1);
+        for (int i = 0; i < 30; i++) {
+            queues.add(request(90, "a"));
+            queues.add(request(10, "b"));
+        }
+        int grantedA = 0;
+        for (int i = 0; i < 9; i++) {
+            if ("a".equals(queues.pollGranted().getTenant())) {
+                grantedA++;
+            }
+        }
+        assertEquals(6, grantedA);
+        assertEquals(2, queues.tenantCount());
+        assertEquals(51, queues.size());
+    }
+
+    @Test
+    public void testIdleTenantGetsNoCredit() {
+        TenantFairQueues queues = new TenantFairQueues(true, Collections.emptyMap(), 1);
+        for (int i = 0; i < 20; i++) {
+            queues.add(request(50, "a"));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("a", queues.pollGranted().getTenant());
+        }
+        //b空闲期间不积累额度，到达后与a轮流获得资源.
+        for (int i = 0; i < 10; i++) {
+            queues.add(request(50, "b"));
+        }
+        int grantedB = 0;
+        for (int i = 0; i < 10; i++) {
+            if ("b".equals(queues.pollGranted().getTenant())) {
+                grantedB++;
+            }
+        }
+        assertEquals(5, grantedB);
+    }
+
+    @Test
+    public void testSkipIsNotCharged() {
+        TenantFairQueues queues = new TenantFairQueues(true, Collections.emptyMap(), 1);
+        queues.add(request(50, "a"));
+        queues.add(request(50, "a"));
+        queues.add(request(50, "b"));
+        RegisterObject skipped = queues.poll();
+        assertEquals("a", skipped.getTenant());
+        assertEquals("a", queues.pollGranted().getTenant());
+        queues.add(skipped);
+        assertEquals("b", queues.pollGranted().getTenant());
+        assertEquals(skipped.getNode(), queues.pollGranted().getNode());
+        assertNull(queues.peek());
+    }
+
+    @Test
+    public void testBlockedTypeAndRemove() {
+        TenantFairQueues queues = new TenantFairQueues(true, Collections.emptyMap(), 1);
+        RegisterObject circle = request(90, "a");
+        circle.setQueryType(QueryType.CIRCLE_PEOPLE);
+        circle.setNode(nodeName(circle));
+        queues.add(circle);
+        queues.setBlocked(QueryType.CIRCLE_PEOPLE, true);
+        RegisterObject normal = request(10, "b");
+        queues.add(normal);
+        RegisterObject blocked = request(90, "c");
+        blocked.setQueryType(QueryType.CIRCLE_PEOPLE);
+        blocked.setNode(nodeName(blocked));
+        queues.add(blocked);
+        assertEquals(normal.getNode(), queues.peek().getNode());
+        assertEquals(2, queues.size(QueryType.CIRCLE_PEOPLE));
+
+        assertTrue(queues.contains(circle.getNode()));
+        assertTrue(queues.remove(normal.getNode()));
+        assertFalse(queues.remove(normal.getNode()));
+        assertNull(queues.peek());
+        queues.setBlocked(QueryType.CIRCLE_PEOPLE, false);
+        assertEquals(2, queues.size());
+        assertEquals(90, queues.peek().getPriority());
+    }
+
+    @Test
+    public void testMinPriorityAcrossTenants() {
+        TenantFairQueues queues = new TenantFairQueues(true, Collections.emptyMap(), 1);
+        queues.add(request(90, "b"));
+        assertEquals("b", queues.pollGranted().getTenant());
+        RegisterObject low = request(10, "a");
+        queues.add(low);
+        RegisterObject high = request(90, "b");
+        queues.add(high);
+        //a的份额更少，排在最前的是a的低优先级请求；只剩高优先级预留时选b的高优先级请求.
+        assertEquals(low.getNode(), queues.peek().getNode());
+        assertEquals(high.getNode(), queues.peek(80).getNode());
+        assertEquals(high.getNode(), queues.pollGranted(80).getNode());
+        assertNull(queues.peek(80));
+        assertNull(queues.poll(80));
+        assertEquals(1, queues.size());
+        assertEquals(low.getNode(), queues.pollGranted().getNode());
+    }
+
+    @Test
+    public void testEmptyTenantsDropped() {
+        TenantFairQueues queues = new TenantFairQueues(true, Collections.emptyMap(), 1);
+        for (int i = 0; i < 100; i++) {
+            queues.add(request(50, "t" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            queues.pollGranted();
+        }
+        //结束标签还没有被虚拟时间追上，保留已下发的份额.
+        assertEquals(100, queues.tenantCount());
+        queues.add(request(50, "x"));
+        queues.add(request(50, "x"));
+        assertEquals("x", queues.pollGranted().getTenant());
+        assertEquals("x", queues.pollGranted().getTenant());
+        assertEquals(1, queues.tenantCount());
+
+        //删除的租户重新排队时从当前虚拟时间开始，先于份额已用的x.
+        queues.add(request(50, "x"));
+        queues.add(request(50, "t0"));
+        assertEquals("t0", queues.pollGranted().getTenant());
+        assertEquals("x", queues.pollGranted().getTenant());
+        assertTrue(queues.isEmpty());
+    }
+
+    @Test
+    public void testStrictPriorityWhenNotFair() {
+        TenantFairQueues queues = new TenantFairQueues(false, Collections.emptyMap(), 1);
+        for (int i = 0; i < 5; i++) {
+            queues.add(request(90, "a"));
+        }
+        queues.add(request(10, "b"));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(90, queues.pollGranted().getPriority());
+        }
+        assertEquals(1, queues.tenantCount());
+        assertNull(queues.poll().getTenant());
+    }
+
+    private RegisterObject request(int priority, String tenant) {
+        RegisterObject registerObject = new RegisterObject(priority, QueryType.NORMAL, 1000L);
+        registerObject.setTenant(tenant);
+        registerObject.setNode(nodeName(registerObject));
+        return registerObject;
+    }
+
+    private String nodeName(RegisterObject registerObject) {
+        return RegisterObjectCodec.encodeNodeName(registerObject)
+            + String.format("%010d", sequence++);
+    }
+}
@@ -0,0 +1,138 @@
+package com.lc.prestolimiter.coordination;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.apache.zookeeper.KeeperException;
+import org.junit.Test;
+
+public class MemoryCoordinationBackendTest {
+
+    private static final byte[] DATA = new byte[]{1};
+
+    @Test
+    public void testMoveIsAllOrNothing() throws Exception {
+        MemoryCoordinationBackend backend = new MemoryCoordinationBackend();
+        backend.tryLock("/a/0", DATA);
+        backend.tryLock("/b/1", DATA);
+        try {
+            backend.move(Arrays.asList(new NodeMove("/a/0", "/b/0", DATA),
+                new NodeMove("/a/1", "/b/1", DATA)));
+            fail();
+        } catch (KeeperException.NoNodeException e) {
+            //第二个移动的源节点不存在，第一个移动也不生效.
+        }
+        assertTrue(backend.exists("/a/0"));
+        assertFalse(backend.exists("/b/0"));
+        backend.tryLock("/a/1", DATA);
+        try {
+            backend.move(Arrays.asList(new NodeMove("/a/0", "/b/0", DATA),
+                new NodeMove("/a/1", "/b/1", DATA)));
+            fail();
+        } catch (KeeperException.NodeExistsException e) {
+            //目标节点已存在.
+        }
+        assertEquals(Arrays.asList("0", "1"), backend.getChildren("/a"));
+        assertEquals(Arrays.asList("1"), backend.getChildren("/b"));
+        backend.close();
+    }
+
+    @Test
+    public void testDeleteAndCreateIsAllOrNothing() throws Exception {
+        MemoryCoordinationBackend backend = new MemoryCoordinationBackend();
+        backend.tryLock("/free/0", DATA);
+        try {
+            backend.deleteAndCreateSequential(Arrays.asList("/free/0", "/free/1"), "/consume",
+                "node-", DATA);
+            fail();
+        } catch (KeeperException.NoNodeException e) {
+            //一个空闲资源不存在时不删除另一个，也不创建执行节点.
+        }
+        assertTrue(backend.exists("/free/0"));
+        assertTrue(backend.getChildren("/consume").isEmpty());
+        String node = backend.deleteAndCreateSequential(Arrays.asList("/free/0"), "/consume",
+            "node-", DATA);
+        assertEquals(Arrays.asList(node), backend.getChildren("/consume"));
+        assertFalse(backend.exists("/free/0"));
+        backend.close();
+    }
+
+    @Test
+    public void testConcurrentDeleteAndMove() throws Exception {
+        MemoryCoordinationBackend backend = new MemoryCoordinationBackend();
+        for (int round = 0; round < 500; round++) {
+            checkDeleteAndMove(backend, "/" + round, 40);
+        }
+        backend.close();
+    }
+
+    //一个线程成对移动节点，另一个线程按相同顺序删除节点，结果需要与某个串行顺序一致.
+    private static void checkDeleteAndMove(MemoryCoordinationBackend backend, String root,
+        int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            backend.tryLock(root + "/register/" + i, DATA);
+        }
+        //0未处理，1被删除，2被移动，3删除时节点已不存在.
+        AtomicIntegerArray results = new AtomicIntegerArray(count);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread mover = new Thread(() -> {
+            await(start);
+            for (int i = 0; i + 1 < count; i += 2) {
+                try {
+                    backend.move(Arrays.asList(
+                        new NodeMove(root + "/register/" + i, root + "/consume/" + i, DATA),
+                        new NodeMove(root + "/register/" + (i + 1), root + "/consume/" + (i + 1),
+                            DATA)));
+                    results.set(i, 2);
+                    results.set(i + 1, 2);
+                } catch (Exception e) {
+                    //其中一个已被删除.
+                }
+            }
+        });
+        Thread deleter = new Thread(() -> {
+            await(start);
+            for (int i = 0; i + 1 < count; i += 2) {
+                delete(backend, root, i + 1, results);
+                delete(backend, root, i, results);
+            }
+        });
+        mover.start();
+        deleter.start();
+        start.countDown();
+        mover.join(TimeUnit.SECONDS.toMillis(30));
+        deleter.join(TimeUnit.SECONDS.toMillis(30));
+        for (int i = 0; i < count; i++) {
+            String message = root + " node " + i + " result " + results.get(i);
+            //删除时节点已不存在说明它已被移动，不会因为移动事务的失败重新出现.
+            assertEquals(message, results.get(i) == 0, backend.exists(root + "/register/" + i));
+            assertEquals(message, results.get(i) >= 2, backend.exists(root + "/consume/" + i));
+        }
+    }
+
+    private static void delete(MemoryCoordinationBackend backend, String root, int node,
+        AtomicIntegerArray results) {
+        try {
+            backend.delete(root + "/register/" + node);
+            results.set(node, 1);
+        } catch (KeeperException.NoNodeException e) {
+            results.compareAndSet(node, 0, 3);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.lc.prestolimiter.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        long previousHighest = -1;
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = Histogram.indexOf(value);
+            long highest = Histogram.highestValueOf(index);
+            assertTrue(value <= highest);
+            assertTrue(highest - value <= Math.max(0, value / 16));
+            if (highest != previousHighest) {
+                assertEquals(previousHighest + 1, value);
+                previousHighest = highest;
+            }
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.highestValueOf(Histogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentile() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getP99());
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-1);
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500500 / 1001.0, histogram.getMean(), 0.0001);
+        assertTrue(Math.abs(histogram.getP50() - 500) <= 500 / 16);
+        assertTrue(Math.abs(histogram.getP99() - 990) <= 990 / 16);
+        assertEquals(1000, histogram.getValueAtPercentile(1));
+    }
+}
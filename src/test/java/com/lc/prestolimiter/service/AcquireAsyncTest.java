@@ -0,0 +1,121 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AcquireAsyncTest {
+
+    private static MemoryCoordinationBackend backend;
+    private static PrestoLimiterService service;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "2",
+            "presto.limit.highPriority.reserved", "0");
+        backend = new MemoryCoordinationBackend();
+        service = new PrestoLimiterService(true, backend);
+        assertTrue(service.start());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testGrantAfterRelease() throws Exception {
+        Permit first = acquire(50);
+        Permit second = acquire(50);
+        CompletableFuture<Permit> third = service.acquireAsync(50, QueryType.NORMAL, 10000);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(third.isDone());
+
+        service.deleteExecutePermition(first.getPath());
+        Permit thirdPermit = third.get(10, TimeUnit.SECONDS);
+        assertTrue(backend.exists(thirdPermit.getPath()));
+        assertFalse(backend.exists(first.getPath()));
+        service.deleteExecutePermition(second.getPath());
+        service.deleteExecutePermition(thirdPermit.getPath());
+    }
+
+    @Test
+    public void testHigherPriorityFirst() throws Exception {
+        Permit first = acquire(50);
+        Permit second = acquire(50);
+        CompletableFuture<Permit> low = service.acquireAsync(10, QueryType.NORMAL, 10000);
+        CompletableFuture<Permit> high = service.acquireAsync(90, QueryType.NORMAL, 10000);
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        service.deleteExecutePermition(first.getPath());
+        Permit highPermit = high.get(10, TimeUnit.SECONDS);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(low.isDone());
+        service.deleteExecutePermition(second.getPath());
+        service.deleteExecutePermition(low.get(10, TimeUnit.SECONDS).getPath());
+        service.deleteExecutePermition(highPermit.getPath());
+    }
+
+    @Test
+    public void testTimeoutCleansRegisterNode() throws Exception {
+        Permit first = acquire(50);
+        Permit second = acquire(50);
+        try {
+            service.acquireAsync(50, QueryType.NORMAL, 200).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertNull(service.getExecutePermissionWithTimeoutMills(50, QueryType.NORMAL, 200));
+        assertTrue(backend.getChildren(NativeProperties.getProducerRegisterPath()).isEmpty());
+        service.deleteExecutePermition(first.getPath());
+        service.deleteExecutePermition(second.getPath());
+    }
+
+    @Test
+    public void testCancelGivesUpWaiting() throws Exception {
+        Permit first = acquire(50);
+        Permit second = acquire(50);
+        CompletableFuture<Permit> cancelled = service.acquireAsync(90, QueryType.NORMAL, 10000);
+        CompletableFuture<Permit> waiting = service.acquireAsync(10, QueryType.NORMAL, 10000);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(cancelled.cancel(false));
+        assertEquals(1, backend.getChildren(NativeProperties.getProducerRegisterPath()).size());
+
+        //取消的请求优先级更高，但资源留给仍在等待的请求.
+        service.deleteExecutePermition(first.getPath());
+        service.deleteExecutePermition(waiting.get(10, TimeUnit.SECONDS).getPath());
+        service.deleteExecutePermition(second.getPath());
+    }
+
+    @Test
+    public void testIllegalArguments() {
+        try {
+            service.acquireAsync(0, QueryType.NORMAL, 1000).join();
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof
+                com.lc.prestolimiter.Exception.PrestoLimiterException);
+        }
+        assertTrue(service.acquireAsync(50, QueryType.NORMAL, 1000, 3).isCompletedExceptionally());
+    }
+
+    private static Permit acquire(int priority) throws Exception {
+        return service.acquireAsync(priority, QueryType.NORMAL, 10000).get(10, TimeUnit.SECONDS);
+    }
+}
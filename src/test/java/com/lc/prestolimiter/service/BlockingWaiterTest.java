@@ -0,0 +1,125 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.WaiterThreadFactory;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BlockingWaiterTest {
+
+    private static final int LIMIT = 2;
+
+    private static MemoryCoordinationBackend backend;
+    private static PrestoLimiterService service;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", String.valueOf(LIMIT),
+            "presto.limit.highPriority.reserved", "0");
+        backend = new MemoryCoordinationBackend();
+        service = new PrestoLimiterService(true, backend);
+        assertTrue(service.start());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testWaitersParkWithoutMonitors() throws Exception {
+        int waiters = WaiterThreadFactory.isVirtual() ? 2000 : 200;
+        List<String> heldPaths = new ArrayList<>();
+        for (int i = 0; i < LIMIT; i++) {
+            heldPaths.add(acquire());
+            assertNotNull(heldPaths.get(i));
+        }
+        //等待许可的线程阻塞在生产者的下发路径上，许可经过注册、消费者移动、执行节点事件唤醒它们.
+        WaiterThreadFactory factory = new WaiterThreadFactory("limiter-waiter-");
+        AtomicInteger held = new AtomicInteger();
+        AtomicInteger maxHeld = new AtomicInteger();
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(waiters);
+        List<Thread> threads = new ArrayList<>(waiters);
+        for (int i = 0; i < waiters; i++) {
+            Thread thread = factory.newThread(() -> {
+                String path = acquire();
+                if (path != null) {
+                    maxHeld.accumulateAndGet(held.incrementAndGet(), Math::max);
+                    granted.incrementAndGet();
+                    held.decrementAndGet();
+                    service.deleteExecutePermition(path);
+                }
+                finished.countDown();
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        CoordinationFixture.await(() ->
+            backend.getChildren(NativeProperties.getProducerRegisterPath()).size() == waiters);
+        assertParkedWithoutMonitors(threads);
+
+        for (String path : heldPaths) {
+            service.deleteExecutePermition(path);
+        }
+        assertTrue(finished.await(60, TimeUnit.SECONDS));
+        assertEquals(waiters, granted.get());
+        assertTrue("held " + maxHeld.get(), maxHeld.get() <= LIMIT);
+    }
+
+    //等待中的线程只能停在LockSupport上，不能阻塞在或持有对象监视器，否则虚拟线程会占住载体线程.
+    private static void assertParkedWithoutMonitors(List<Thread> threads) {
+        if (WaiterThreadFactory.isVirtual()) {
+            //ThreadMXBean不包含虚拟线程，只检查状态.
+            for (Thread thread : threads) {
+                assertParked(thread.getName(), thread.getState(), thread.getStackTrace());
+            }
+            return;
+        }
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long[] ids = new long[threads.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = threads.get(i).getId();
+        }
+        for (ThreadInfo info : threadMXBean.getThreadInfo(ids, true, false)) {
+            assertNotNull(info);
+            assertParked(info.getThreadName(), info.getThreadState(), info.getStackTrace());
+            assertEquals(info.getThreadName() + " holds a monitor", 0,
+                info.getLockedMonitors().length);
+        }
+    }
+
+    private static void assertParked(String name, Thread.State state,
+        StackTraceElement[] stackTrace) {
+        assertTrue(name + " is " + state,
+            state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING);
+        //Object.wait等待时已释放监视器，需要从栈上区分.
+        for (StackTraceElement element : stackTrace) {
+            assertFalse(name + " waits on a monitor",
+                element.getClassName().equals(Object.class.getName())
+                    && element.getMethodName().equals("wait"));
+        }
+    }
+
+    private static String acquire() {
+        return service.getExecutePermissionWithTimeoutMills(50, QueryType.NORMAL, 60000);
+    }
+}
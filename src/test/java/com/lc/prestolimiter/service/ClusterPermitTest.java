@@ -0,0 +1,79 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.Exception.PrestoLimiterException;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ClusterPermitTest {
+
+    private static PrestoLimiterService service;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        //多集群时不使用presto.limit.count.
+        LimiterPropertiesFixture.load("presto.limit.count", "10", "presto.clusters", "adhoc,etl",
+            "presto.cluster.adhoc.limit", "2", "presto.cluster.etl.limit", "4");
+        service = new PrestoLimiterService(true, new MemoryCoordinationBackend());
+        assertTrue(service.start());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testPermitReturnsAssignedCluster() throws Exception {
+        Permit etl = acquire(1, Collections.singletonList("etl"));
+        assertEquals("etl", etl.getCluster());
+        //为null表示任意集群，分配到负载更低的adhoc.
+        Permit any = acquire(1, null);
+        assertEquals("adhoc", any.getCluster());
+        release(etl);
+        release(any);
+    }
+
+    @Test
+    public void testWeightOverEligibleClustersRejected() throws Exception {
+        assertRejected(3, Collections.singletonList("adhoc"));
+        assertRejected(5, null);
+        assertRejected(5, Collections.emptyList());
+        assertRejected(1, Collections.singletonList("unknown"));
+
+        Permit large = acquire(4, null);
+        assertEquals("etl", large.getCluster());
+        release(large);
+    }
+
+    private static void assertRejected(int weight, Collection<String> clusters)
+        throws Exception {
+        try {
+            acquire(weight, clusters);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PrestoLimiterException);
+            return;
+        }
+        throw new AssertionError("weight " + weight + " in " + clusters + " should be rejected");
+    }
+
+    private static Permit acquire(int weight, Collection<String> clusters) throws Exception {
+        return service.acquireAsync(50, QueryType.NORMAL, 10000, weight, clusters)
+            .get(10, TimeUnit.SECONDS);
+    }
+
+    private static void release(Permit permit) {
+        service.deleteExecutePermition(permit.getPath());
+    }
+}
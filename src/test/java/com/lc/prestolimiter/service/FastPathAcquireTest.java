@@ -0,0 +1,153 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.ChildrenWatch;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import com.lc.prestolimiter.zookeeper.common.PathChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FastPathAcquireTest {
+
+    private static final int LIMIT = 4;
+    private static final int THREADS = 8;
+
+    private static DelayedConsumeBackend backend;
+    private static PrestoLimiterService service;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", String.valueOf(LIMIT),
+            "presto.limit.highPriority.reserved", "1", "consumer.fastPath.enabled", "true");
+        backend = new DelayedConsumeBackend();
+        service = new PrestoLimiterService(true, backend);
+        assertTrue(service.start());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        service.stop();
+        backend.delayExecutor.shutdown();
+    }
+
+    @Test
+    public void testTakePublishedSlots() throws Exception {
+        awaitSlots(LIMIT);
+        List<Permit> permits = new ArrayList<>();
+        for (int i = 0; i < LIMIT - 1; i++) {
+            permits.add(service.tryAcquire(50, QueryType.NORMAL));
+            assertNotNull(permits.get(i));
+        }
+        //只剩预留，低优先级不能取走.
+        assertNull(service.tryAcquire(50, QueryType.NORMAL));
+        permits.add(service.tryAcquire(90, QueryType.NORMAL));
+        assertNotNull(permits.get(LIMIT - 1));
+        assertNull(service.tryAcquire(90, QueryType.NORMAL));
+
+        for (Permit permit : permits) {
+            service.deleteExecutePermition(permit.getPath());
+        }
+        awaitSlots(LIMIT);
+    }
+
+    @Test
+    public void testTryAcquireRacingReclaim() throws Exception {
+        awaitSlots(LIMIT);
+        //获得许可后加一、释放前减一，计数不超过同一时刻实际持有的许可数.
+        AtomicInteger held = new AtomicInteger();
+        AtomicInteger maxHeld = new AtomicInteger();
+        //每一轮等空闲资源重新发布后同时获取，排队的请求让消费者收回空闲资源，
+        //同时其他线程用已经缓存的空闲资源快速获取.
+        CyclicBarrier barrier = new CyclicBarrier(THREADS, () -> {
+            try {
+                awaitSlots(LIMIT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int priority = i % 2 == 0 ? 50 : 90;
+            results.add(executor.submit(() -> {
+                int fastPathCount = 0;
+                for (int round = 0; round < 20; round++) {
+                    barrier.await(20, TimeUnit.SECONDS);
+                    Permit permit = service.tryAcquire(priority, QueryType.NORMAL);
+                    if (permit != null) {
+                        fastPathCount++;
+                    } else {
+                        permit = service.acquireAsync(priority, QueryType.NORMAL, 10000)
+                            .get(10, TimeUnit.SECONDS);
+                    }
+                    maxHeld.accumulateAndGet(held.incrementAndGet(), Math::max);
+                    TimeUnit.MILLISECONDS.sleep(5 + ThreadLocalRandom.current().nextInt(15));
+                    held.decrementAndGet();
+                    service.deleteExecutePermition(permit.getPath());
+                }
+                return fastPathCount;
+            }));
+        }
+        int fastPathCount = 0;
+        for (Future<Integer> result : results) {
+            fastPathCount += result.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertTrue("held " + maxHeld.get(), maxHeld.get() <= LIMIT);
+        assertTrue(fastPathCount >= 20);
+        //队列清空后空闲资源重新发布，没有资源因为竞争一直被扣除.
+        awaitSlots(LIMIT);
+        assertEquals(0, consumeCount());
+    }
+
+    private static int consumeCount() {
+        return backend.getChildren(NativeProperties.getProducerConsumePath()).size();
+    }
+
+    private static void awaitSlots(int count) throws InterruptedException {
+        CoordinationFixture.await(() ->
+            backend.getChildren(NativeProperties.getConsumerFastPathPath()).size() == count);
+        //生产者的空闲资源缓存由监听事件更新.
+        TimeUnit.MILLISECONDS.sleep(50);
+    }
+
+    /**
+     * 执行目录的事件延迟送达，空闲资源的删除事件先到，与zk上两个监听的事件先后不确定一致.
+     */
+    private static class DelayedConsumeBackend extends MemoryCoordinationBackend {
+
+        private final ScheduledExecutorService delayExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+        @Override
+        public ChildrenWatch watchChildren(String path, PathChangeListener listener,
+            boolean cacheData) {
+            if (!path.equals(NativeProperties.getProducerConsumePath())) {
+                return super.watchChildren(path, listener, cacheData);
+            }
+            return super.watchChildren(path, event -> delayExecutor.schedule(
+                () -> listener.childEvent(event), 10, TimeUnit.MILLISECONDS), cacheData);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LimiterConfigReloadTest {
+
+    private static final String CONFIG_PATH = "/server/prestolimiter/config";
+
+    private static MemoryCoordinationBackend backend;
+    private static PrestoLimiterService service;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "4",
+            "presto.limit.highPriority.reserved", "0", "limiter.config.path", CONFIG_PATH);
+        backend = new MemoryCoordinationBackend();
+        //启动前已有的配置节点覆盖本地配置，其中定义的类型在启动时注册.
+        backend.tryLock(CONFIG_PATH, config(2, 1));
+        service = new PrestoLimiterService(true, backend);
+        assertTrue(service.start());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testRemoteConfigLoadedAtStart() {
+        assertEquals(2, NativeProperties.getPrestoLimitCnt());
+        assertNotNull(QueryType.valueOf("ETL"));
+    }
+
+    @Test
+    public void testLimitRaisedAtRuntime() throws Exception {
+        updateConfig(1, 1);
+        Permit first = acquire(QueryType.NORMAL);
+        CompletableFuture<Permit> waiting = acquireAsync(QueryType.NORMAL);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(waiting.isDone());
+
+        //调高的资源立即使用.
+        updateConfig(2, 1);
+        Permit second = waiting.get(10, TimeUnit.SECONDS);
+        release(first);
+        release(second);
+    }
+
+    @Test
+    public void testLimitLoweredKeepsGrantedPermits() throws Exception {
+        updateConfig(2, 1);
+        Permit first = acquire(QueryType.NORMAL);
+        Permit second = acquire(QueryType.NORMAL);
+
+        //调低时已下发的许可不回收，释放后回落到新的限制内.
+        updateConfig(1, 1);
+        CompletableFuture<Permit> waiting = acquireAsync(QueryType.NORMAL);
+        release(first);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(backend.exists(second.getPath()));
+        assertFalse(waiting.isDone());
+        release(second);
+        release(waiting.get(10, TimeUnit.SECONDS));
+        updateConfig(2, 1);
+    }
+
+    @Test
+    public void testTypeLimitChangedAtRuntime() throws Exception {
+        updateConfig(2, 1);
+        QueryType etl = QueryType.valueOf("ETL");
+        Permit first = acquire(etl);
+        CompletableFuture<Permit> waiting = acquireAsync(etl);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(waiting.isDone());
+
+        updateConfig(2, 2);
+        Permit second = waiting.get(10, TimeUnit.SECONDS);
+        release(first);
+        release(second);
+        updateConfig(2, 1);
+    }
+
+    private static byte[] config(int limitCnt, int etlLimit) {
+        return ("presto.limit.count=" + limitCnt + "\nquery.type.ETL=2," + etlLimit + ",1\n")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void updateConfig(int limitCnt, int etlLimit) throws Exception {
+        backend.setData(CONFIG_PATH, config(limitCnt, etlLimit));
+        CoordinationFixture.await(() -> NativeProperties.getPrestoLimitCnt() == limitCnt
+            && QueryType.valueOf("ETL").getLimit() == etlLimit);
+        //消费者在配置更新后的同一个回调中应用新的限制.
+        TimeUnit.MILLISECONDS.sleep(50);
+    }
+
+    private static CompletableFuture<Permit> acquireAsync(QueryType queryType) {
+        return service.acquireAsync(50, queryType, 10000);
+    }
+
+    private static Permit acquire(QueryType queryType) throws Exception {
+        return acquireAsync(queryType).get(10, TimeUnit.SECONDS);
+    }
+
+    private static void release(Permit permit) {
+        service.deleteExecutePermition(permit.getPath());
+    }
+}
@@ -0,0 +1,72 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PermitHeartbeatTest {
+
+    private static final long HEARTBEAT_MILLS = 300;
+
+    private static MemoryCoordinationBackend backend;
+    private static PrestoLimiterService service;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "1",
+            "presto.limit.highPriority.reserved", "0",
+            "producer.consume.heartbeatMills", String.valueOf(HEARTBEAT_MILLS));
+        backend = new MemoryCoordinationBackend();
+        service = new PrestoLimiterService(true, backend);
+        assertTrue(service.start());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testHeartbeatKeepsPermit() throws Exception {
+        Permit permit = acquire();
+        CompletableFuture<Permit> waiting = service.acquireAsync(50, QueryType.NORMAL, 10000);
+        //持续心跳超过多个心跳超时，许可一直有效.
+        for (int i = 0; i < 10; i++) {
+            assertTrue(service.heartbeat(permit.getPath()));
+            TimeUnit.MILLISECONDS.sleep(HEARTBEAT_MILLS / 3);
+        }
+        assertTrue(backend.exists(permit.getPath()));
+        assertFalse(waiting.isDone());
+
+        service.deleteExecutePermition(permit.getPath());
+        assertFalse(service.heartbeat(permit.getPath()));
+        service.deleteExecutePermition(waiting.get(10, TimeUnit.SECONDS).getPath());
+    }
+
+    @Test
+    public void testPermitWithoutHeartbeatIsReclaimed() throws Exception {
+        Permit permit = acquire();
+        CompletableFuture<Permit> waiting = service.acquireAsync(50, QueryType.NORMAL, 10000);
+        //持有者不再心跳，一个心跳超时后消费者回收资源给等待中的请求.
+        Permit next = waiting.get(10, TimeUnit.SECONDS);
+        assertFalse(backend.exists(permit.getPath()));
+        //生产者收到执行节点的删除事件后不再跟踪该许可.
+        CoordinationFixture.await(() -> !service.heartbeat(permit.getPath()));
+        assertTrue(service.heartbeat(next.getPath()));
+        service.deleteExecutePermition(next.getPath());
+    }
+
+    private static Permit acquire() throws Exception {
+        return service.acquireAsync(50, QueryType.NORMAL, 10000).get(10, TimeUnit.SECONDS);
+    }
+}
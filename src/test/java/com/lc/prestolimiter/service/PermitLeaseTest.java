@@ -0,0 +1,182 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.common.RegisterObject;
+import com.lc.prestolimiter.common.RegisterObjectCodec;
+import com.lc.prestolimiter.consumer.ConsumeService;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeMove;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PermitLeaseTest {
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "4",
+            "presto.limit.highPriority.reserved", "0", "producer.lease.enabled", "true",
+            "producer.lease.size", "2");
+    }
+
+    @Test
+    public void testPartialGrantKeepsRequestedPermits() throws Exception {
+        FailingBackend backend = new FailingBackend();
+        ConsumeService consumeService = new ConsumeService(backend);
+        consumeService.start();
+        try {
+            String held = CoordinationFixture.register(backend, 50, QueryType.NORMAL, 60000, 1);
+            CoordinationFixture.await(() -> backend.exists(consumePath(held)));
+
+            //只剩3个资源时租约部分满足，移动失败后放回队列的请求仍申请4个.
+            backend.failNext.set(true);
+            RegisterObject lease = new RegisterObject(50, QueryType.NORMAL,
+                System.currentTimeMillis() + 60000);
+            lease.setPermits(4);
+            lease.setLease(true);
+            String leaseNode = backend.createSequential(
+                NativeProperties.getProducerRegisterPath(),
+                RegisterObjectCodec.encodeNodeName(lease), RegisterObjectCodec.encode(lease),
+                false);
+            CoordinationFixture.await(() -> backend.failures.get() == 1);
+
+            backend.delete(consumePath(held));
+            CoordinationFixture.await(() -> backend.exists(consumePath(leaseNode)));
+            assertEquals(4, permitsOf(backend, leaseNode));
+        } finally {
+            consumeService.stop();
+        }
+    }
+
+    @Test
+    public void testLeasePermitsServedLocally() throws Exception {
+        MemoryCoordinationBackend backend = new MemoryCoordinationBackend();
+        PrestoLimiterService service = new PrestoLimiterService(true, backend);
+        assertTrue(service.start());
+        List<Permit> permits = new ArrayList<>();
+        try {
+            //第一个请求经过注册，同时在后台申请租约，之后的请求在租约内获得许可.
+            permits.add(acquire(service));
+            acquireLeasePermit(service, permits);
+            //租约到达之前的请求可能都经过注册，每个占一个执行节点，租约占一个.
+            int registered = 0;
+            for (Permit permit : permits) {
+                if (!permit.getPath().contains("#")) {
+                    registered++;
+                }
+            }
+            List<String> consumeNodes = backend
+                .getChildren(NativeProperties.getProducerConsumePath());
+            assertEquals(registered + 1, consumeNodes.size());
+            int leasePermits = 0;
+            for (String node : consumeNodes) {
+                leasePermits = Math.max(leasePermits, permitsOf(backend, node));
+            }
+            assertEquals(2, leasePermits);
+        } finally {
+            for (Permit permit : permits) {
+                service.deleteExecutePermition(permit.getPath());
+            }
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testRepeatedReleaseKeepsLeaseSize() throws Exception {
+        MemoryCoordinationBackend backend = new MemoryCoordinationBackend();
+        PrestoLimiterService service = new PrestoLimiterService(true, backend);
+        assertTrue(service.start());
+        List<Permit> permits = new ArrayList<>();
+        try {
+            permits.add(acquire(service));
+            Permit local = acquireLeasePermit(service, permits);
+            permits.remove(local);
+            String leasePath = local.getPath().substring(0, local.getPath().lastIndexOf('#'));
+            //重复释放以及释放不是租约分配的许可都不归还资源.
+            service.deleteExecutePermition(local.getPath());
+            service.deleteExecutePermition(local.getPath());
+            service.deleteExecutePermition(leasePath + "#" + Long.MAX_VALUE);
+
+            //之后在该租约内获得的许可不超过租约的资源个数.
+            int leasePermits = RegisterObjectCodec
+                .decode(backend.getData(leasePath), new RegisterObject()).getPermits();
+            int fromLease = 0;
+            for (int i = 0; i < 4; i++) {
+                try {
+                    Permit permit = service.acquireAsync(50, QueryType.NORMAL, 200)
+                        .get(10, TimeUnit.SECONDS);
+                    permits.add(permit);
+                    if (permit.getPath().startsWith(leasePath + "#")) {
+                        fromLease++;
+                    }
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof TimeoutException);
+                }
+            }
+            assertEquals(leasePermits, fromLease);
+        } finally {
+            for (Permit permit : permits) {
+                service.deleteExecutePermition(permit.getPath());
+            }
+            service.stop();
+        }
+    }
+
+    //持续获取许可直到获得租约内的许可，租约内的许可路径带本机序号.
+    private static Permit acquireLeasePermit(PrestoLimiterService service, List<Permit> permits)
+        throws Exception {
+        CoordinationFixture.await(() -> {
+            try {
+                Permit permit = acquire(service);
+                permits.add(permit);
+                return permit.getPath().contains("#");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return permits.get(permits.size() - 1);
+    }
+
+    private static String consumePath(String node) {
+        return NativeProperties.getProducerConsumePath() + "/" + node;
+    }
+
+    private static Permit acquire(PrestoLimiterService service) throws Exception {
+        return service.acquireAsync(50, QueryType.NORMAL, 10000).get(10, TimeUnit.SECONDS);
+    }
+
+    private static int permitsOf(MemoryCoordinationBackend backend, String node)
+        throws Exception {
+        return RegisterObjectCodec.decode(backend.getData(consumePath(node)),
+            new RegisterObject()).getPermits();
+    }
+
+    //按需让下一次移动失败.
+    private static class FailingBackend extends MemoryCoordinationBackend {
+
+        private final AtomicBoolean failNext = new AtomicBoolean();
+        private final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public void move(List<NodeMove> moves) throws Exception {
+            if (failNext.compareAndSet(true, false)) {
+                failures.incrementAndGet();
+                throw new IllegalStateException("move disabled");
+            }
+            super.move(moves);
+        }
+    }
+}
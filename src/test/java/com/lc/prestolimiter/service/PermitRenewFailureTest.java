@@ -0,0 +1,90 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import com.lc.prestolimiter.coordination.NodeData;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PermitRenewFailureTest {
+
+    private static final long HEARTBEAT_MILLS = 3000;
+    private static final long RENEW_MILLS = HEARTBEAT_MILLS / 3;
+
+    private static FailingRenewBackend backend;
+    private static PrestoLimiterService service;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "1",
+            "presto.limit.highPriority.reserved", "0",
+            "producer.consume.heartbeatMills", String.valueOf(HEARTBEAT_MILLS));
+        backend = new FailingRenewBackend();
+        service = new PrestoLimiterService(true, backend);
+        assertTrue(service.start());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testFailedRenewRetried() throws Exception {
+        Permit permit = service.acquireAsync(50, QueryType.NORMAL, 10000)
+            .get(10, TimeUnit.SECONDS);
+        //每三分之一个超时续约一次，在续约之前心跳，使写入的过期时间接近续约的时间.
+        awaitRenewal(permit);
+        TimeUnit.MILLISECONDS.sleep(RENEW_MILLS - 200);
+        long writtenExpireTime = awaitRenewal(permit) + HEARTBEAT_MILLS;
+
+        //之后心跳的续约失败(事务与逐个续约都失败)，下一次续约在写入的过期时间之前重试，不等待新的心跳.
+        TimeUnit.MILLISECONDS.sleep(300);
+        backend.failures.set(2);
+        assertTrue(service.heartbeat(permit.getPath()));
+        CoordinationFixture.await(() -> backend.failures.get() == 0);
+
+        //超过失败前写入的过期时间后，许可仍然有效.
+        TimeUnit.MILLISECONDS.sleep(
+            Math.max(0, writtenExpireTime + 400 - System.currentTimeMillis()));
+        assertTrue(backend.exists(permit.getPath()));
+        assertTrue(service.heartbeat(permit.getPath()));
+        service.deleteExecutePermition(permit.getPath());
+    }
+
+    //心跳并等待下一次续约写入，返回心跳的时间.
+    private static long awaitRenewal(Permit permit) throws InterruptedException {
+        int renewals = backend.renewals.get();
+        long heartbeatTime = System.currentTimeMillis();
+        assertTrue(service.heartbeat(permit.getPath()));
+        CoordinationFixture.await(() -> backend.renewals.get() > renewals);
+        return heartbeatTime;
+    }
+
+    //按需让执行节点的续约失败，其他错误而不是节点不存在.
+    private static class FailingRenewBackend extends MemoryCoordinationBackend {
+
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger renewals = new AtomicInteger();
+
+        @Override
+        public void setData(List<NodeData> updates) throws Exception {
+            if (updates.get(0).getPath().startsWith(NativeProperties.getProducerConsumePath())
+                && failures.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                throw new IllegalStateException("renew disabled");
+            }
+            super.setData(updates);
+            renewals.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.Exception.PrestoLimiterException;
+import com.lc.prestolimiter.common.CoordinationFixture;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.NativeProperties;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ProducerSessionTest {
+
+    private static MemoryCoordinationBackend backend;
+    private static PrestoLimiterService service;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "1",
+            "presto.limit.highPriority.reserved", "0", "producer.session.enabled", "true");
+        backend = new MemoryCoordinationBackend();
+        service = new PrestoLimiterService(true, backend);
+        assertTrue(service.start());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testSessionExpiredAndRenewed() throws Exception {
+        Permit held = acquire();
+        CompletableFuture<Permit> waiting = service.acquireAsync(50, QueryType.NORMAL, 10000);
+        CoordinationFixture.await(() -> registerNodes().size() == 1);
+        List<String> sessions = backend.getChildren(NativeProperties.getProducerSessionPath());
+        assertEquals(1, sessions.size());
+        String expired = sessions.get(0);
+
+        //会话过期时zk删除本机的注册节点与会话节点，消费者回收执行节点，等待中的请求立即失败.
+        backend.delete(NativeProperties.getProducerRegisterPath() + "/" + registerNodes().get(0));
+        backend.delete(NativeProperties.getProducerSessionPath() + "/" + expired);
+        try {
+            waiting.get(10, TimeUnit.SECONDS);
+            throw new AssertionError("waiting request of the expired session should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PrestoLimiterException);
+        }
+        CoordinationFixture.await(() -> !backend.exists(held.getPath()));
+
+        //生产者创建新的会话节点，之后获得的许可不会被回收.
+        CoordinationFixture.await(() -> {
+            List<String> renewed = backend.getChildren(NativeProperties.getProducerSessionPath());
+            return renewed.size() == 1 && !renewed.contains(expired);
+        });
+        Permit next = acquire();
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(backend.exists(next.getPath()));
+        service.deleteExecutePermition(next.getPath());
+    }
+
+    private static List<String> registerNodes() {
+        return backend.getChildren(NativeProperties.getProducerRegisterPath());
+    }
+
+    private static Permit acquire() throws Exception {
+        return service.acquireAsync(50, QueryType.NORMAL, 10000).get(10, TimeUnit.SECONDS);
+    }
+}
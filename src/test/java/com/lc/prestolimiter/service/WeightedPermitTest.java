@@ -0,0 +1,101 @@
+package com.lc.prestolimiter.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.lc.prestolimiter.Exception.PrestoLimiterException;
+import com.lc.prestolimiter.common.LimiterPropertiesFixture;
+import com.lc.prestolimiter.common.Permit;
+import com.lc.prestolimiter.common.QueryType;
+import com.lc.prestolimiter.coordination.MemoryCoordinationBackend;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class WeightedPermitTest {
+
+    private static final long BYPASS_MILLS = 300;
+
+    private static PrestoLimiterService service;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        LimiterPropertiesFixture.load("presto.limit.count", "4",
+            "presto.limit.highPriority.reserved", "0",
+            "consumer.bypass.maxMills", String.valueOf(BYPASS_MILLS));
+        service = new PrestoLimiterService(true, new MemoryCoordinationBackend());
+        assertTrue(service.start());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    public void testSmallRequestBypassesBlockedHead() throws Exception {
+        Permit large = acquire(3);
+        CompletableFuture<Permit> blocked = acquireAsync(2);
+        //排在前面的请求资源不足，后面资源足够的请求在等待时间内先执行.
+        Permit small = acquire(1);
+        assertFalse(blocked.isDone());
+
+        release(large);
+        release(blocked.get(10, TimeUnit.SECONDS));
+        release(small);
+    }
+
+    @Test
+    public void testBlockedHeadReservesReleasedPermits() throws Exception {
+        Permit large = acquire(3);
+        CompletableFuture<Permit> blocked = acquireAsync(2);
+        TimeUnit.MILLISECONDS.sleep(BYPASS_MILLS * 2);
+        //超过跳过的时间后，剩余的资源留给排在最前的请求.
+        CompletableFuture<Permit> small = acquireAsync(1);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(small.isDone());
+
+        release(large);
+        release(blocked.get(10, TimeUnit.SECONDS));
+        release(small.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDefaultWeightOfType() throws Exception {
+        //CIRCLE_PEOPLE默认占用4个资源.
+        Permit circle = service.acquireAsync(50, QueryType.CIRCLE_PEOPLE, 10000)
+            .get(10, TimeUnit.SECONDS);
+        CompletableFuture<Permit> normal = acquireAsync(1);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertFalse(normal.isDone());
+
+        release(circle);
+        release(normal.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWeightOverLimitRejected() throws Exception {
+        try {
+            acquireAsync(5).get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PrestoLimiterException);
+            return;
+        }
+        throw new AssertionError("weight over the limit should be rejected");
+    }
+
+    private static CompletableFuture<Permit> acquireAsync(int weight) {
+        return service.acquireAsync(50, QueryType.NORMAL, 10000, weight);
+    }
+
+    private static Permit acquire(int weight) throws Exception {
+        return acquireAsync(weight).get(10, TimeUnit.SECONDS);
+    }
+
+    private static void release(Permit permit) {
+        service.deleteExecutePermition(permit.getPath());
+    }
+}